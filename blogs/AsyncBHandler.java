@@ -0,0 +1,290 @@
+package blogs;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <tt>AsyncBHandler</tt> wraps any <tt>BHandler</tt> (e.g. {@code CSVFileHandler} or
+ * {@code BStreamHandler}) and publishes the records into it by its own writer thread.
+ * <p>
+ * {@code publish()} only puts the record to a bounded lock-free queue and returns. If the queue is
+ * full, the record is written down by the caller thread, so no records are lost.
+ * {@code flush()} waits until the records queued before the call are written and flushed, but
+ * not longer than {@code flushTimeout}. {@code close()} drains the queue, stops the writer
+ * thread and closes the wrapped handler.
+ * <p>
+ * The <tt>AsyncBHandler</tt> is configured from <tt>BLogManager</tt> properties
+ * (or their default values):
+ * <ul>
+ * <li>   asyncbhandler.queue.size     max amount of the queued records</li>
+ * <li>   asyncbhandler.flush.timeout  max time {@code flush()} waits (milliseconds)</li>
+ * </ul>
+ */
+public class AsyncBHandler extends BHandler {
+	public static final int DEFAULT_QUEUE_SIZE = 10000;
+	public static final int DEFAULT_FLUSH_TIMEOUT = 5000; // 5 seconds
+	// how long the idle writer waits for the new records
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final BHandler handler;
+	private final ConcurrentLinkedQueue<BLogRecord> queue = new ConcurrentLinkedQueue<BLogRecord>();
+	private final AtomicInteger queueSize = new AtomicInteger();
+	private int maxQueueSize;
+	private int flushTimeout;
+	// amount of the records which have been queued
+	private final AtomicLong queued = new AtomicLong();
+	// amount of the queued records which have been written and flushed by the writer
+	private volatile long flushed;
+	private volatile boolean closed;
+	// the idle writer sleeps till the next record while the handler hibernates
+	private volatile boolean hibernating;
+	private final Thread writer;
+
+	/**
+	 * Writes the queued records down into the wrapped handler
+	 */
+	private final class Writer implements Runnable {
+		@Override
+		public void run() {
+			long written = 0;
+			while (true) {
+				BLogRecord record;
+				boolean found = false;
+				while ((record = queue.poll()) != null) {
+					queueSize.decrementAndGet();
+					try {
+						handler.publish(record);
+					} catch (RuntimeException ex) {
+						getErrorManager().error(ex.getMessage(), ex, ErrorManager.WRITE_FAILURE);
+					}
+					written++;
+					found = true;
+				}
+				if (found) {
+					try {
+						handler.flush();
+					} catch (RuntimeException ex) {
+						getErrorManager().error(ex.getMessage(), ex, ErrorManager.FLUSH_FAILURE);
+					}
+					flushed = written;
+				}
+				if (closed && queue.isEmpty()) {
+					break;
+				}
+				if (hibernating && queue.isEmpty()) {
+					LockSupport.park(this);
+				} else {
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Configure an AsyncBHandler from BLogManager
+	 * properties and/or default values
+	 */
+	private void configure() {
+		BLogManager manager = BLogManager.getLogManager();
+		maxQueueSize = manager.getProperty(BLogManager.ASYNC_QUEUE_SIZE_PROP, DEFAULT_QUEUE_SIZE);
+		flushTimeout = manager.getProperty(BLogManager.ASYNC_FLUSH_TIMEOUT_PROP, DEFAULT_FLUSH_TIMEOUT);
+		getErrorManager().setReportPeriod(manager.getProperty(BLogManager.ERROR_REPORT_PERIOD_PROP, ErrorManager.DEFAULT_REPORT_PERIOD));
+	}
+
+	/**
+	 * Wrap the given handler. The queue is configured from <tt>BLogManager</tt> properties.
+	 * @param handler the handler to write the records into
+	 */
+	public AsyncBHandler(BHandler handler) {
+		this(handler, true, 0, 0);
+	}
+
+	/**
+	 * Wrap the given handler.
+	 * @param handler the handler to write the records into
+	 * @param maxQueueSize max amount of the queued records
+	 * @param flushTimeout max time {@code flush()} waits (milliseconds)
+	 */
+	public AsyncBHandler(BHandler handler, int maxQueueSize, int flushTimeout) {
+		this(handler, false, maxQueueSize, flushTimeout);
+	}
+
+	/**
+	 * All the fields are set before the writer thread is started, so the writer sees them
+	 * @param handler the handler to write the records into
+	 * @param configure take the queue parameters from <tt>BLogManager</tt> properties
+	 * @param maxQueueSize max amount of the queued records
+	 * @param flushTimeout max time {@code flush()} waits (milliseconds)
+	 */
+	private AsyncBHandler(BHandler handler, boolean configure, int maxQueueSize, int flushTimeout) {
+		// Check for a null pointer:
+		handler.getClass();
+		if (configure) {
+			configure();
+		} else {
+			if (maxQueueSize < 1 || flushTimeout < 0) {
+				throw new IllegalArgumentException();
+			}
+			this.maxQueueSize = maxQueueSize;
+			this.flushTimeout = flushTimeout;
+		}
+		this.handler = handler;
+		this.writer = new Thread(new Writer(), "AsyncBHandler-" + handler.getClass().getSimpleName());
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	/**
+	 * Queue the record for the writer thread. If the queue is full or the handler
+	 * has been closed, the record is published by the current thread.
+	 *
+	 * @param record
+	 *            description of the log event. A null record is silently
+	 *            ignored and is not published
+	 */
+	@Override
+	public void publish(BLogRecord record) {
+		if (record == null) {
+			return;
+		}
+		if (closed || queueSize.incrementAndGet() > maxQueueSize) {
+			if (!closed) {
+				queueSize.decrementAndGet();
+			}
+			handler.publish(record);
+			return;
+		}
+		queue.add(record);
+		queued.incrementAndGet();
+		if (hibernating) {
+			hibernating = false;
+			LockSupport.unpark(writer);
+		}
+	}
+
+	/**
+	 * Wait until the records queued before this call are written down and flushed,
+	 * but not longer than {@code flushTimeout}.
+	 */
+	@Override
+	public void flush() {
+		awaitFlushed();
+	}
+
+	/**
+	 * Wait until the records queued before this call are written down and flushed
+	 * @return false if they haven't been flushed during {@code flushTimeout} or the writer
+	 * thread has died
+	 */
+	private boolean awaitFlushed() {
+		long target = queued.get();
+		if (flushed >= target) {
+			return true;
+		}
+		LockSupport.unpark(writer);
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushTimeout);
+		while (flushed < target) {
+			long wait = deadline - System.nanoTime();
+			if (wait <= 0 || !writer.isAlive()) {
+				return flushed >= target;
+			}
+			LockSupport.parkNanos(this, Math.min(wait, TimeUnit.MILLISECONDS.toNanos(1)));
+		}
+		return true;
+	}
+
+	/**
+	 * Wait until the queued records are written down (see {@code flush()}) and
+	 * force the wrapped handler.
+	 * @throws IOException if the records haven't been written down during {@code flushTimeout},
+	 * the writer thread has died or the wrapped handler can't be forced
+	 */
+	@Override
+	public void sync() throws IOException {
+		if (!awaitFlushed()) {
+			throw new IOException("AsyncBHandler: " + (queued.get() - flushed) + " records haven't been written in "
+					+ flushTimeout + " ms" + (writer.isAlive() ? "" : ", the writer thread is dead"));
+		}
+		handler.sync();
+	}
+
+	/**
+	 * Wait until the queued records are written down (see {@code flush()}) and let
+	 * the wrapped handler release its resources. The writer thread sleeps till the next record.
+	 */
+	@Override
+	public void hibernate() {
+		hibernating = true;
+		flush();
+		handler.hibernate();
+	}
+
+	/**
+	 * Write down all the queued records, stop the writer thread and
+	 * close the wrapped handler. The writer is waited for {@code flushTimeout} at most.
+	 */
+	@Override
+	public void close() {
+		close(flushTimeout);
+	}
+
+	/**
+	 * Write down all the queued records, stop the writer thread and close the wrapped handler
+	 * within the given time. If the writer hasn't stopped in time, the records left in the queue
+	 * are reported as lost and the wrapped handler is closed anyway.
+	 * @param timeout max time to wait for the writer thread (milliseconds)
+	 */
+	public void close(long timeout) {
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(Math.max(1, timeout));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (writer.isAlive()) {
+			getErrorManager().error("the writer thread hasn't stopped in " + timeout + " ms, "
+					+ queueSize.get() + " queued records are lost", null, ErrorManager.CLOSE_FAILURE);
+		} else {
+			// the records queued by the threads which hadn't seen the handler closed
+			BLogRecord record;
+			while ((record = queue.poll()) != null) {
+				queueSize.decrementAndGet();
+				try {
+					handler.publish(record);
+				} catch (RuntimeException ex) {
+					getErrorManager().error(ex.getMessage(), ex, ErrorManager.WRITE_FAILURE);
+				}
+			}
+		}
+		handler.close();
+	}
+
+	/**
+	 * @return the amount of the records waiting for the writer thread
+	 */
+	public int getQueueSize() {
+		return queueSize.get();
+	}
+
+	/**
+	 * @return the wrapped handler
+	 */
+	public BHandler getHandler() {
+		return handler;
+	}
+
+	@Override
+	public void setFormatter(BFormatter newFormatter) {
+		handler.setFormatter(newFormatter);
+	}
+
+	@Override
+	public BFormatter getFormatter() {
+		return handler.getFormatter();
+	}
+}
@@ -0,0 +1,134 @@
+package blogs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <tt>BLogBlockCodec</tt> writes a batch of records as one framed block and reads it back.
+ * It's the wire format between {@link SocketBHandler} and {@link BLogCollector}.
+ * <p>
+ * A block consists of the magic number, flags, the amount of the records, the length of
+ * the payload and the payload. The payload is a sequence of records (see {@link BLogRecordCodec})
+ * each preceded by its length. If the {@code COMPRESSED} flag is set, the payload is deflated.
+ */
+public class BLogBlockCodec {
+	public static final int MAGIC = 0x424C4F47; // "BLOG"
+	public static final int COMPRESSED = 1;
+	// max length of a payload we agree to read
+	private static final int MAX_PAYLOAD = 256 * 1024 * 1024;
+
+	private BLogBlockCodec() {
+	}
+
+	/**
+	 * Write the records as one block
+	 * @param records
+	 * @param compress deflate the payload
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void write(List<BLogRecord> records, boolean compress, DataOutputStream out) throws IOException {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		DataOutputStream payloadData = new DataOutputStream(payload);
+		ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+		DataOutputStream recordData = new DataOutputStream(recordBytes);
+		for (BLogRecord record : records) {
+			recordBytes.reset();
+			BLogRecordCodec.write(record, recordData);
+			payloadData.writeInt(recordBytes.size());
+			recordBytes.writeTo(payloadData);
+		}
+
+		byte bytes[] = payload.toByteArray();
+		int len = bytes.length;
+		if (compress) {
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			deflater.setInput(bytes);
+			deflater.finish();
+			ByteArrayOutputStream deflated = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+			byte buff[] = new byte[8192];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buff);
+				deflated.write(buff, 0, n);
+			}
+			deflater.end();
+			bytes = deflated.toByteArray();
+		}
+
+		out.writeInt(MAGIC);
+		out.writeByte(compress ? COMPRESSED : 0);
+		out.writeInt(records.size());
+		out.writeInt(len);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		out.flush();
+	}
+
+	/**
+	 * Read one block
+	 * @param in
+	 * @return records of the block
+	 * @throws IOException if the block is malformed or the stream has been closed
+	 */
+	public static List<BLogRecord> read(DataInputStream in) throws IOException {
+		int magic = in.readInt();
+		if (magic != MAGIC) {
+			throw new IOException("BLogBlockCodec: bad magic: " + Integer.toHexString(magic));
+		}
+		int flags = in.readByte();
+		int count = in.readInt();
+		int len = in.readInt();
+		int wireLen = in.readInt();
+		if (count < 0 || len < 0 || wireLen < 0 || len > MAX_PAYLOAD || wireLen > MAX_PAYLOAD
+				|| ((flags & COMPRESSED) == 0 && wireLen != len)) {
+			throw new IOException("BLogBlockCodec: bad block header");
+		}
+		// every record takes its length at least
+		if (count > len / 4) {
+			throw new IOException("BLogBlockCodec: bad records count: " + count + ", payload: " + len);
+		}
+		byte bytes[] = new byte[wireLen];
+		in.readFully(bytes);
+
+		if ((flags & COMPRESSED) != 0) {
+			Inflater inflater = new Inflater();
+			inflater.setInput(bytes);
+			byte inflated[] = new byte[len];
+			try {
+				int off = 0;
+				while (off < len && !inflater.finished()) {
+					int n = inflater.inflate(inflated, off, len - off);
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					off += n;
+				}
+				if (off != len) {
+					throw new IOException("BLogBlockCodec: truncated payload");
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("BLogBlockCodec: " + e.getMessage());
+			} finally {
+				inflater.end();
+			}
+			bytes = inflated;
+		}
+
+		DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+		List<BLogRecord> records = new ArrayList<BLogRecord>(count);
+		for (int i = 0; i < count; i++) {
+			// the length lets us skip the records of the unknown versions in the future
+			payload.readInt();
+			records.add(BLogRecordCodec.read(payload));
+		}
+		return records;
+	}
+}
@@ -0,0 +1,211 @@
+package blogs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <tt>BLogCollector</tt> receives the records shipped by {@link SocketBHandler}s of several
+ * application instances and writes them through the normal {@link CSVFileHandler}s, one per
+ * business solution, the same way a <tt>BLogger</tt> does.
+ * <p>
+ * The solutions the collector doesn't know (the {@code BSolution} constants and the ones of
+ * its registry.solutions property) aren't registered, their records are written as
+ * {@code BSolution.ALL}.
+ * <p>
+ * Every connection is served by its own thread. A block is acknowledged when its records have
+ * been written down and the handlers have been flushed.
+ * <p>
+ * Usage: <tt>java blogs.BLogCollector [port]</tt>. The port can also be defined by the
+ * <tt>collector.port</tt> property, the files are placed as defined in cfg.properties
+ * (see {@link BLogManager}).
+ * <p>
+ * The connections aren't authenticated, so the collector listens on the loopback address
+ * unless the <tt>collector.bind</tt> property defines another one (e.g. 0.0.0.0 for all
+ * the addresses). The thrown of a record is received as text, the serialized one of the older
+ * senders is accepted only if it consists of throwables (see {@link BLogRecordCodec}).
+ */
+public class BLogCollector {
+	public static final int DEFAULT_PORT = 9020;
+	public static final String DEFAULT_BIND_ADDRESS = "127.0.0.1";
+
+	private final ServerSocket serverSocket;
+	// handlers by the business solution name
+	private final Map<String, BHandler> handlers = new ConcurrentHashMap<String, BHandler>();
+	// the same handlers by the solution id (see BLogRegistry)
+	private volatile BHandler handlersById[] = new BHandler[0];
+	private volatile boolean closed;
+
+	/**
+	 * Serves one connection
+	 */
+	private final class Connection implements Runnable {
+		private final Socket socket;
+
+		Connection(Socket socket) {
+			this.socket = socket;
+		}
+
+		@Override
+		public void run() {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				while (!closed) {
+					List<BLogRecord> records = BLogBlockCodec.read(in);
+					write(records);
+					out.writeInt(records.size());
+					out.flush();
+				}
+			} catch (EOFException e) {
+				// the handler has closed the connection
+			} catch (IOException e) {
+				if (!closed) {
+					System.err.println("Error on reading from " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+				}
+			} finally {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// nothing to do
+				}
+			}
+		}
+	}
+
+	/**
+	 * Start listening on the given port of the address defined by the <tt>collector.bind</tt>
+	 * property (the loopback address by default)
+	 * @param port
+	 * @throws IOException
+	 */
+	public BLogCollector(int port) throws IOException {
+		this(BLogManager.getLogManager().getProperty(BLogManager.COLLECTOR_BIND_PROP, DEFAULT_BIND_ADDRESS), port);
+	}
+
+	/**
+	 * Start listening on the given address and port
+	 * @param bindAddress the host name or the IP address to listen on
+	 * @param port
+	 * @throws IOException
+	 */
+	public BLogCollector(String bindAddress, int port) throws IOException {
+		this.serverSocket = new ServerSocket();
+		this.serverSocket.setReuseAddress(true);
+		this.serverSocket.bind(new InetSocketAddress(bindAddress, port));
+	}
+
+	/**
+	 * @return the port the collector listens on
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Accept the connections until the collector is closed
+	 */
+	public void serve() {
+		while (!closed) {
+			try {
+				Socket socket = serverSocket.accept();
+				Thread thread = new Thread(new Connection(socket), "BLogCollector-" + socket.getRemoteSocketAddress());
+				thread.setDaemon(true);
+				thread.start();
+			} catch (SocketException e) {
+				// the server socket has been closed
+			} catch (IOException e) {
+				System.err.println("Error on accepting a connection " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Stop accepting the connections and close all the handlers
+	 */
+	public void close() {
+		closed = true;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			System.err.println("Error on closing " + getClass().getCanonicalName() + " " + e.getMessage());
+		}
+		for (BHandler handler : handlers.values()) {
+			handler.close();
+		}
+		handlers.clear();
+		handlersById = new BHandler[0];
+	}
+
+	/**
+	 * Write the records down into the handlers of their business solutions
+	 * @param records
+	 * @throws IOException if a handler can't be created
+	 */
+	private void write(List<BLogRecord> records) throws IOException {
+		Set<BHandler> written = new HashSet<BHandler>();
+		for (BLogRecord record : records) {
+			BHandler handler = getHandler(record.getSolutionId());
+			handler.publish(record);
+			written.add(handler);
+		}
+		for (BHandler handler : written) {
+			handler.flush();
+		}
+	}
+
+	private BHandler getHandler(int solutionId) throws IOException {
+		if (solutionId == BLogRegistry.NONE) {
+			solutionId = BSolution.ALL.ordinal();
+		}
+		BHandler current[] = handlersById;
+		if (solutionId < current.length && current[solutionId] != null) {
+			return current[solutionId];
+		}
+		synchronized (handlers) {
+			BLogRegistry registry = BLogRegistry.getRegistry();
+			String name = registry.getSolutionName(solutionId);
+			BHandler handler = handlers.get(name);
+			if (handler == null) {
+				handler = new CSVFileHandler("%d/" + registry.getSolutionPath(solutionId) + "/" + name + "_%t%i.csv");
+				handlers.put(name, handler);
+			}
+			current = handlersById;
+			if (solutionId >= current.length) {
+				current = Arrays.copyOf(current, solutionId + 1);
+			} else {
+				current = current.clone();
+			}
+			current[solutionId] = handler;
+			handlersById = current;
+			return handler;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		BLogManager manager = BLogManager.getLogManager();
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : manager.getProperty(BLogManager.COLLECTOR_PORT_PROP, DEFAULT_PORT);
+		final BLogCollector collector = new BLogCollector(port);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				collector.close();
+			}
+		});
+		System.err.println("BLogCollector is listening on " + collector.serverSocket.getLocalSocketAddress());
+		collector.serve();
+	}
+}
@@ -0,0 +1,436 @@
+package blogs;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * <tt>BLogColumnarReader</tt> reads the columnar files written by {@link BLogColumnarWriter}.
+ * <p>
+ * A {@link Cursor} decodes only the columns it has been asked for, the chunks of the other
+ * columns aren't even read from the disk. For example, counting the operations per user reads
+ * the user and operation chunks and doesn't touch the message bytes:
+ * <pre>
+ * BLogColumnarReader reader = new BLogColumnarReader(file);
+ * BLogColumnarReader.Cursor cursor = reader.cursor(BLogColumnarWriter.USER, BLogColumnarWriter.OPERATION);
+ * while (cursor.next()) {
+ *     count(cursor.getUser(), cursor.getOperation());
+ * }
+ * reader.close();
+ * </pre>
+ * A cursor for a time range skips the row groups which are out of the range according to
+ * their min/max metadata.
+ * <p>
+ * Usage: <tt>java blogs.BLogColumnarReader file.bcol</tt> prints the amount of the operations
+ * per user.
+ */
+public class BLogColumnarReader {
+	private final File file;
+	private final RandomAccessFile raf;
+	private final String solution;
+	private final String date;
+	private final long rowCount;
+	private final String dictionaries[][] = new String[BLogColumnarWriter.COLUMNS][];
+	private final int groupRows[];
+	private final long offsets[][];
+	private final int lengths[][];
+	private final long minTimes[];
+	private final long maxTimes[];
+	private final int minIds[][];
+	private final int maxIds[][];
+
+	/**
+	 * Iterates over the rows decoding the requested columns only
+	 */
+	public final class Cursor {
+		private final boolean columns[] = new boolean[BLogColumnarWriter.COLUMNS];
+		private final long from;
+		private final long to;
+		private int group = -1;
+		private int row;
+		private int rows;
+		private long times[];
+		private final int ids[][] = new int[BLogColumnarWriter.COLUMNS][];
+		private String messages[];
+		private long bytesRead;
+
+		Cursor(long from, long to, int... requested) {
+			this.from = from;
+			this.to = to;
+			for (int column : requested) {
+				columns[column] = true;
+			}
+			if (from != Long.MIN_VALUE || to != Long.MAX_VALUE) {
+				// the rows are filtered by the time
+				columns[BLogColumnarWriter.TIME] = true;
+			}
+		}
+
+		/**
+		 * Move to the next row
+		 * @return false if there are no more rows
+		 * @throws IOException
+		 */
+		public boolean next() throws IOException {
+			while (true) {
+				row++;
+				while (row >= rows) {
+					if (!loadGroup()) {
+						return false;
+					}
+				}
+				if (times == null || (times[row] >= from && times[row] <= to)) {
+					return true;
+				}
+			}
+		}
+
+		private boolean loadGroup() throws IOException {
+			do {
+				group++;
+				if (group >= groupRows.length) {
+					rows = 0;
+					return false;
+				}
+			} while (maxTimes[group] < from || minTimes[group] > to);
+			rows = groupRows[group];
+			row = 0;
+			times = null;
+			messages = null;
+			if (columns[BLogColumnarWriter.TIME]) {
+				byte bytes[] = readChunk(group, BLogColumnarWriter.TIME);
+				times = new long[rows];
+				int pos[] = new int[1];
+				long prev = 0;
+				for (int i = 0; i < rows; i++) {
+					long delta = readVarLong(bytes, pos);
+					prev += (delta >>> 1) ^ -(delta & 1);
+					times[i] = prev;
+				}
+			}
+			for (int column = BLogColumnarWriter.USER; column <= BLogColumnarWriter.TYPE; column++) {
+				if (columns[column]) {
+					byte bytes[] = readChunk(group, column);
+					int columnIds[] = new int[rows];
+					int pos[] = new int[1];
+					for (int i = 0; i < rows; i++) {
+						columnIds[i] = (int) readVarLong(bytes, pos);
+					}
+					ids[column] = columnIds;
+				}
+			}
+			if (columns[BLogColumnarWriter.MESSAGE]) {
+				byte bytes[] = inflate(readChunk(group, BLogColumnarWriter.MESSAGE));
+				messages = new String[rows];
+				int pos[] = new int[1];
+				for (int i = 0; i < rows; i++) {
+					int len = (int) readVarLong(bytes, pos);
+					messages[i] = new String(bytes, pos[0], len, StandardCharsets.UTF_8);
+					pos[0] += len;
+				}
+			}
+			return true;
+		}
+
+		private byte[] readChunk(int group, int column) throws IOException {
+			byte bytes[] = new byte[lengths[group][column]];
+			raf.seek(offsets[group][column]);
+			raf.readFully(bytes);
+			bytesRead += bytes.length;
+			return bytes;
+		}
+
+		public long getTime() {
+			check(BLogColumnarWriter.TIME);
+			return times[row];
+		}
+
+		public String getUser() {
+			check(BLogColumnarWriter.USER);
+			return dictionaries[BLogColumnarWriter.USER][ids[BLogColumnarWriter.USER][row]];
+		}
+
+		public String getOperation() {
+			check(BLogColumnarWriter.OPERATION);
+			return dictionaries[BLogColumnarWriter.OPERATION][ids[BLogColumnarWriter.OPERATION][row]];
+		}
+
+		public String getType() {
+			check(BLogColumnarWriter.TYPE);
+			return dictionaries[BLogColumnarWriter.TYPE][ids[BLogColumnarWriter.TYPE][row]];
+		}
+
+		public String getMessage() {
+			check(BLogColumnarWriter.MESSAGE);
+			return messages[row];
+		}
+
+		/**
+		 * @return amount of the chunk bytes read from the file so far
+		 */
+		public long getBytesRead() {
+			return bytesRead;
+		}
+
+		private void check(int column) {
+			if (!columns[column]) {
+				throw new IllegalStateException("column " + BLogColumnarWriter.COLUMN_NAMES[column] + " hasn't been requested");
+			}
+		}
+	}
+
+	/**
+	 * Open the columnar file and read its footer
+	 * @param file
+	 * @throws IOException if the file isn't a columnar file
+	 */
+	public BLogColumnarReader(File file) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "r");
+		try {
+			long length = raf.length();
+			if (length < 17 || raf.readInt() != BLogColumnarWriter.MAGIC) {
+				throw new IOException("BLogColumnarReader: " + file + " isn't a columnar file");
+			}
+			int version = raf.readByte();
+			if (version != BLogColumnarWriter.VERSION) {
+				throw new IOException("BLogColumnarReader: unknown version " + version + " of " + file);
+			}
+			raf.seek(length - 12);
+			long footer = raf.readLong();
+			if (raf.readInt() != BLogColumnarWriter.MAGIC || footer < 5 || footer > length - 12) {
+				throw new IOException("BLogColumnarReader: " + file + " is incomplete");
+			}
+			byte bytes[] = new byte[(int) (length - 12 - footer)];
+			raf.seek(footer);
+			raf.readFully(bytes);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			solution = in.readUTF();
+			date = in.readUTF();
+			rowCount = in.readLong();
+			for (int column = BLogColumnarWriter.USER; column <= BLogColumnarWriter.TYPE; column++) {
+				String values[] = new String[in.readInt()];
+				for (int i = 0; i < values.length; i++) {
+					values[i] = in.readUTF();
+				}
+				dictionaries[column] = values;
+			}
+			int groups = in.readInt();
+			groupRows = new int[groups];
+			offsets = new long[groups][BLogColumnarWriter.COLUMNS];
+			lengths = new int[groups][BLogColumnarWriter.COLUMNS];
+			minTimes = new long[groups];
+			maxTimes = new long[groups];
+			minIds = new int[groups][BLogColumnarWriter.COLUMNS];
+			maxIds = new int[groups][BLogColumnarWriter.COLUMNS];
+			for (int g = 0; g < groups; g++) {
+				groupRows[g] = in.readInt();
+				for (int column = 0; column < BLogColumnarWriter.COLUMNS; column++) {
+					offsets[g][column] = in.readLong();
+					lengths[g][column] = in.readInt();
+				}
+				minTimes[g] = in.readLong();
+				maxTimes[g] = in.readLong();
+				for (int column = BLogColumnarWriter.USER; column <= BLogColumnarWriter.TYPE; column++) {
+					minIds[g][column] = in.readInt();
+					maxIds[g][column] = in.readInt();
+				}
+			}
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param columns the columns to decode (see the column constants of <tt>BLogColumnarWriter</tt>)
+	 * @return a cursor over all the rows
+	 */
+	public Cursor cursor(int... columns) {
+		return new Cursor(Long.MIN_VALUE, Long.MAX_VALUE, columns);
+	}
+
+	/**
+	 * @param from min time of the rows (inclusive)
+	 * @param to max time of the rows (inclusive)
+	 * @param columns the columns to decode (see the column constants of <tt>BLogColumnarWriter</tt>)
+	 * @return a cursor over the rows of the time range
+	 */
+	public Cursor cursor(long from, long to, int... columns) {
+		return new Cursor(from, to, columns);
+	}
+
+	public String getSolution() {
+		return solution;
+	}
+
+	public String getDate() {
+		return date;
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return time of the earliest row
+	 */
+	public long getMinTime() {
+		long min = Long.MAX_VALUE;
+		for (long time : minTimes) {
+			min = Math.min(min, time);
+		}
+		return min;
+	}
+
+	/**
+	 * @return time of the latest row
+	 */
+	public long getMaxTime() {
+		long max = Long.MIN_VALUE;
+		for (long time : maxTimes) {
+			max = Math.max(max, time);
+		}
+		return max;
+	}
+
+	/**
+	 * @param column a dictionary column (user, operation or type)
+	 * @return the lexically smallest value of the column, null if there are no rows
+	 */
+	public String getMin(int column) {
+		String min = null;
+		for (int g = 0; g < groupRows.length; g++) {
+			String value = dictionaries[column][minIds[g][column]];
+			if (min == null || value.compareTo(min) < 0) {
+				min = value;
+			}
+		}
+		return min;
+	}
+
+	/**
+	 * @param column a dictionary column (user, operation or type)
+	 * @return the lexically largest value of the column, null if there are no rows
+	 */
+	public String getMax(int column) {
+		String max = null;
+		for (int g = 0; g < groupRows.length; g++) {
+			String value = dictionaries[column][maxIds[g][column]];
+			if (max == null || value.compareTo(max) > 0) {
+				max = value;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * @param column a dictionary column (user, operation or type)
+	 * @return distinct values of the column
+	 */
+	public String[] getDictionary(int column) {
+		return dictionaries[column].clone();
+	}
+
+	/**
+	 * @param column
+	 * @return amount of the bytes the column takes in the file
+	 */
+	public long getColumnSize(int column) {
+		long size = 0;
+		for (int g = 0; g < groupRows.length; g++) {
+			size += lengths[g][column];
+		}
+		return size;
+	}
+
+	public void close() {
+		try {
+			raf.close();
+		} catch (IOException e) {
+			System.err.println("Error on closing " + file + ": " + e.getMessage());
+		}
+	}
+
+	private static long readVarLong(byte bytes[], int pos[]) throws IOException {
+		long value = 0;
+		int shift = 0;
+		int p = pos[0];
+		while (true) {
+			if (p >= bytes.length || shift > 63) {
+				throw new IOException("BLogColumnarReader: malformed chunk");
+			}
+			byte b = bytes[p++];
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				break;
+			}
+			shift += 7;
+		}
+		pos[0] = p;
+		return value;
+	}
+
+	private static byte[] inflate(byte bytes[]) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(bytes);
+			byte buff[] = new byte[Math.max(1024, bytes.length * 4)];
+			int len = 0;
+			while (!inflater.finished()) {
+				if (len == buff.length) {
+					byte bigger[] = new byte[buff.length * 2];
+					System.arraycopy(buff, 0, bigger, 0, len);
+					buff = bigger;
+				}
+				int n = inflater.inflate(buff, len, buff.length - len);
+				if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("BLogColumnarReader: truncated message chunk");
+				}
+				len += n;
+			}
+			byte res[] = new byte[len];
+			System.arraycopy(buff, 0, res, 0, len);
+			return res;
+		} catch (DataFormatException e) {
+			throw new IOException("BLogColumnarReader: " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: java blogs.BLogColumnarReader file" + BLogColumnarWriter.EXTENSION);
+			return;
+		}
+		BLogColumnarReader reader = new BLogColumnarReader(new File(args[0]));
+		try {
+			Map<String, Map<String, Integer>> counts = new TreeMap<String, Map<String, Integer>>();
+			Cursor cursor = reader.cursor(BLogColumnarWriter.USER, BLogColumnarWriter.OPERATION);
+			while (cursor.next()) {
+				Map<String, Integer> userCounts = counts.get(cursor.getUser());
+				if (userCounts == null) {
+					userCounts = new TreeMap<String, Integer>();
+					counts.put(cursor.getUser(), userCounts);
+				}
+				Integer count = userCounts.get(cursor.getOperation());
+				userCounts.put(cursor.getOperation(), count == null ? 1 : count + 1);
+			}
+			System.out.println(reader.getSolution() + " " + reader.getDate() + ": " + reader.getRowCount() + " rows, "
+					+ cursor.getBytesRead() + " bytes read");
+			for (Map.Entry<String, Map<String, Integer>> entry : counts.entrySet()) {
+				System.out.println(entry.getKey() + ";" + entry.getValue());
+			}
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,308 @@
+package blogs;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * <tt>BLogColumnarWriter</tt> writes the records of one business solution and one day into
+ * a columnar file, which is read by {@link BLogColumnarReader}.
+ * <p>
+ * The records are written in row groups of {@code rowGroupSize} rows, a group is cut earlier
+ * when its messages take {@code rowGroupBytes}, so the memory is bounded whatever the size of
+ * the day and of the messages. Every group holds one chunk per column:
+ * <ul>
+ * <li>   time       the timestamps, delta-encoded as zig-zag varints</li>
+ * <li>   user       ids in the user dictionary as varints</li>
+ * <li>   operation  ids in the operation dictionary as varints</li>
+ * <li>   type       ids in the message type dictionary as varints</li>
+ * <li>   message    UTF-8 messages each preceded by its varint length, deflated</li>
+ * </ul>
+ * The footer at the end of the file holds the dictionaries, the offset and the length of every
+ * chunk and the min/max of every chunk (the time for the time column, the ids of the lexically
+ * smallest and largest values for the dictionary columns). The footer is followed by its offset
+ * and the magic number.
+ */
+public class BLogColumnarWriter {
+	public static final int MAGIC = 0x42434F4C; // "BCOL"
+	public static final int VERSION = 1;
+	public static final String EXTENSION = ".bcol";
+
+	public static final int TIME = 0;
+	public static final int USER = 1;
+	public static final int OPERATION = 2;
+	public static final int TYPE = 3;
+	public static final int MESSAGE = 4;
+	public static final int COLUMNS = 5;
+	public static final String COLUMN_NAMES[] = {"time", "user", "operation", "type", "message"};
+
+	public static final int DEFAULT_ROW_GROUP_SIZE = 65536;
+	public static final int DEFAULT_ROW_GROUP_BYTES = 64 * 1024 * 1024; // 64 Mb
+
+	/**
+	 * Dictionary of a column
+	 */
+	private static final class Dictionary {
+		final Map<String, Integer> ids = new HashMap<String, Integer>();
+		final List<String> values = new ArrayList<String>();
+
+		int id(String value) {
+			if (value == null) {
+				value = "";
+			}
+			Integer id = ids.get(value);
+			if (id == null) {
+				id = values.size();
+				ids.put(value, id);
+				values.add(value);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * Location and min/max of the chunks of one row group
+	 */
+	private static final class Group {
+		int rows;
+		long offsets[] = new long[COLUMNS];
+		int lengths[] = new int[COLUMNS];
+		long minTime;
+		long maxTime;
+		int minIds[] = new int[COLUMNS];
+		int maxIds[] = new int[COLUMNS];
+	}
+
+	private final String solution;
+	private final String date;
+	private final int rowGroupSize;
+	private final int rowGroupBytes;
+	private final DataOutputStream out;
+	private long position;
+	private long rowCount;
+	private final Dictionary dictionaries[] = new Dictionary[COLUMNS];
+	private final List<Group> groups = new ArrayList<Group>();
+
+	// the current row group
+	private int rows;
+	private final long times[];
+	private final int ids[][] = new int[COLUMNS][];
+	private final ByteArrayOutputStream messages = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final byte deflateBuff[] = new byte[8192];
+
+	/**
+	 * Create the columnar file
+	 * @param file
+	 * @param solution name of the business solution
+	 * @param date the day of the records "yyyy-MM-dd"
+	 * @param rowGroupSize max amount of the rows in a row group
+	 * @param rowGroupBytes the size of the messages of a row group in bytes it's cut at
+	 * @throws IOException
+	 */
+	public BLogColumnarWriter(File file, String solution, String date, int rowGroupSize, int rowGroupBytes) throws IOException {
+		if (rowGroupSize < 1 || rowGroupBytes < 1) {
+			throw new IllegalArgumentException();
+		}
+		this.solution = solution;
+		this.date = date;
+		this.rowGroupSize = rowGroupSize;
+		this.rowGroupBytes = rowGroupBytes;
+		this.times = new long[rowGroupSize];
+		for (int column = USER; column <= TYPE; column++) {
+			dictionaries[column] = new Dictionary();
+			ids[column] = new int[rowGroupSize];
+		}
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		position = 5;
+	}
+
+	/**
+	 * Create the columnar file with the default size of the messages of a row group
+	 * @param file
+	 * @param solution name of the business solution
+	 * @param date the day of the records "yyyy-MM-dd"
+	 * @param rowGroupSize max amount of the rows in a row group
+	 * @throws IOException
+	 */
+	public BLogColumnarWriter(File file, String solution, String date, int rowGroupSize) throws IOException {
+		this(file, solution, date, rowGroupSize, DEFAULT_ROW_GROUP_BYTES);
+	}
+
+	/**
+	 * Create the columnar file with the default row group size
+	 * @param file
+	 * @param solution name of the business solution
+	 * @param date the day of the records "yyyy-MM-dd"
+	 * @throws IOException
+	 */
+	public BLogColumnarWriter(File file, String solution, String date) throws IOException {
+		this(file, solution, date, DEFAULT_ROW_GROUP_SIZE);
+	}
+
+	/**
+	 * Add a row
+	 * @param millis time of the record
+	 * @param user
+	 * @param operation operation code
+	 * @param type message type
+	 * @param message
+	 * @throws IOException
+	 */
+	public void add(long millis, String user, String operation, String type, String message) throws IOException {
+		times[rows] = millis;
+		ids[USER][rows] = dictionaries[USER].id(user);
+		ids[OPERATION][rows] = dictionaries[OPERATION].id(operation);
+		ids[TYPE][rows] = dictionaries[TYPE].id(type);
+		byte bytes[] = (message == null ? "" : message).getBytes(StandardCharsets.UTF_8);
+		writeVarLong(messages, bytes.length);
+		messages.write(bytes);
+		rows++;
+		rowCount++;
+		if (rows == rowGroupSize || messages.size() >= rowGroupBytes) {
+			writeGroup();
+		}
+	}
+
+	/**
+	 * @return amount of the rows which have been added
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * Write the rest of the rows and the footer and close the file
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			if (rows > 0) {
+				writeGroup();
+			}
+			writeFooter();
+		} finally {
+			deflater.end();
+			out.close();
+		}
+	}
+
+	private void writeGroup() throws IOException {
+		Group group = new Group();
+		group.rows = rows;
+
+		// time
+		chunk.reset();
+		long prev = 0;
+		long min = Long.MAX_VALUE;
+		long max = Long.MIN_VALUE;
+		for (int i = 0; i < rows; i++) {
+			long t = times[i];
+			writeVarLong(chunk, zigZag(t - prev));
+			prev = t;
+			min = Math.min(min, t);
+			max = Math.max(max, t);
+		}
+		group.minTime = min;
+		group.maxTime = max;
+		writeChunk(group, TIME);
+
+		// the dictionary columns
+		for (int column = USER; column <= TYPE; column++) {
+			chunk.reset();
+			List<String> values = dictionaries[column].values;
+			int columnIds[] = ids[column];
+			int minId = columnIds[0];
+			int maxId = columnIds[0];
+			for (int i = 0; i < rows; i++) {
+				int id = columnIds[i];
+				writeVarLong(chunk, id);
+				if (values.get(id).compareTo(values.get(minId)) < 0) {
+					minId = id;
+				}
+				if (values.get(id).compareTo(values.get(maxId)) > 0) {
+					maxId = id;
+				}
+			}
+			group.minIds[column] = minId;
+			group.maxIds[column] = maxId;
+			writeChunk(group, column);
+		}
+
+		// message
+		chunk.reset();
+		deflater.reset();
+		deflater.setInput(messages.toByteArray());
+		deflater.finish();
+		while (!deflater.finished()) {
+			int n = deflater.deflate(deflateBuff);
+			chunk.write(deflateBuff, 0, n);
+		}
+		messages.reset();
+		writeChunk(group, MESSAGE);
+
+		groups.add(group);
+		rows = 0;
+	}
+
+	private void writeChunk(Group group, int column) throws IOException {
+		group.offsets[column] = position;
+		group.lengths[column] = chunk.size();
+		chunk.writeTo(out);
+		position += chunk.size();
+	}
+
+	private void writeFooter() throws IOException {
+		long footer = position;
+		out.writeUTF(solution);
+		out.writeUTF(date);
+		out.writeLong(rowCount);
+		for (int column = USER; column <= TYPE; column++) {
+			List<String> values = dictionaries[column].values;
+			out.writeInt(values.size());
+			for (String value : values) {
+				out.writeUTF(value);
+			}
+		}
+		out.writeInt(groups.size());
+		for (Group group : groups) {
+			out.writeInt(group.rows);
+			for (int column = 0; column < COLUMNS; column++) {
+				out.writeLong(group.offsets[column]);
+				out.writeInt(group.lengths[column]);
+			}
+			out.writeLong(group.minTime);
+			out.writeLong(group.maxTime);
+			for (int column = USER; column <= TYPE; column++) {
+				out.writeInt(group.minIds[column]);
+				out.writeInt(group.maxIds[column]);
+			}
+		}
+		out.writeLong(footer);
+		out.writeInt(MAGIC);
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static void writeVarLong(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+}
@@ -0,0 +1,229 @@
+package blogs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <tt>BLogCompactor</tt> converts the CSV files of the closed days into the columnar files
+ * (see {@link BLogColumnarWriter}), one file per business solution and day. The part files
+ * {@code <solution>_<date>_partN.csv} of a day (and its merged segment {@code <solution>_<date>.csv},
+ * see {@link BLogDayMerger}) are converted into {@code <solution>_<date>.bcol}
+ * in the same directory. The CSV files are kept, the columnar file is removed by the same
+ * retention as them (see {@link CSVFileHandler}).
+ * <p>
+ * A day is closed when it's before the current date in the time zone of the loggers. A day
+ * is compacted again if a part file has been modified after its columnar file.
+ * <p>
+ * Usage: <tt>java blogs.BLogCompactor [directory]</tt>. The default directory is the base
+ * directory of business logs (defined in cfg.properties, see {@link BLogManager}).
+ */
+public class BLogCompactor {
+	// a part file or a merged segment (see BLogDayMerger)
+	private static final Pattern PART_PATTERN = Pattern.compile("(.+)_(\\d{4}-\\d{2}-\\d{2})(?:_part(\\d+))?\\.csv");
+	private static final Pattern LINE_PATTERN = Pattern.compile("\\d{4}-\\d{2}-\\d{2};.*");
+
+	private final File baseDir;
+	private final String timeZone;
+	private final String encoding;
+	private final CSVFormatter formatter = new CSVFormatter();
+
+	/**
+	 * @param baseDir the directory to compact (with its subdirectories)
+	 */
+	public BLogCompactor(File baseDir) {
+		BLogManager manager = BLogManager.getLogManager();
+		this.baseDir = baseDir;
+		this.timeZone = manager.getProperty(BLogManager.TIMEZONE_PROP, "GMT");
+		this.encoding = manager.getProperty(BLogManager.CSV_ENCODING_PROP, CSVFileHandler.DEFAULT_ENCODING);
+		formatter.setTimeZone(timeZone);
+	}
+
+	/**
+	 * Compact all the closed days which haven't been compacted yet
+	 * @return the columnar files which have been written
+	 */
+	public List<File> compact() {
+		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd");
+		df.setTimeZone(TimeZone.getTimeZone(timeZone));
+		String today = df.format(new Date());
+		List<File> written = new ArrayList<File>();
+		compact(baseDir, today, written);
+		return written;
+	}
+
+	private void compact(File dir, String today, List<File> written) {
+		File files[] = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		// the parts by "<solution>_<date>"
+		Map<String, List<File>> days = new TreeMap<String, List<File>>();
+		for (File file : files) {
+			if (file.isDirectory()) {
+				compact(file, today, written);
+				continue;
+			}
+			Matcher m = PART_PATTERN.matcher(file.getName());
+			if (m.matches() && m.group(2).compareTo(today) < 0) {
+				String day = m.group(1) + "_" + m.group(2);
+				List<File> parts = days.get(day);
+				if (parts == null) {
+					parts = new ArrayList<File>();
+					days.put(day, parts);
+				}
+				parts.add(file);
+			}
+		}
+		for (Map.Entry<String, List<File>> entry : days.entrySet()) {
+			File target = new File(dir, entry.getKey() + BLogColumnarWriter.EXTENSION);
+			if (isUpToDate(target, entry.getValue())) {
+				continue;
+			}
+			try {
+				compactDay(target, entry.getValue());
+				written.add(target);
+			} catch (IOException e) {
+				System.err.println("Error on compacting " + target + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private static boolean isUpToDate(File target, List<File> parts) {
+		if (!target.exists()) {
+			return false;
+		}
+		for (File part : parts) {
+			if (part.lastModified() > target.lastModified()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Write the records of the part files of one day into the columnar file. The file is
+	 * written under a temporary name and renamed when it's complete.
+	 * @param target the columnar file
+	 * @param parts the part files of the day
+	 * @throws IOException
+	 */
+	public void compactDay(File target, List<File> parts) throws IOException {
+		Matcher m = PART_PATTERN.matcher(parts.get(0).getName());
+		if (!m.matches()) {
+			throw new IOException("not a part file " + parts.get(0));
+		}
+		List<File> sorted = new ArrayList<File>(parts);
+		Collections.sort(sorted, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Integer.compare(partNumber(f1), partNumber(f2));
+			}
+		});
+
+		File tmp = new File(target.getPath() + ".tmp");
+		BLogColumnarWriter writer = new BLogColumnarWriter(tmp, m.group(1), m.group(2));
+		boolean done = false;
+		try {
+			for (File part : sorted) {
+				compactPart(part, writer);
+			}
+			writer.close();
+			Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			done = true;
+		} finally {
+			if (!done) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					// nothing to do
+				}
+				tmp.delete();
+			}
+		}
+	}
+
+	private static int partNumber(File file) {
+		Matcher m = PART_PATTERN.matcher(file.getName());
+		// the merged segment goes first
+		return m.matches() && m.group(3) != null ? Integer.parseInt(m.group(3)) : 0;
+	}
+
+	/**
+	 * Parse the CSV lines "date;time;user;operation;type;message" of a part file. A line which
+	 * doesn't start with a date continues the message of the previous line. The columns of
+	 * the context fields (csvformatter.fields, see {@link CSVFormatter}) between the type and
+	 * the message are skipped.
+	 */
+	private void compactPart(File part, BLogColumnarWriter writer) throws IOException {
+		int messageColumn = 5 + formatter.getFieldColumnCount();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(part), encoding), 64 * 1024);
+		try {
+			String fields[] = null;
+			StringBuilder message = new StringBuilder();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!LINE_PATTERN.matcher(line).matches()) {
+					if (fields != null) {
+						message.append('\n').append(line);
+					}
+					continue;
+				}
+				if (fields != null) {
+					addRow(fields, message.toString(), writer, part);
+				}
+				fields = line.split(";", messageColumn + 1);
+				message.setLength(0);
+				if (fields.length == messageColumn + 1) {
+					message.append(fields[messageColumn]);
+				}
+			}
+			if (fields != null) {
+				addRow(fields, message.toString(), writer, part);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void addRow(String fields[], String message, BLogColumnarWriter writer, File part) throws IOException {
+		if (fields.length < 5) {
+			System.err.println("Skipping a malformed line of " + part + ": " + fields[0]);
+			return;
+		}
+		long millis;
+		try {
+			millis = formatter.parseMillis(fields[0], fields[1]);
+		} catch (ParseException e) {
+			System.err.println("Skipping a line of " + part + " with the bad time " + fields[0] + " " + fields[1]);
+			return;
+		}
+		writer.add(millis, fields[2], fields[3], fields[4], message);
+	}
+
+	public static void main(String[] args) {
+		BLogManager manager = BLogManager.getLogManager();
+		String dir = args.length > 0 ? args[0] : manager.getProperty(BLogManager.BLOGS_DIR_PROP, manager.getDefaultBaseDir());
+		List<File> written = new BLogCompactor(new File(dir)).compact();
+		for (File file : written) {
+			System.out.println(file);
+		}
+		System.out.println(written.size() + " days compacted");
+	}
+}
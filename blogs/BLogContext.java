@@ -0,0 +1,137 @@
+package blogs;
+
+import java.util.Arrays;
+
+/**
+ * <tt>BLogContext</tt> holds the context fields of the current thread, e.g. the request id or
+ * the document number. The loggers copy them to every record the thread logs (see
+ * {@code BLogRecord.getField()}), so they don't have to be put into the message text.
+ * <pre>
+ * BLogContext.put("requestId", request.getId());
+ * try {
+ *     logger.log("request created", MessageType.INFO, BOperation.CREATE_REQUEST);
+ * } finally {
+ *     BLogContext.remove("requestId");
+ * }
+ * </pre>
+ * The fields are kept in flat arrays of the key ids (see {@link BLogRegistry}) and the values
+ * rather than in a map. A record gets the copies of the arrays, so the fields cost two small
+ * arrays per record and nothing if the context is empty.
+ * <p>
+ * The CSV formatter writes the fields listed by csvformatter.fields as extra columns, the JSON
+ * formatter and the binary codec write all of them.
+ */
+public class BLogContext {
+	/**
+	 * The fields of a thread
+	 */
+	private static final class Fields {
+		int keys[] = new int[4];
+		String values[] = new String[4];
+		int size;
+
+		int indexOf(int keyId) {
+			for (int i = 0; i < size; i++) {
+				if (keys[i] == keyId) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+
+	private static final ThreadLocal<Fields> localFields = new ThreadLocal<Fields>() {
+		@Override
+		protected Fields initialValue() {
+			return new Fields();
+		}
+	};
+
+	private BLogContext() {
+	}
+
+	/**
+	 * Set the field of the current thread, the null value removes it
+	 * @param key
+	 * @param value
+	 * @exception IllegalStateException if the key can't be registered: the keys are over
+	 *            {@code registry.fields.max} (see {@link BLogRegistry})
+	 */
+	public static void put(String key, String value) {
+		if (value == null) {
+			remove(key);
+			return;
+		}
+		Fields fields = localFields.get();
+		int keyId = BLogRegistry.getRegistry().getFieldKeyId(key);
+		if (keyId == BLogRegistry.NONE) {
+			throw new IllegalStateException("the key " + key + " can't be registered");
+		}
+		int i = fields.indexOf(keyId);
+		if (i >= 0) {
+			fields.values[i] = value;
+			return;
+		}
+		if (fields.size == fields.keys.length) {
+			fields.keys = Arrays.copyOf(fields.keys, fields.size * 2);
+			fields.values = Arrays.copyOf(fields.values, fields.size * 2);
+		}
+		fields.keys[fields.size] = keyId;
+		fields.values[fields.size] = value;
+		fields.size++;
+	}
+
+	/**
+	 * @param key
+	 * @return the value of the field of the current thread or null
+	 */
+	public static String get(String key) {
+		Fields fields = localFields.get();
+		int i = fields.indexOf(BLogRegistry.getRegistry().findFieldKeyId(key));
+		return i < 0 ? null : fields.values[i];
+	}
+
+	/**
+	 * Remove the field of the current thread
+	 * @param key
+	 */
+	public static void remove(String key) {
+		Fields fields = localFields.get();
+		int i = fields.indexOf(BLogRegistry.getRegistry().findFieldKeyId(key));
+		if (i < 0) {
+			return;
+		}
+		fields.size--;
+		System.arraycopy(fields.keys, i + 1, fields.keys, i, fields.size - i);
+		System.arraycopy(fields.values, i + 1, fields.values, i, fields.size - i);
+		fields.values[fields.size] = null;
+	}
+
+	/**
+	 * Remove all the fields of the current thread
+	 */
+	public static void clear() {
+		Fields fields = localFields.get();
+		Arrays.fill(fields.values, 0, fields.size, null);
+		fields.size = 0;
+	}
+
+	/**
+	 * @return amount of the fields of the current thread
+	 */
+	public static int size() {
+		return localFields.get().size;
+	}
+
+	/**
+	 * Copy the fields of the current thread to the record
+	 * @param record
+	 */
+	static void copyTo(BLogRecord record) {
+		Fields fields = localFields.get();
+		if (fields.size > 0) {
+			record.setFields(Arrays.copyOf(fields.keys, fields.size), Arrays.copyOf(fields.values, fields.size),
+					fields.size);
+		}
+	}
+}
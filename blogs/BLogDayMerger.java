@@ -0,0 +1,518 @@
+package blogs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <tt>BLogDayMerger</tt> merges the part files {@code <solution>_<date>_partN.csv} of a closed
+ * day into one segment {@code <solution>_<date>.csv} ordered by the time of the records. The
+ * records written by the business threads when the pool was full (see {@code BLogger.log()})
+ * can be out of order relative to the ones written by the flushing thread.
+ * <p>
+ * The merge streams the records in bounded memory with sequential I/O:
+ * <ul>
+ * <li>   the parts are read in order and split into sorted runs by the replacement selection
+ *        with a heap of {@code heapSize} records, so nearly sorted parts give one run</li>
+ * <li>   the runs are k-way merged by the time into the segment</li>
+ * </ul>
+ * The records are copied byte for byte, the messages of several lines are kept together.
+ * The records of a scope (see {@link BLogScope}) aren't: they're ordered by time with the others.
+ * <p>
+ * The segment replaces the parts through a manifest: the segment is written under a temporary
+ * name and forced to the disk, the manifest with the names of the parts is written, the segment is
+ * renamed and the parts are removed. A merge interrupted by a crash is completed by the next run.
+ * The segment keeps the last modification time of the parts, so the retention of
+ * <tt>CSVFileHandler</tt> removes it when it would have removed the parts.
+ * <p>
+ * A day is closed when it's before the current date in the time zone of the loggers and none of
+ * its parts has been modified during the {@code gracePeriod} (a handler keeps writing into the
+ * file of the previous day after midnight until the file is rotated).
+ * <p>
+ * The <tt>BLogDayMerger</tt> is configured from <tt>BLogManager</tt> properties
+ * (or their default values):
+ * <ul>
+ * <li>   merger.heap_size     max amount of the records in memory</li>
+ * <li>   merger.grace_period  min time since the last modification of a part (milliseconds)</li>
+ * </ul>
+ * Usage: <tt>java blogs.BLogDayMerger [directory]</tt>. The default directory is the base
+ * directory of business logs (defined in cfg.properties, see {@link BLogManager}).
+ */
+public class BLogDayMerger {
+	public static final int DEFAULT_HEAP_SIZE = 100000;
+	public static final int DEFAULT_GRACE_PERIOD = 3600000; // 1 hour
+	public static final String MANIFEST_EXTENSION = ".merge";
+
+	// a part file or a merged segment
+	private static final Pattern PART_PATTERN = Pattern.compile("(.+)_(\\d{4}-\\d{2}-\\d{2})(?:_part(\\d+))?\\.csv");
+	private static final Pattern LINE_PATTERN = Pattern.compile("\\d{4}-\\d{2}-\\d{2};");
+
+	private final File baseDir;
+	private int heapSize;
+	private long gracePeriod;
+	private String timeZone;
+	private String encoding;
+	private final CSVFormatter formatter = new CSVFormatter();
+
+	/**
+	 * A record: its first line and the lines of the message which follow it
+	 */
+	private static final class Record {
+		final long millis;
+		final String text;
+		// the order of reading
+		final long seq;
+		// the run (or the input) of the record
+		int run;
+
+		Record(long millis, String text, long seq) {
+			this.millis = millis;
+			this.text = text;
+			this.seq = seq;
+		}
+	}
+
+	private static final Comparator<Record> BY_RUN_AND_TIME = new Comparator<Record>() {
+		@Override
+		public int compare(Record r1, Record r2) {
+			if (r1.run != r2.run) {
+				return Integer.compare(r1.run, r2.run);
+			}
+			if (r1.millis != r2.millis) {
+				return Long.compare(r1.millis, r2.millis);
+			}
+			return Long.compare(r1.seq, r2.seq);
+		}
+	};
+
+	private static final Comparator<Record> BY_TIME_AND_RUN = new Comparator<Record>() {
+		@Override
+		public int compare(Record r1, Record r2) {
+			if (r1.millis != r2.millis) {
+				return Long.compare(r1.millis, r2.millis);
+			}
+			if (r1.run != r2.run) {
+				return Integer.compare(r1.run, r2.run);
+			}
+			return Long.compare(r1.seq, r2.seq);
+		}
+	};
+
+	/**
+	 * Reads the records of a CSV file keeping the line terminators
+	 */
+	private final class RecordReader {
+		private final Reader in;
+		private final char buff[] = new char[64 * 1024];
+		private int pos;
+		private int len;
+		private String pendingLine;
+		private long lastMillis = Long.MIN_VALUE;
+		private long seq;
+
+		RecordReader(File file) throws IOException {
+			this.in = new InputStreamReader(new FileInputStream(file), encoding);
+		}
+
+		Record next() throws IOException {
+			String line = pendingLine != null ? pendingLine : readLine();
+			pendingLine = null;
+			if (line == null) {
+				return null;
+			}
+			StringBuilder text = new StringBuilder(line);
+			while ((pendingLine = readLine()) != null && !LINE_PATTERN.matcher(pendingLine).lookingAt()) {
+				text.append(pendingLine);
+			}
+			// a line which can't be parsed stays after the previous record
+			long millis = lastMillis;
+			int sep1 = line.indexOf(';');
+			int sep2 = sep1 < 0 ? -1 : line.indexOf(';', sep1 + 1);
+			if (sep2 > 0) {
+				try {
+					millis = formatter.parseMillis(line.substring(0, sep1), line.substring(sep1 + 1, sep2));
+				} catch (ParseException e) {
+					// keep the time of the previous record
+				}
+			}
+			lastMillis = millis;
+			return new Record(millis, text.toString(), seq++);
+		}
+
+		/**
+		 * @return the next line including its terminator, null at the end of the file
+		 */
+		private String readLine() throws IOException {
+			StringBuilder line = null;
+			while (true) {
+				if (pos == len) {
+					len = in.read(buff);
+					pos = 0;
+					if (len <= 0) {
+						len = 0;
+						return line == null ? null : line.toString();
+					}
+				}
+				int start = pos;
+				while (pos < len && buff[pos] != '\n') {
+					pos++;
+				}
+				boolean eol = pos < len;
+				if (eol) {
+					pos++;
+				}
+				if (line == null) {
+					if (eol) {
+						return new String(buff, start, pos - start);
+					}
+					line = new StringBuilder();
+				}
+				line.append(buff, start, pos - start);
+				if (eol) {
+					return line.toString();
+				}
+			}
+		}
+
+		void close() {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+
+	/**
+	 * Configure a BLogDayMerger from BLogManager
+	 * properties and/or default values
+	 */
+	private void configure() {
+		BLogManager manager = BLogManager.getLogManager();
+		heapSize = manager.getProperty(BLogManager.MERGER_HEAP_SIZE_PROP, DEFAULT_HEAP_SIZE);
+		gracePeriod = manager.getProperty(BLogManager.MERGER_GRACE_PERIOD_PROP, DEFAULT_GRACE_PERIOD);
+		timeZone = manager.getProperty(BLogManager.TIMEZONE_PROP, "GMT");
+		encoding = manager.getProperty(BLogManager.CSV_ENCODING_PROP, CSVFileHandler.DEFAULT_ENCODING);
+		formatter.setTimeZone(timeZone);
+	}
+
+	/**
+	 * @param baseDir the directory to merge (with its subdirectories)
+	 */
+	public BLogDayMerger(File baseDir) {
+		configure();
+		this.baseDir = baseDir;
+	}
+
+	/**
+	 * Merge the parts of all the closed days which have more than one part
+	 * @return the segments which have been written
+	 */
+	public List<File> merge() {
+		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd");
+		df.setTimeZone(TimeZone.getTimeZone(timeZone));
+		String today = df.format(new Date());
+		List<File> written = new ArrayList<File>();
+		merge(baseDir, today, written);
+		return written;
+	}
+
+	private void merge(File dir, String today, List<File> written) {
+		// complete the merges interrupted by a crash
+		File manifests[] = dir.listFiles();
+		if (manifests == null) {
+			return;
+		}
+		for (File file : manifests) {
+			if (file.isFile() && file.getName().endsWith(MANIFEST_EXTENSION)) {
+				try {
+					recover(file);
+				} catch (IOException e) {
+					System.err.println("Error on completing the merge " + file + ": " + e.getMessage());
+				}
+			}
+		}
+
+		File files[] = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		long modifiedBefore = System.currentTimeMillis() - gracePeriod;
+		// the inputs by "<solution>_<date>"
+		Map<String, List<File>> days = new TreeMap<String, List<File>>();
+		for (File file : files) {
+			if (file.isDirectory()) {
+				merge(file, today, written);
+				continue;
+			}
+			Matcher m = PART_PATTERN.matcher(file.getName());
+			if (m.matches() && m.group(2).compareTo(today) < 0) {
+				String day = m.group(1) + "_" + m.group(2);
+				List<File> inputs = days.get(day);
+				if (inputs == null) {
+					inputs = new ArrayList<File>();
+					days.put(day, inputs);
+				}
+				inputs.add(file);
+			}
+		}
+		for (Map.Entry<String, List<File>> entry : days.entrySet()) {
+			List<File> inputs = entry.getValue();
+			boolean closed = true;
+			for (File input : inputs) {
+				closed &= input.lastModified() < modifiedBefore;
+			}
+			File segment = new File(dir, entry.getKey() + ".csv");
+			if (!closed || (inputs.size() == 1 && inputs.get(0).equals(segment))) {
+				continue;
+			}
+			try {
+				mergeDay(segment, inputs);
+				written.add(segment);
+			} catch (IOException e) {
+				System.err.println("Error on merging " + segment + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Merge the inputs of one day into the segment and remove the parts
+	 * @param segment the segment file {@code <solution>_<date>.csv}
+	 * @param inputs the part files of the day and the segment if it exists
+	 * @throws IOException
+	 */
+	public void mergeDay(File segment, List<File> inputs) throws IOException {
+		List<File> sorted = new ArrayList<File>(inputs);
+		Collections.sort(sorted, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Integer.compare(partNumber(f1), partNumber(f2));
+			}
+		});
+		long lastModified = 0;
+		for (File input : sorted) {
+			lastModified = Math.max(lastModified, input.lastModified());
+		}
+
+		File tmp = new File(segment.getPath() + ".tmp");
+		List<File> runs = new ArrayList<File>();
+		try {
+			makeRuns(segment, sorted, runs);
+			if (runs.size() == 1) {
+				Files.move(runs.get(0).toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				force(tmp);
+			} else {
+				mergeRuns(runs, tmp);
+			}
+		} finally {
+			for (File run : runs) {
+				run.delete();
+			}
+		}
+
+		// the manifest makes the replacement of the parts complete after a crash
+		File manifest = new File(segment.getPath().substring(0, segment.getPath().length() - 4) + MANIFEST_EXTENSION);
+		File manifestTmp = new File(manifest.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(manifestTmp);
+		try {
+			Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+			writer.write(Long.toString(lastModified));
+			writer.write('\n');
+			for (File input : sorted) {
+				if (!input.equals(segment)) {
+					writer.write(input.getName());
+					writer.write('\n');
+				}
+			}
+			writer.flush();
+			out.getChannel().force(false);
+		} finally {
+			out.close();
+		}
+		Files.move(manifestTmp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		recover(manifest);
+	}
+
+	/**
+	 * Split the inputs into the sorted runs by the replacement selection
+	 */
+	private void makeRuns(File segment, List<File> inputs, List<File> runs) throws IOException {
+		PriorityQueue<Record> heap = new PriorityQueue<Record>(Math.max(1, Math.min(heapSize, 1024)), BY_RUN_AND_TIME);
+		int input = 0;
+		RecordReader reader = null;
+		long seq = 0;
+		int run = 0;
+		long last = Long.MIN_VALUE;
+		Writer out = null;
+		try {
+			while (true) {
+				// read the next record of the inputs
+				Record record = null;
+				while (record == null && (reader != null || input < inputs.size())) {
+					if (reader == null) {
+						reader = new RecordReader(inputs.get(input++));
+					}
+					record = reader.next();
+					if (record == null) {
+						reader.close();
+						reader = null;
+					}
+				}
+				if (record != null) {
+					record = new Record(record.millis, record.text, seq++);
+					// a record earlier than the last written one goes to the next run
+					record.run = out == null || record.millis >= last ? run : run + 1;
+					heap.add(record);
+					if (heap.size() < heapSize) {
+						continue;
+					}
+				}
+				Record min = heap.poll();
+				if (min == null) {
+					break;
+				}
+				if (out == null || min.run != run) {
+					if (out != null) {
+						out.close();
+					}
+					run = min.run;
+					File file = new File(segment.getPath() + ".run" + runs.size() + ".tmp");
+					runs.add(file);
+					out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), encoding), 64 * 1024);
+				}
+				out.write(min.text);
+				last = min.millis;
+			}
+		} finally {
+			if (reader != null) {
+				reader.close();
+			}
+			if (out != null) {
+				out.close();
+			}
+		}
+	}
+
+	/**
+	 * K-way merge of the sorted runs
+	 */
+	private void mergeRuns(List<File> runs, File target) throws IOException {
+		RecordReader readers[] = new RecordReader[runs.size()];
+		PriorityQueue<Record> heap = new PriorityQueue<Record>(runs.size(), BY_TIME_AND_RUN);
+		FileOutputStream fout = new FileOutputStream(target);
+		try {
+			Writer out = new BufferedWriter(new OutputStreamWriter(fout, encoding), 64 * 1024);
+			for (int i = 0; i < readers.length; i++) {
+				readers[i] = new RecordReader(runs.get(i));
+				Record record = readers[i].next();
+				if (record != null) {
+					record.run = i;
+					heap.add(record);
+				}
+			}
+			Record min;
+			while ((min = heap.poll()) != null) {
+				out.write(min.text);
+				Record record = readers[min.run].next();
+				if (record != null) {
+					record.run = min.run;
+					heap.add(record);
+				}
+			}
+			out.flush();
+			fout.getChannel().force(false);
+		} finally {
+			for (RecordReader reader : readers) {
+				if (reader != null) {
+					reader.close();
+				}
+			}
+			fout.close();
+		}
+	}
+
+	/**
+	 * Complete the replacement of the parts described by the manifest
+	 * @param manifest
+	 * @throws IOException
+	 */
+	private void recover(File manifest) throws IOException {
+		String name = manifest.getName();
+		File dir = manifest.getParentFile();
+		File segment = new File(dir, name.substring(0, name.length() - MANIFEST_EXTENSION.length()) + ".csv");
+		File tmp = new File(segment.getPath() + ".tmp");
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		if (tmp.exists()) {
+			// the manifest is written after the segment has been forced, so it's complete
+			Files.move(tmp.toPath(), segment.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		for (int i = 1; i < lines.size(); i++) {
+			new File(dir, lines.get(i)).delete();
+		}
+		if (!lines.isEmpty()) {
+			try {
+				segment.setLastModified(Long.parseLong(lines.get(0)));
+			} catch (NumberFormatException e) {
+				// keep the current time
+			}
+		}
+		manifest.delete();
+	}
+
+	private static void force(File file) throws IOException {
+		FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.getChannel().force(false);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static int partNumber(File file) {
+		Matcher m = PART_PATTERN.matcher(file.getName());
+		// the merged segment goes first
+		return m.matches() && m.group(3) != null ? Integer.parseInt(m.group(3)) : 0;
+	}
+
+	public static void main(String[] args) {
+		BLogManager manager = BLogManager.getLogManager();
+		String dir = args.length > 0 ? args[0] : manager.getProperty(BLogManager.BLOGS_DIR_PROP, manager.getDefaultBaseDir());
+		List<File> written = new BLogDayMerger(new File(dir)).merge();
+		for (File file : written) {
+			System.out.println(file);
+		}
+		System.out.println(written.size() + " days merged");
+	}
+}
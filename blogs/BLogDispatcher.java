@@ -0,0 +1,327 @@
+package blogs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <tt>BLogDispatcher</tt> delivers the records of a <tt>BLogger</tt> to its handlers
+ * independently, so a slow handler can't stall the others.
+ * <p>
+ * The records are published to a shared ring (the sequence). Every <tt>BHandler</tt> has
+ * its own consumer: a worker thread with a cursor in the sequence. A slot of the ring is
+ * cleared when all the consumers have passed it and reused only after that, so the ring
+ * doesn't hold the drained records. If the ring is full the publisher waits for the slowest
+ * consumer. A consumer flushes its handler every time it has caught up
+ * with the sequence after new records, an idle consumer doesn't touch its handler.
+ * <p>
+ * The lag of every handler (the amount of the published records it hasn't consumed yet)
+ * is available by {@code getLag(handler)}.
+ */
+public class BLogDispatcher {
+	// how long an idle worker waits for the new records
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	// how long the publisher waits for a free slot at once
+	private static final long FULL_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final BLogRecord ring[];
+	private final int mask;
+	private final String name;
+	// amount of the published records
+	private volatile long published;
+	// amount of the records whose slots have been cleared
+	private volatile long cleared;
+	// it guards the clearing of the slots, the publisher never waits while holding it
+	private final Object clearLock = new Object();
+	private final List<Consumer> consumers = new CopyOnWriteArrayList<Consumer>();
+	// it's invoked when a consumer has flushed its handler
+	private volatile Runnable flushListener;
+	// the idle consumers sleep till wake() while the logger hibernates
+	private volatile boolean hibernating;
+
+	/**
+	 * Consumer of the sequence that publishes the records into one handler
+	 */
+	private final class Consumer implements Runnable {
+		final BHandler handler;
+		final Thread worker;
+		// amount of the consumed records
+		volatile long consumed;
+		// amount of the records which have been consumed before the last flush of the handler
+		volatile long flushed;
+		// amount of the records after which the consumer stops
+		volatile long stopAt = Long.MAX_VALUE;
+
+		Consumer(BHandler handler, long consumed) {
+			this.handler = handler;
+			this.consumed = consumed;
+			this.flushed = consumed;
+			this.worker = new Thread(this, name + "-" + handler.getClass().getSimpleName());
+			this.worker.setDaemon(true);
+		}
+
+		void stop() {
+			stopAt = published;
+			LockSupport.unpark(worker);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					long available = Math.min(published, stopAt);
+					long next = consumed;
+					if (next < available) {
+						while (next < available) {
+							BLogRecord record = ring[(int) next & mask];
+							try {
+								handler.publish(record);
+							} catch (RuntimeException ex) {
+								handler.getErrorManager().error(ex.getMessage(), ex, ErrorManager.WRITE_FAILURE);
+							}
+							next++;
+							consumed = next;
+						}
+						// don't hold the records all the consumers have passed
+						clearConsumed();
+						continue;
+					}
+					// we've caught up with the sequence, the handler is flushed if it has got new records
+					if (flushed != next) {
+						try {
+							handler.flush();
+						} catch (RuntimeException ex) {
+							handler.getErrorManager().error(ex.getMessage(), ex, ErrorManager.FLUSH_FAILURE);
+						}
+						flushed = next;
+						Runnable listener = flushListener;
+						if (listener != null) {
+							listener.run();
+						}
+					}
+					if (next >= stopAt) {
+						break;
+					}
+					if (hibernating) {
+						LockSupport.park(this);
+					} else {
+						LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+					}
+				}
+			} finally {
+				// the slots aren't held by this consumer any more
+				consumers.remove(this);
+				clearConsumed();
+			}
+		}
+	}
+
+	/**
+	 * @param name name of the dispatcher (it's used for naming the worker threads)
+	 * @param capacity size of the ring (will be rounded up to a power of two)
+	 */
+	public BLogDispatcher(String name, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException();
+		}
+		int n = Integer.highestOneBit(capacity);
+		if (n < capacity) {
+			n <<= 1;
+		}
+		this.ring = new BLogRecord[n];
+		this.mask = n - 1;
+		this.name = name;
+	}
+
+	/**
+	 * Start a consumer for the given handler. The handler will receive the records
+	 * which will be published after this call.
+	 * @param handler
+	 */
+	public synchronized void addHandler(BHandler handler) {
+		// the records which have been published before aren't held for the new consumer
+		Consumer consumer = new Consumer(handler, published);
+		consumers.add(consumer);
+		consumer.worker.start();
+	}
+
+	/**
+	 * Stop the consumer of the given handler. The consumer will publish the records
+	 * which have been published before this call and then stop.
+	 * @param handler
+	 */
+	public void removeHandler(BHandler handler) {
+		for (Consumer consumer : consumers) {
+			if (consumer.handler == handler) {
+				consumer.stop();
+			}
+		}
+	}
+
+	/**
+	 * Put the record to the sequence. If the ring is full, wait until the slowest
+	 * consumer frees a slot.
+	 * @param record
+	 * @throws InterruptedException if the current thread has been interrupted while waiting
+	 */
+	public synchronized void publish(BLogRecord record) throws InterruptedException {
+		long next = published;
+		while (next - cleared >= ring.length) {
+			clearConsumed();
+			if (next - cleared < ring.length) {
+				break;
+			}
+			signal();
+			LockSupport.parkNanos(this, FULL_PARK_NANOS);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+		ring[(int) next & mask] = record;
+		published = next + 1;
+	}
+
+	/**
+	 * Wake up all the consumers
+	 */
+	public void signal() {
+		for (Consumer consumer : consumers) {
+			LockSupport.unpark(consumer.worker);
+		}
+	}
+
+	/**
+	 * Let the consumers write down and flush the published records, then stop their periodic
+	 * wake-ups till {@code wake()}, so the handlers can release their resources. If the records
+	 * haven't been flushed in time, the consumers go on as usual.
+	 * @param timeout max time to wait for the consumers (milliseconds)
+	 * @return true if all the published records have been flushed
+	 */
+	public boolean hibernate(long timeout) {
+		long target = published;
+		hibernating = true;
+		signal();
+		long deadline = System.currentTimeMillis() + timeout;
+		while (getFlushedCount() < target) {
+			if (System.currentTimeMillis() >= deadline) {
+				wake();
+				return false;
+			}
+			LockSupport.parkNanos(this, FULL_PARK_NANOS);
+		}
+		return true;
+	}
+
+	/**
+	 * Resume the periodic wake-ups of the consumers after {@code hibernate()}
+	 */
+	public void wake() {
+		if (hibernating) {
+			hibernating = false;
+			signal();
+		}
+	}
+
+	/**
+	 * Get the amount of the published records the given handler hasn't consumed yet
+	 * @param handler
+	 * @return lag of the handler or -1 if there is no consumer for the handler
+	 */
+	public long getLag(BHandler handler) {
+		for (Consumer consumer : consumers) {
+			if (consumer.handler == handler) {
+				return published - consumer.consumed;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Stop all the consumers after they have consumed all the published records.
+	 * @param timeout max time to wait for the consumers (milliseconds)
+	 * @return true if all the consumers have stopped
+	 */
+	public boolean close(long timeout) {
+		List<Consumer> stopped = new ArrayList<Consumer>(consumers);
+		for (Consumer consumer : stopped) {
+			consumer.stop();
+		}
+		long deadline = System.currentTimeMillis() + timeout;
+		boolean result = true;
+		for (Consumer consumer : stopped) {
+			long wait = deadline - System.currentTimeMillis();
+			try {
+				if (wait > 0) {
+					consumer.worker.join(wait);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (consumer.worker.isAlive()) {
+				System.err.println("Handler " + consumer.worker.getName() + " hasn't been drained, lag "
+						+ (published - consumer.consumed));
+				result = false;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Set the listener which is invoked by a consumer every time it has flushed
+	 * its handler after consuming the new records
+	 * @param listener
+	 */
+	public void setFlushListener(Runnable listener) {
+		this.flushListener = listener;
+	}
+
+	/**
+	 * @return amount of the records which have been published to the sequence
+	 */
+	public long getPublishedCount() {
+		return published;
+	}
+
+	/**
+	 * Get the amount of the records which have been written down and flushed by all the handlers
+	 * @return amount of the flushed records
+	 */
+	public long getFlushedCount() {
+		long min = published;
+		for (Consumer consumer : consumers) {
+			long flushed = consumer.flushed;
+			if (flushed < min) {
+				min = flushed;
+			}
+		}
+		return min;
+	}
+
+	/**
+	 * Clear the slots of the records which all the consumers have passed
+	 */
+	private void clearConsumed() {
+		synchronized (clearLock) {
+			long min = getMinConsumed();
+			long next = cleared;
+			while (next < min) {
+				ring[(int) next & mask] = null;
+				next++;
+			}
+			cleared = next;
+		}
+	}
+
+	private long getMinConsumed() {
+		long min = published;
+		for (Consumer consumer : consumers) {
+			long consumed = consumer.consumed;
+			if (consumed < min) {
+				min = consumed;
+			}
+		}
+		return min;
+	}
+}
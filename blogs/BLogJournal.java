@@ -0,0 +1,269 @@
+package blogs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <tt>BLogJournal</tt> is a write-ahead journal of a <tt>BLogger</tt>. Every record is appended
+ * to the journal before it is put to the records pool, so the records which haven't been
+ * written down by the handlers survive a JVM crash (or {@code kill -9}).
+ * <p>
+ * The journal is a memory-mapped ring file. A business thread reserves a place in the ring with
+ * a single CAS and copies the encoded record (see {@link BLogRecordCodec}) into it. The length of
+ * the record is written last, so a record being written when the JVM dies is ignored.
+ * The flushing thread forces the mapped pages to the disk once per drain (group commit) and moves
+ * the start of the journal ({@code truncate()}) after the handlers have been flushed.
+ * <p>
+ * The flushing thread takes a checkpoint before it drains the pool. The checkpoint waits for
+ * the threads which are between {@code enter()} and {@code exit()}, so all the records before
+ * the checkpoint position are in the pool (or have been written down) by then.
+ * <p>
+ * On the next start {@code recover()} returns the records after the start of the journal.
+ * They are re-published and the journal is truncated right after, so they're written once.
+ */
+public class BLogJournal {
+	// the header holds the position of the first record to recover
+	private static final int HEADER_SIZE = 16;
+	// the rest of the ring is skipped
+	private static final int PADDING = -1;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+	// end of the reserved places
+	private final AtomicLong reserved = new AtomicLong();
+	// start of the journal (the records before it have been written down)
+	private volatile long committed;
+	// the threads which are appending their records in the current/previous epoch
+	private final AtomicInteger writers[] = new AtomicInteger[] {new AtomicInteger(), new AtomicInteger()};
+	private volatile int epoch;
+	// amount of the records which haven't been journaled because the journal was full
+	private final AtomicLong rejected = new AtomicLong();
+	private final ThreadLocal<ByteArrayOutputStream> localBuffer = new ThreadLocal<ByteArrayOutputStream>();
+
+	/**
+	 * Open (or create) the journal file
+	 * @param file journal file
+	 * @param capacity size of the ring in bytes
+	 * @throws IOException
+	 */
+	public BLogJournal(File file, int capacity) throws IOException {
+		this.file = file;
+		File dir = file.getParentFile();
+		if (dir != null) {
+			dir.mkdirs();
+		}
+		this.raf = new RandomAccessFile(file, "rw");
+		if (raf.length() >= HEADER_SIZE) {
+			// keep the capacity of the existing journal to recover it
+			raf.seek(8);
+			int existing = raf.readInt();
+			if (existing > 0 && raf.length() == HEADER_SIZE + (long) existing) {
+				capacity = existing;
+			}
+		}
+		this.capacity = capacity;
+		this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity);
+		buffer.putInt(8, capacity);
+	}
+
+	/**
+	 * Register the current thread as a writer. It must be followed by {@code exit()}
+	 * when the record has been put to the pool.
+	 * @return the token for {@code exit()}
+	 */
+	public int enter() {
+		while (true) {
+			int e = epoch;
+			AtomicInteger counter = writers[e & 1];
+			counter.incrementAndGet();
+			if (e == epoch) {
+				return e;
+			}
+			// a checkpoint has started, register in the new epoch
+			counter.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Unregister the current thread
+	 * @param token the token returned by {@code enter()}
+	 */
+	public void exit(int token) {
+		writers[token & 1].decrementAndGet();
+	}
+
+	/**
+	 * Append the record to the journal
+	 * @param record
+	 * @return false if there is no room for the record in the journal
+	 */
+	public boolean append(BLogRecord record) {
+		ByteArrayOutputStream bytes = localBuffer.get();
+		if (bytes == null) {
+			bytes = new ByteArrayOutputStream();
+			localBuffer.set(bytes);
+		}
+		bytes.reset();
+		try {
+			BLogRecordCodec.write(record, new DataOutputStream(bytes));
+		} catch (IOException e) {
+			return false;
+		}
+		int len = bytes.size();
+		int total = 4 + len;
+
+		long pos;
+		long skip;
+		long next;
+		do {
+			pos = reserved.get();
+			int phys = (int) (pos % capacity);
+			// a record isn't split at the end of the ring
+			skip = phys + total > capacity ? capacity - phys : 0;
+			next = pos + skip + total;
+			if (next - committed > capacity) {
+				rejected.incrementAndGet();
+				return false;
+			}
+		} while (!reserved.compareAndSet(pos, next));
+
+		if (skip >= 4) {
+			buffer.putInt(HEADER_SIZE + (int) (pos % capacity), PADDING);
+		}
+		int phys = (int) ((pos + skip) % capacity);
+		ByteBuffer target = buffer.duplicate();
+		target.position(HEADER_SIZE + phys + 4);
+		target.put(bytes.toByteArray(), 0, len);
+		// the length marks the record as complete
+		buffer.putInt(HEADER_SIZE + phys, len);
+		return true;
+	}
+
+	/**
+	 * Take a checkpoint. All the records before the returned position have been put to
+	 * the pool (or written down) by the time this method returns. It's invoked by the
+	 * flushing thread before draining the pool.
+	 * @return checkpoint position for {@code truncate()}
+	 */
+	public long checkpoint() {
+		long mark = reserved.get();
+		int e = epoch;
+		epoch = e + 1;
+		// wait for the writers which could have reserved a place before the mark
+		AtomicInteger counter = writers[e & 1];
+		while (counter.get() != 0) {
+			Thread.yield();
+		}
+		return mark;
+	}
+
+	/**
+	 * Force the journal to the disk and remove the records before the given position.
+	 * It's invoked by the flushing thread after the handlers have been flushed.
+	 * @param mark position returned by {@code checkpoint()}
+	 */
+	public synchronized void truncate(long mark) {
+		if (mark <= committed) {
+			buffer.force();
+			return;
+		}
+		// clean the released places, so the stale records can't be recovered
+		long pos = committed;
+		while (pos < mark) {
+			int phys = (int) (pos % capacity);
+			int len = (int) Math.min(mark - pos, capacity - phys);
+			clear(phys, len);
+			pos += len;
+		}
+		committed = mark;
+		buffer.putLong(0, mark);
+		buffer.force();
+	}
+
+	/**
+	 * Get the records which haven't been written down before the JVM has been stopped.
+	 * It must be invoked before any {@code append()}.
+	 * @return records in the order of the journal
+	 */
+	public synchronized List<BLogRecord> recover() {
+		List<BLogRecord> records = new ArrayList<BLogRecord>();
+		long pos = buffer.getLong(0);
+		if (pos < 0) {
+			pos = 0;
+		}
+		long start = pos;
+		while (pos - start < capacity) {
+			int phys = (int) (pos % capacity);
+			if (capacity - phys < 4) {
+				pos += capacity - phys;
+				continue;
+			}
+			int len = buffer.getInt(HEADER_SIZE + phys);
+			if (len == PADDING) {
+				pos += capacity - phys;
+				continue;
+			}
+			if (len <= 0 || phys + 4 + len > capacity) {
+				break;
+			}
+			byte bytes[] = new byte[len];
+			ByteBuffer source = buffer.duplicate();
+			source.position(HEADER_SIZE + phys + 4);
+			source.get(bytes);
+			try {
+				records.add(BLogRecordCodec.read(new DataInputStream(new ByteArrayInputStream(bytes))));
+			} catch (IOException e) {
+				System.err.println("Error on recovering the journal " + file + ": " + e.getMessage());
+				break;
+			}
+			pos += 4 + len;
+		}
+		committed = start;
+		reserved.set(pos);
+		return records;
+	}
+
+	/**
+	 * @return amount of the records which haven't been journaled because the journal was full
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * Force the journal to the disk and close the file
+	 */
+	public synchronized void close() {
+		buffer.force();
+		try {
+			raf.close();
+		} catch (IOException e) {
+			System.err.println("Error on closing the journal " + file + ": " + e.getMessage());
+		}
+	}
+
+	private void clear(int phys, int len) {
+		byte zeros[] = new byte[Math.min(len, 8192)];
+		ByteBuffer target = buffer.duplicate();
+		target.position(HEADER_SIZE + phys);
+		while (len > 0) {
+			int n = Math.min(len, zeros.length);
+			target.put(zeros, 0, n);
+			len -= n;
+		}
+	}
+}
@@ -0,0 +1,487 @@
+package blogs;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <tt>BLogLoadGenerator</tt> simulates the business threads of an application server logging
+ * into several business solutions and reports how the loggers cope with the load. It's used to
+ * size {@code blogger.pool.size} and {@code blogger.flushperiod} and to soak test the loggers
+ * for hours before a release.
+ * <p>
+ * The loggers are the real ones configured by cfg.properties, so the records are written to the
+ * CSV files of the base directory and rotated as usual. Every thread picks a solution, a user,
+ * an operation, a message type and a message size for every record:
+ * <ul>
+ * <li> the users are skewed, a few users produce most of the records;</li>
+ * <li> the operations and the message types are skewed to the first ones (INFO mostly);</li>
+ * <li> the message sizes are log-normal around {@code size}.</li>
+ * </ul>
+ * Every {@code report} seconds a line is printed with the throughput, the percentiles of the
+ * {@code log()} latency, the delay from {@code log()} to the flush of the file handler
+ * (measured by a handler wrapped around it), the pending records, the heap, the
+ * garbage collections and the CSV files in the base directory. The summary is printed at the end.
+ * <p>
+ * If the {@code rate} is given every thread logs at that fixed rate and the latency is measured
+ * from the time the record was scheduled for, so a stalled {@code log()} is charged for all
+ * the records it has delayed (coordinated omission). Without the rate the threads log as fast
+ * as they can and the latency is one call.
+ * <p>
+ * Usage: <tt>java blogs.BLogLoadGenerator [name=value]...</tt>
+ * <ul>
+ * <li>   threads=16          business threads</li>
+ * <li>   solutions=PKO,ALL   business solutions ({@code BSolution} names)</li>
+ * <li>   users=1000          distinct users</li>
+ * <li>   rate=0              records per second per thread, 0 - as fast as possible</li>
+ * <li>   size=200            median message size (chars)</li>
+ * <li>   seconds=60          duration of the run</li>
+ * <li>   report=10           seconds between the report lines</li>
+ * </ul>
+ * Any other name with a dot is set as a <tt>BLogManager</tt> property, e.g.
+ * {@code blogger.pool.size=20000 blogger.flushperiod=500}.
+ */
+public class BLogLoadGenerator {
+	// distinct messages prepared by every thread
+	private static final int MESSAGES = 256;
+	private static final MessageType TYPES[] = MessageType.values();
+	private static final BOperation OPERATIONS[] = BOperation.values();
+	// the threads sleep if the next record is farther (nanoseconds)
+	private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+	/**
+	 * Log-linear histogram of positive values with the precision of about 3%.
+	 * It's written without locks and drained by the reporting thread.
+	 */
+	static final class Histogram {
+		private static final int SUB_BITS = 5;
+		private static final int LINEAR = 2 << SUB_BITS;
+		private static final int SIZE = LINEAR + (64 - SUB_BITS - 1) * (1 << SUB_BITS);
+
+		private final AtomicLongArray counts = new AtomicLongArray(SIZE);
+
+		private static int indexOf(long value) {
+			if (value < LINEAR) {
+				return (int) Math.max(0, value);
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int) (value >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+			return LINEAR + (exponent - SUB_BITS - 1) * (1 << SUB_BITS) + sub;
+		}
+
+		// the highest value of the bucket
+		private static long valueOf(int index) {
+			if (index < LINEAR) {
+				return index;
+			}
+			int exponent = (index - LINEAR) / (1 << SUB_BITS) + SUB_BITS + 1;
+			long sub = (index - LINEAR) % (1 << SUB_BITS);
+			return (((1L << SUB_BITS) + sub + 1) << (exponent - SUB_BITS)) - 1;
+		}
+
+		void record(long value) {
+			counts.incrementAndGet(indexOf(value));
+		}
+
+		/**
+		 * Move the counts to the other histogram
+		 */
+		void drainTo(Histogram target) {
+			for (int i = 0; i < SIZE; i++) {
+				long count = counts.get(i);
+				if (count != 0) {
+					counts.addAndGet(i, -count);
+					target.counts.addAndGet(i, count);
+				}
+			}
+		}
+
+		void addTo(Histogram target) {
+			for (int i = 0; i < SIZE; i++) {
+				long count = counts.get(i);
+				if (count != 0) {
+					target.counts.addAndGet(i, count);
+				}
+			}
+		}
+
+		long count() {
+			long result = 0;
+			for (int i = 0; i < SIZE; i++) {
+				result += counts.get(i);
+			}
+			return result;
+		}
+
+		/**
+		 * @param percentile 0..100
+		 * @return the value not exceeded by the percentile of the values
+		 */
+		long percentile(double percentile) {
+			long total = count();
+			if (total == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+			long seen = 0;
+			for (int i = 0; i < SIZE; i++) {
+				seen += counts.get(i);
+				if (seen >= rank) {
+					return valueOf(i);
+				}
+			}
+			return valueOf(SIZE - 1);
+		}
+
+		long max() {
+			for (int i = SIZE - 1; i >= 0; i--) {
+				if (counts.get(i) != 0) {
+					return valueOf(i);
+				}
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * Measures the delay from the creation of the records to the flush of the file handler.
+	 * It wraps the file handler, so the delay is taken when the wrapped handler has written
+	 * the records down, whoever flushes it (the flushing thread or a dispatcher consumer).
+	 * The coalesced records are counted by their repeat counts.
+	 */
+	static final class DelayHandler extends BHandler {
+		private final BHandler handler;
+		private long times[] = new long[1024];
+		private int size;
+		final Histogram delays;
+		final AtomicLong published = new AtomicLong();
+
+		DelayHandler(BHandler handler, Histogram delays) {
+			this.handler = handler;
+			this.delays = delays;
+		}
+
+		@Override
+		public synchronized void publish(BLogRecord record) {
+			if (record == null) {
+				return;
+			}
+			handler.publish(record);
+			if (size == times.length) {
+				times = Arrays.copyOf(times, size * 2);
+			}
+			times[size++] = record.getMillis();
+			published.addAndGet(Math.max(1, record.getRepeatCount()));
+		}
+
+		@Override
+		public synchronized void flush() {
+			handler.flush();
+			record();
+		}
+
+		@Override
+		public synchronized void sync() throws IOException {
+			handler.sync();
+			record();
+		}
+
+		private void record() {
+			long now = System.currentTimeMillis();
+			for (int i = 0; i < size; i++) {
+				delays.record(now - times[i]);
+			}
+			size = 0;
+		}
+
+		@Override
+		public synchronized void hibernate() {
+			flush();
+			handler.hibernate();
+		}
+
+		@Override
+		public synchronized void close() {
+			handler.close();
+			record();
+		}
+	}
+
+	/**
+	 * A business thread
+	 */
+	private static final class Worker extends Thread {
+		private final BLogger loggers[];
+		private final int users;
+		private final long interval;
+		private final String messages[] = new String[MESSAGES];
+		final Histogram latency = new Histogram();
+		final AtomicLong logged = new AtomicLong();
+		volatile boolean running = true;
+
+		Worker(int number, BLogger loggers[], int users, int rate, int size) {
+			super("BLogLoadGenerator-" + number);
+			this.loggers = loggers;
+			this.users = users;
+			this.interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < MESSAGES; i++) {
+				int length = (int) Math.min(size * 20L, Math.round(size * Math.exp(random.nextGaussian() * 0.5)));
+				sb.setLength(0);
+				sb.append(getName()).append(" document ").append(i).append(' ');
+				while (sb.length() < length) {
+					sb.append((char) ('a' + random.nextInt(26)));
+				}
+				messages[i] = sb.toString();
+			}
+		}
+
+		// skewed to the lower values
+		private static int skewed(ThreadLocalRandom random, int bound) {
+			double r = random.nextDouble();
+			return (int) (bound * r * r * r);
+		}
+
+		@Override
+		public void run() {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			long next = System.nanoTime();
+			while (running) {
+				long start;
+				if (interval > 0) {
+					long left;
+					while ((left = next - System.nanoTime()) > 0) {
+						if (left > MIN_PARK_NANOS) {
+							LockSupport.parkNanos(left - MIN_PARK_NANOS / 2);
+						} else {
+							Thread.yield();
+						}
+					}
+					// the latency is charged from the time the record was due
+					start = next;
+					next += interval;
+				} else {
+					start = System.nanoTime();
+				}
+				BLogger logger = loggers[random.nextInt(loggers.length)];
+				logger.setLocalUser("user" + skewed(random, users));
+				logger.log(messages[random.nextInt(MESSAGES)], TYPES[skewed(random, TYPES.length)],
+						OPERATIONS[skewed(random, OPERATIONS.length)]);
+				latency.record((System.nanoTime() - start) / 1000);
+				logged.incrementAndGet();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = 16;
+		String solutions = "PKO,ALL";
+		int users = 1000;
+		int rate = 0;
+		int size = 200;
+		int seconds = 60;
+		int report = 10;
+		BLogManager manager = BLogManager.getLogManager();
+		for (String arg : args) {
+			int i = arg.indexOf('=');
+			if (i < 0) {
+				System.err.println("Usage: java blogs.BLogLoadGenerator [name=value]...");
+				return;
+			}
+			String name = arg.substring(0, i);
+			String value = arg.substring(i + 1);
+			if (name.indexOf('.') >= 0) {
+				manager.props.setProperty(name, value);
+			} else if ("threads".equals(name)) {
+				threads = Integer.parseInt(value);
+			} else if ("solutions".equals(name)) {
+				solutions = value;
+			} else if ("users".equals(name)) {
+				users = Integer.parseInt(value);
+			} else if ("rate".equals(name)) {
+				rate = Integer.parseInt(value);
+			} else if ("size".equals(name)) {
+				size = Integer.parseInt(value);
+			} else if ("seconds".equals(name)) {
+				seconds = Integer.parseInt(value);
+			} else if ("report".equals(name)) {
+				report = Integer.parseInt(value);
+			} else {
+				System.err.println("Unknown parameter " + name);
+				return;
+			}
+		}
+
+		File baseDir = new File(manager.getProperty(BLogManager.BLOGS_DIR_PROP, manager.getDefaultBaseDir()));
+		Histogram delays = new Histogram();
+		List<BLogger> loggers = new ArrayList<BLogger>();
+		List<DelayHandler> delayHandlers = new ArrayList<DelayHandler>();
+		for (String name : solutions.split(",")) {
+			BSolution solution = BSolution.valueOf(name.trim());
+			// the file handler doesn't create the directory of the solution
+			new File(baseDir, solution.getPath()).mkdirs();
+			BLogger logger = BLogger.getLogger("loadgen", solution);
+			BHandler handlers[] = logger.getHandlers();
+			if (handlers.length == 0) {
+				System.err.println("The logger of " + solution + " has no file handler");
+				return;
+			}
+			// the delay is measured around the file handler
+			DelayHandler handler = new DelayHandler(handlers[0], delays);
+			logger.removeHandler(handlers[0]);
+			logger.addHandler(handler);
+			loggers.add(logger);
+			delayHandlers.add(handler);
+		}
+		Worker workers[] = new Worker[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Worker(i, loggers.toArray(new BLogger[0]), users, rate, size);
+		}
+
+		System.out.println("threads=" + threads + " solutions=" + solutions + " users=" + users + " rate=" + rate
+				+ " size=" + size + " seconds=" + seconds + " pool.size="
+				+ manager.getProperty(BLogManager.MAX_POOL_SIZE_PROP, "default") + " flushperiod="
+				+ manager.getProperty(BLogManager.FLUSHPERIOD_PROP, "default"));
+		System.out.println("time s;records/s;log() p50 us;p99 us;p99.9 us;max us;delay p50 ms;p99 ms;max ms;"
+				+ "pending;heap MB;gc;gc ms;files;disk MB");
+		long startFiles = countFiles(baseDir)[0];
+		long startTime = System.nanoTime();
+		for (Worker worker : workers) {
+			worker.start();
+		}
+
+		Histogram totalLatency = new Histogram();
+		Histogram totalDelays = new Histogram();
+		long lastLogged = 0;
+		long lastGcCount = gcCount();
+		long lastGcTime = gcTime();
+		long lastReport = startTime;
+		long end = startTime + TimeUnit.SECONDS.toNanos(seconds);
+		while (true) {
+			long now = System.nanoTime();
+			long wait = Math.min(end, lastReport + TimeUnit.SECONDS.toNanos(report)) - now;
+			if (wait > 0) {
+				Thread.sleep(TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+				continue;
+			}
+			now = System.nanoTime();
+			Histogram latency = new Histogram();
+			long logged = 0;
+			for (Worker worker : workers) {
+				worker.latency.drainTo(latency);
+				logged += worker.logged.get();
+			}
+			Histogram delay = new Histogram();
+			delays.drainTo(delay);
+			latency.addTo(totalLatency);
+			delay.addTo(totalDelays);
+			long pending = 0;
+			for (BLogger logger : loggers) {
+				pending += logger.getPendingCount();
+			}
+			long gcCount = gcCount();
+			long gcTime = gcTime();
+			long files[] = countFiles(baseDir);
+			double elapsed = (now - lastReport) / 1e9;
+			System.out.println(String.format(Locale.ROOT, "%d;%d;%d;%d;%d;%d;%d;%d;%d;%d;%d;%d;%d;%d;%d",
+					TimeUnit.NANOSECONDS.toSeconds(now - startTime), Math.round((logged - lastLogged) / elapsed),
+					latency.percentile(50), latency.percentile(99), latency.percentile(99.9), latency.max(),
+					delay.percentile(50), delay.percentile(99), delay.max(), pending,
+					ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20,
+					gcCount - lastGcCount, gcTime - lastGcTime, files[0], files[1] >> 20));
+			lastLogged = logged;
+			lastGcCount = gcCount;
+			lastGcTime = gcTime;
+			lastReport = now;
+			if (now >= end) {
+				break;
+			}
+		}
+
+		for (Worker worker : workers) {
+			worker.running = false;
+		}
+		long logged = 0;
+		for (Worker worker : workers) {
+			worker.join();
+			worker.latency.drainTo(totalLatency);
+			logged += worker.logged.get();
+		}
+		long elapsed = System.nanoTime() - startTime;
+		for (BLogger logger : loggers) {
+			logger.close();
+		}
+		delays.drainTo(totalDelays);
+		long published = 0;
+		for (DelayHandler handler : delayHandlers) {
+			published += handler.published.get();
+		}
+		long files[] = countFiles(baseDir);
+
+		System.out.println();
+		System.out.println("records: " + logged + ", written: " + published + (published < logged
+				? ", lost: " + (logged - published) : ", written twice: " + (published - logged)));
+		System.out.println("records/s: " + Math.round(logged / (elapsed / 1e9)));
+		System.out.println("log() us: " + percentiles(totalLatency));
+		System.out.println("log() to written ms: " + percentiles(totalDelays));
+		System.out.println("files: " + files[0] + " (" + (files[0] - startFiles) + " new), "
+				+ (files[1] >> 20) + " MB");
+		System.exit(0);
+	}
+
+	private static String percentiles(Histogram histogram) {
+		return "p50 " + histogram.percentile(50) + ", p90 " + histogram.percentile(90)
+				+ ", p99 " + histogram.percentile(99) + ", p99.9 " + histogram.percentile(99.9)
+				+ ", p99.99 " + histogram.percentile(99.99) + ", max " + histogram.max();
+	}
+
+	private static long gcCount() {
+		long result = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			result += Math.max(0, gc.getCollectionCount());
+		}
+		return result;
+	}
+
+	private static long gcTime() {
+		long result = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			result += Math.max(0, gc.getCollectionTime());
+		}
+		return result;
+	}
+
+	/**
+	 * @param dir
+	 * @return amount and total size of the CSV files in the directory and its subdirectories
+	 */
+	private static long[] countFiles(File dir) {
+		long result[] = new long[2];
+		File children[] = dir.listFiles();
+		if (children == null) {
+			return result;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				long nested[] = countFiles(child);
+				result[0] += nested[0];
+				result[1] += nested[1];
+			} else if (child.getName().endsWith(".csv")) {
+				result[0]++;
+				result[1] += child.length();
+			}
+		}
+		return result;
+	}
+}
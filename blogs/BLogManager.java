@@ -1,219 +1,659 @@
-package blogs;
-
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.lang.ref.WeakReference;
-import java.util.Properties;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-
-/**
- * Business Logs manager provides the access to the registered 
- * business-loggers. It also initialises configuration properties 
- * that can be taken using {@code getProperty} method.
- */
-public class BLogManager {
-	// The global BLogManager object
-	protected static final BLogManager manager = new BLogManager();
-	// Table of known loggers.  Maps names to BLoggers.
-	protected ConcurrentMap<String, WeakReference<BLogger>> loggers = new ConcurrentHashMap<String, WeakReference<BLogger>>();
-	protected Properties props = new Properties();
-	
-	public static final String BLOGS_DIR_PROP = "blogs.dir"; /* /usr/sap/<SID>/J00/log/MTO */
-	public static final String CSV_MAX_FILE_SIZE_PROP = "csvfilehandler.maxfilesize";
-	public static final String CSV_FILE_NAME_PATTREN_PROP = "csvfilehandler.file_name_pattern";
-	public static final String LIFETIME_PROP = "blogger.lifetime";
-    public static final String FLUSHPERIOD_PROP = "blogger.flushperiod";
-	public static final String MAX_POOL_SIZE_PROP = "blogger.pool.size";
-    public static final String CSV_ENCODING_PROP = "csvfilehandler.encoding";
-	public static final String DEFAULT_BLOGS_DIR = "/usr/sap/<SID>/J00/log/MTO";
-	public static final String TIMEZONE_PROP = "blogger.timezone";
-	public static final String CSV_MAX_DAYS = "csvfilehandler.maxdays";
-    /**
-     * This constructor adds shutdown hook thread to safety finish all the 
-     * BLoger instances when JVM shuts down normally or abruptly.
-     */
-    protected BLogManager() {
-    	Runtime.getRuntime().addShutdownHook(new Thread() {
-			@Override
-			public void run() {
-				for (Entry<String, WeakReference<BLogger>> logger : loggers.entrySet()) {
-					logger.getValue().get().close();
-				}
-			}
-		});
-	}
-	
-    /**
-     * Initialise the manager lazily when it's required 
-     */
-	protected void initLogManager() {
-		try {
-			readConfiguration();
-		} catch (IOException e) {
-			System.err.println("Error on readConfiguration() " + getClass().getCanonicalName() + ": "  + e.getMessage());
-		}
-	}
-	
-	/**
-     * Return the global BLogManager object.
-     */
-    public static BLogManager getLogManager() {
-        if (manager != null) {
-            manager.initLogManager();
-        }
-        return manager;
-    }
-    
-    /**
-     * Add a named logger.  This does nothing and returns false if a logger
-     * with the same name is already registered.
-     * <p>
-     * The BLogger factory methods call this method to register each
-     * newly created Logger.
-     * <p>
-     * The application should retain its own reference to the Logger 
-     * object to avoid it being garbage collected.  The BLogManager
-     * may only retain a weak reference.
-     *
-     * @param   logger the new logger.
-     * @return  true if the argument logger was registered successfully,
-     *          false if a logger of that name already exists.
-     * @exception NullPointerException if the logger name is null.
-     */
-	public boolean addLogger(BLogger logger) {
-		final String name = logger.getLoggerName();
-		if (name == null) {
-			throw new NullPointerException();
-		}
-
-		WeakReference<BLogger> ref = loggers.get(name);
-		if (ref != null) {
-			if (ref.get() == null) {
-				// ConcurrentHashMap holds stale weak reference
-				// to a logger which has been GC-ed.
-				// Allow to register new one.
-				loggers.remove(name);
-			} else {
-				// We already have a registered logger with the given name.
-				return false;
-			}
-		}
-
-		// We're adding a new logger.
-		// Note that we are creating a weak reference here.
-		WeakReference<BLogger> bl = loggers.putIfAbsent(name, new WeakReference<BLogger>(logger));
-		return (bl == null) ? true : false;
-	}
-	
-    /**
-     * Package-level method.
-     * Find or create a specified logger instance. If a logger has
-     * already been created with the given name it is returned.
-     * Otherwise a new logger instance is created and registered
-     * in the BLogManager global namespace.
-     * 
-     * @param name
-     * @return
-     */
-    BLogger demandLogger(String name, BSolution solution) {
-    	BLogger result = getLogger(name);
-    	if (result == null) {
-    		result = new BLogger(name, solution, this);
-    		addLogger(result);
-    		result = getLogger(name);
-    	}
-    	
-    	return result;
-    }
-    
-    BLogger demandLogger(String name, BSolution solution, BHandler handler) {
-    	BLogger result = getLogger(name);
-    	if (result == null) {
-    		result = new BLogger(name, solution, handler, this);
-    		addLogger(result);
-    		result = getLogger(name);
-    	}
-    	
-    	return result;
-    }
-    
-    /**
-     * Method to find a named logger.
-     * @param name name of the logger 
-     * @return  matching logger or null if none is found
-     */
-    public BLogger getLogger(String name) {
-    	WeakReference<BLogger> ref = loggers.get(name);
-    	if (ref == null) {
-    		return null;
-        }
-    	BLogger logger = ref.get();
-    	if (logger == null) {
-            // Map holds stale weak reference 
-            // to a logger which has been GC-ed.
-            loggers.remove(name);
-        }
-    	
-    	return logger;
-    }
-    
-    /**
-     * Reinitialize the logging properties and reread the logging configuration
-     * from the CONFIG_FILE
-     * @throws IOException
-     */
-    public void readConfiguration() throws IOException {
-    	String cfgPath = System.getProperty(BLOGS_DIR_PROP, getDefaultBaseDir());
-    	File f = new File(cfgPath + File.separatorChar  + "cfg.properties");
-		cfgPath = f.getCanonicalPath();
-		if (f.exists()) {
-			InputStream in = new FileInputStream(cfgPath);
-			BufferedInputStream bin = new BufferedInputStream(in);
-			try {
-				// Load the properties
-				props.load(bin);
-			} finally {
-				if (bin != null) {
-					bin.close();
-				}
-			}
-		}
-    }
-    
-    protected String getDefaultBaseDir() {
-    	return DEFAULT_BLOGS_DIR.replaceFirst("<SID>", System.getProperty("SAPSYSTEMNAME", ""));
-    }
-    
-    /**
-     * Get the value of a logging property.
-     * The method returns defaultValue if the property is not found.
-     * @param name	property name
-     * @param defaultValue	default value
-     * @return property value
-     */
-    public String getProperty(String name, String defaultValue) {
-    	return props.getProperty(name, defaultValue);
-    }
-    
-    /**
-     * Get the value of a logging property.
-     * The method returns defaultValue if the property is not found.
-     * @param name	property name
-     * @param defaultValue	default value
-     * @return property	value
-     */
-    public int getProperty(String name, int defaultValue) {
-    	int result = defaultValue;
-    	String sResult = props.getProperty(name);
-    	if (sResult != null) {
-    		result = Integer.valueOf(sResult);
-    	} 
-    	
-    	return result;
-    }
-}
+package blogs;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Business Logs manager provides the access to the registered 
+ * business-loggers. It also initialises configuration properties 
+ * that can be taken using {@code getProperty} method.
+ */
+public class BLogManager {
+	// The global BLogManager object
+	protected static final BLogManager manager = new BLogManager();
+	// Table of known loggers.  Maps names to BLoggers.
+	protected ConcurrentMap<String, WeakReference<BLogger>> loggers = new ConcurrentHashMap<String, WeakReference<BLogger>>();
+	protected Properties props = new Properties();
+	// modification time of the configuration file when it has been read
+	private volatile long configModified = -1;
+	// live tail subscriptions of all the loggers
+	protected final BLogSubscriptions subscriptions = new BLogSubscriptions();
+	// locks guarding the creation of the loggers by name
+	private final ConcurrentMap<String, Object> creationLocks = new ConcurrentHashMap<String, Object>();
+	// the warmed-up loggers are kept here till they're closed, the others are referenced weakly
+	final ConcurrentMap<String, BLogger> warmLoggers = new ConcurrentHashMap<String, BLogger>();
+	// completed when the loggers have been warmed up
+	private final CompletableFuture<Void> readiness = new CompletableFuture<Void>();
+	private boolean warmUpStarted;
+	// max estimated size of the records pooled by all the loggers in bytes, 0 - no limit
+	private volatile int maxPoolBytes;
+	// estimated size of the records pooled by all the loggers
+	private final AtomicLong pooledBytes = new AtomicLong();
+	// max direct memory of the off-heap pools of all the loggers in bytes, 0 - no limit
+	private volatile int maxOffHeapBytes;
+	// direct memory allocated by the off-heap pools of all the loggers
+	private final AtomicLong offHeapBytes = new AtomicLong();
+	// statistics of the off-heap pools of all the loggers
+	private final AtomicLong offHeapAdded = new AtomicLong();
+	private final AtomicLong offHeapOverflowed = new AtomicLong();
+	private final AtomicLong offHeapRefused = new AtomicLong();
+	
+	public static final String BLOGS_DIR_PROP = "blogs.dir"; /* /usr/sap/<SID>/J00/log/MTO */
+	public static final String CSV_MAX_FILE_SIZE_PROP = "csvfilehandler.maxfilesize";
+	public static final String CSV_FILE_NAME_PATTREN_PROP = "csvfilehandler.file_name_pattern";
+	public static final String LIFETIME_PROP = "blogger.lifetime";
+    public static final String FLUSHPERIOD_PROP = "blogger.flushperiod";
+	public static final String MAX_POOL_SIZE_PROP = "blogger.pool.size";
+    public static final String CSV_ENCODING_PROP = "csvfilehandler.encoding";
+	public static final String DEFAULT_BLOGS_DIR = "/usr/sap/<SID>/J00/log/MTO";
+	public static final String TIMEZONE_PROP = "blogger.timezone";
+	public static final String CSV_MAX_DAYS = "csvfilehandler.maxdays";
+	public static final String CSV_DURABILITY_PROP = "csvfilehandler.durability";
+	public static final String CSV_SYNC_PERIOD_PROP = "csvfilehandler.sync_period";
+	public static final String COALESCE_SIZE_PROP = "blogger.coalesce.size";
+	public static final String STAGING_PROP = "blogger.pool.staging";
+	public static final String STRIPES_PROP = "blogger.pool.stripes";
+	public static final String STRIPE_BY_PROP = "blogger.pool.stripe_by";
+	public static final String DISPATCH_SIZE_PROP = "blogger.dispatch.size";
+	public static final String SPILL_PROP = "blogger.spill";
+	public static final String SPILL_DIR_PROP = "blogger.spill.dir";
+	public static final String JOURNAL_PROP = "blogger.journal";
+	public static final String JOURNAL_DIR_PROP = "blogger.journal.dir";
+	public static final String JOURNAL_SIZE_PROP = "blogger.journal.size";
+	public static final String SOCKET_HOST_PROP = "sockethandler.host";
+	public static final String SOCKET_PORT_PROP = "sockethandler.port";
+	public static final String SOCKET_BATCH_SIZE_PROP = "sockethandler.batch_size";
+	public static final String SOCKET_COMPRESS_PROP = "sockethandler.compress";
+	public static final String SOCKET_SPILL_DIR_PROP = "sockethandler.spill.dir";
+	public static final String COLLECTOR_PORT_PROP = "collector.port";
+	public static final String COLLECTOR_BIND_PROP = "collector.bind";
+	public static final String ASYNC_QUEUE_SIZE_PROP = "asyncbhandler.queue.size";
+	public static final String ASYNC_FLUSH_TIMEOUT_PROP = "asyncbhandler.flush.timeout";
+	public static final String RING_FILE_PROP = "mappedringhandler.file";
+	public static final String RING_SIZE_PROP = "mappedringhandler.size";
+	public static final String RING_FULL_TIMEOUT_PROP = "mappedringhandler.full_timeout";
+	public static final String JSON_THROWN_PROP = "jsonformatter.thrown";
+	public static final String JSON_PARAMETERS_PROP = "jsonformatter.parameters";
+	public static final String MERGER_HEAP_SIZE_PROP = "merger.heap_size";
+	public static final String MERGER_GRACE_PERIOD_PROP = "merger.grace_period";
+	public static final String REGISTRY_SOLUTIONS_PROP = "registry.solutions";
+	public static final String REGISTRY_OPERATIONS_PROP = "registry.operations";
+	public static final String REGISTRY_MAX_USERS_PROP = "registry.users.max";
+	public static final String REGISTRY_MAX_FIELD_KEYS_PROP = "registry.fields.max";
+	public static final String SHUTDOWN_TIMEOUT_PROP = "manager.shutdown_timeout";
+	public static final String WARMUP_PROP = "manager.warmup";
+	public static final String MAX_POOL_BYTES_PROP = "blogger.pool.bytes";
+	public static final String MANAGER_POOL_BYTES_PROP = "manager.pool.bytes";
+	public static final String OFFHEAP_PROP = "blogger.offheap";
+	public static final String OFFHEAP_SIZE_PROP = "blogger.offheap.size";
+	public static final String MANAGER_OFFHEAP_BYTES_PROP = "manager.offheap.bytes";
+	public static final String ERROR_REPORT_PERIOD_PROP = "errormanager.report_period";
+	public static final String BREAKER_PROP = "blogger.breaker";
+	public static final String BREAKER_FAILURES_PROP = "breaker.failures";
+	public static final String BREAKER_RETRY_PERIOD_PROP = "breaker.retry_period";
+	public static final String SCOPE_SIZE_PROP = "blogger.scope.size";
+	public static final String CSV_FIELDS_PROP = "csvformatter.fields";
+	
+	// max time the shutdown hook waits for all the loggers
+	public static final int DEFAULT_SHUTDOWN_TIMEOUT = 30000; // 30 seconds
+    /**
+     * This constructor adds shutdown hook thread to safety finish all the 
+     * BLoger instances when JVM shuts down normally or abruptly.
+     */
+    protected BLogManager() {
+    	Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				shutdown(getProperty(SHUTDOWN_TIMEOUT_PROP, DEFAULT_SHUTDOWN_TIMEOUT));
+			}
+		});
+	}
+    
+    /**
+     * Close all the loggers in parallel within the given time. All the flushing threads are 
+     * stopped at once, then every logger writes down its pool and closes its handlers by its 
+     * own thread. The records which haven't been written down by the deadline are reported 
+     * as lost.
+     * @param timeout max time to wait for the loggers (milliseconds)
+     * @return amount of the lost records
+     */
+    public long shutdown(long timeout) {
+    	long start = System.currentTimeMillis();
+    	final long deadline = start + timeout;
+    	final List<BLogger> closing = new ArrayList<BLogger>();
+    	for (WeakReference<BLogger> ref : loggers.values()) {
+    		// the logger may have been garbage collected
+    		BLogger logger = ref.get();
+    		if (logger != null) {
+    			closing.add(logger);
+    		}
+    	}
+    	if (closing.isEmpty()) {
+    		return 0;
+    	}
+    	for (BLogger logger : closing) {
+    		logger.beginClose();
+    	}
+    	final long written[] = new long[closing.size()];
+    	Thread threads[] = new Thread[closing.size()];
+    	for (int i = 0; i < threads.length; i++) {
+    		final int index = i;
+    		threads[i] = new Thread("BLogManager-close-" + closing.get(i).getLoggerName()) {
+    			@Override
+    			public void run() {
+    				written[index] = closing.get(index).close(Math.max(1, deadline - System.currentTimeMillis()));
+    			}
+    		};
+    		threads[i].setDaemon(true);
+    		threads[i].start();
+    	}
+    	long totalWritten = 0;
+    	long lost = 0;
+    	for (int i = 0; i < threads.length; i++) {
+    		try {
+    			long wait = deadline - System.currentTimeMillis();
+    			if (wait > 0) {
+    				threads[i].join(wait);
+    			}
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    		}
+    		BLogger logger = closing.get(i);
+    		long pending = logger.getPendingCount();
+    		if (threads[i].isAlive() || written[i] < 0) {
+    			System.err.println("BLogger " + logger.getLoggerName() + " hasn't been closed in time, "
+    					+ pending + " records are lost");
+    		} else {
+    			totalWritten += written[i];
+    		}
+    		lost += pending;
+    	}
+    	System.err.println("BLogManager has closed " + closing.size() + " loggers in " 
+    			+ (System.currentTimeMillis() - start) + " ms: " + totalWritten + " records written, " 
+    			+ lost + " records lost");
+    	return lost;
+    }
+	
+    /**
+     * Initialise the manager lazily when it's required. The configuration is read
+     * again only if the file has been changed.
+     */
+	protected void initLogManager() {
+		long modified = getConfigFile().lastModified();
+		if (modified == configModified) {
+			return;
+		}
+		configModified = modified;
+		try {
+			readConfiguration();
+		} catch (IOException e) {
+			System.err.println("Error on readConfiguration() " + getClass().getCanonicalName() + ": "  + e.getMessage());
+		}
+		maxPoolBytes = getProperty(MANAGER_POOL_BYTES_PROP, 0);
+		maxOffHeapBytes = getProperty(MANAGER_OFFHEAP_BYTES_PROP, 0);
+	}
+	
+	/**
+	 * @return true if the global budget of the pooled records is defined
+	 */
+	boolean hasPoolBudget() {
+		return maxPoolBytes > 0;
+	}
+	
+	/**
+	 * Reserve the estimated size of a pooled record in the global budget
+	 * @param size
+	 * @return false if the budget is exceeded
+	 */
+	boolean reservePoolBytes(int size) {
+		long pooled = pooledBytes.addAndGet(size);
+		int max = maxPoolBytes;
+		if (max > 0 && pooled > max) {
+			pooledBytes.addAndGet(-size);
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Release the size reserved by {@code reservePoolBytes()}
+	 * @param size
+	 */
+	void releasePoolBytes(long size) {
+		pooledBytes.addAndGet(-size);
+	}
+	
+	/**
+	 * @return estimated size of the records pooled by all the loggers in bytes, 
+	 *         it's only counted if a budget is defined
+	 */
+	public long getPooledBytes() {
+		return pooledBytes.get();
+	}
+	
+	/**
+	 * Reserve an arena of an off-heap pool in the global budget
+	 * @param size
+	 * @return false if the budget is exceeded
+	 */
+	boolean reserveOffHeapBytes(int size) {
+		long allocated = offHeapBytes.addAndGet(size);
+		int max = maxOffHeapBytes;
+		if (max > 0 && allocated > max) {
+			offHeapBytes.addAndGet(-size);
+			offHeapRefused.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Release the arena reserved by {@code reserveOffHeapBytes()}
+	 * @param size
+	 */
+	void releaseOffHeapBytes(int size) {
+		offHeapBytes.addAndGet(-size);
+	}
+	
+	void countOffHeapAdded(int count) {
+		offHeapAdded.addAndGet(count);
+	}
+	
+	void countOffHeapOverflow(int count) {
+		offHeapOverflowed.addAndGet(count);
+	}
+	
+	/**
+	 * @return direct memory allocated by the off-heap pools of all the loggers in bytes
+	 */
+	public long getOffHeapBytes() {
+		return offHeapBytes.get();
+	}
+	
+	/**
+	 * @return amount of the records added to the off-heap pools of all the loggers
+	 */
+	public long getOffHeapAddedCount() {
+		return offHeapAdded.get();
+	}
+	
+	/**
+	 * @return amount of the records which haven't fit into the off-heap pools of all the loggers
+	 */
+	public long getOffHeapOverflowCount() {
+		return offHeapOverflowed.get();
+	}
+	
+	/**
+	 * @return how many times an arena hasn't been allocated because of the budget
+	 */
+	public long getOffHeapRefusedCount() {
+		return offHeapRefused.get();
+	}
+	
+	/**
+     * Return the global BLogManager object.
+     */
+    public static BLogManager getLogManager() {
+        if (manager != null) {
+            manager.initLogManager();
+        }
+        return manager;
+    }
+    
+    /**
+     * Add a named logger.  This does nothing and returns false if a logger
+     * with the same name is already registered.
+     * <p>
+     * The BLogger factory methods call this method to register each
+     * newly created Logger.
+     * <p>
+     * The application should retain its own reference to the Logger 
+     * object to avoid it being garbage collected.  The BLogManager
+     * may only retain a weak reference.
+     *
+     * @param   logger the new logger.
+     * @return  true if the argument logger was registered successfully,
+     *          false if a logger of that name already exists.
+     * @exception NullPointerException if the logger name is null.
+     */
+	public boolean addLogger(BLogger logger) {
+		final String name = logger.getLoggerName();
+		if (name == null) {
+			throw new NullPointerException();
+		}
+
+		WeakReference<BLogger> ref = loggers.get(name);
+		if (ref != null) {
+			if (ref.get() == null) {
+				// ConcurrentHashMap holds stale weak reference
+				// to a logger which has been GC-ed.
+				// Allow to register new one.
+				loggers.remove(name);
+			} else {
+				// We already have a registered logger with the given name.
+				return false;
+			}
+		}
+
+		// We're adding a new logger.
+		// Note that we are creating a weak reference here.
+		WeakReference<BLogger> bl = loggers.putIfAbsent(name, new WeakReference<BLogger>(logger));
+		return (bl == null) ? true : false;
+	}
+	
+    /**
+     * Package-level method.
+     * Find or create a specified logger instance. If a logger has
+     * already been created with the given name it is returned.
+     * Otherwise a new logger instance is created and registered
+     * in the BLogManager global namespace.
+     * 
+     * @param name
+     * @return
+     */
+    BLogger demandLogger(String name, BSolution solution) {
+    	BLogger result = getLogger(name);
+    	if (result == null) {
+    		synchronized (getCreationLock(name)) {
+    			result = getLogger(name);
+    			if (result == null) {
+    				result = new BLogger(name, solution, this);
+    				addLogger(result);
+    				result = getLogger(name);
+    			}
+    		}
+    	}
+    	
+    	return result;
+    }
+    
+    BLogger demandLogger(String name, int solutionId) {
+    	BLogger result = getLogger(name);
+    	if (result == null) {
+    		synchronized (getCreationLock(name)) {
+    			result = getLogger(name);
+    			if (result == null) {
+    				result = new BLogger(name, solutionId, this);
+    				addLogger(result);
+    				result = getLogger(name);
+    			}
+    		}
+    	}
+    	
+    	return result;
+    }
+    
+    BLogger demandLogger(String name, BSolution solution, BHandler handler) {
+    	BLogger result = getLogger(name);
+    	if (result == null) {
+    		synchronized (getCreationLock(name)) {
+    			result = getLogger(name);
+    			if (result == null) {
+    				result = new BLogger(name, solution, handler, this);
+    				addLogger(result);
+    				result = getLogger(name);
+    			}
+    		}
+    	}
+    	
+    	return result;
+    }
+    
+    /**
+     * The loggers with different names are created in parallel, the ones with the same 
+     * name one by one.
+     * @param name
+     * @return the lock guarding the creation of the logger
+     */
+    private Object getCreationLock(String name) {
+    	Object lock = creationLocks.get(name);
+    	if (lock == null) {
+    		Object newLock = new Object();
+    		lock = creationLocks.putIfAbsent(name, newLock);
+    		if (lock == null) {
+    			lock = newLock;
+    		}
+    	}
+    	return lock;
+    }
+    
+    /**
+     * Create the loggers of the solutions listed by the {@code manager.warmup} property in 
+     * parallel, so the first requests don't wait for the handlers to open their files. 
+     * See {@code warmUp(Collection)}.
+     * @return the readiness future
+     */
+    public CompletableFuture<Void> warmUp() {
+    	List<String> solutions = new ArrayList<String>();
+    	for (String name : getProperty(WARMUP_PROP, "").split(",")) {
+    		if (!name.trim().isEmpty()) {
+    			solutions.add(name.trim());
+    		}
+    	}
+    	return warmUp(solutions);
+    }
+    
+    /**
+     * Create the loggers of the given business solutions in parallel, every logger by its own 
+     * thread. The solutions may be the names of the {@code BSolution} constants or the ones
+     * defined at runtime (see {@link BLogRegistry}). Only the first call starts the warm-up.
+     * <p>
+     * The manager keeps strong references to these loggers till they're closed, so a warmed-up
+     * logger isn't collected after it hibernates (see {@code addLogger()}) and its journal and spill
+     * are closed by the shutdown.
+     * @param solutions
+     * @return the future that is completed when all the loggers are ready (see {@code isReady()}), 
+     *         or completed exceptionally if some of them haven't got their handlers
+     */
+    public CompletableFuture<Void> warmUp(Collection<String> solutions) {
+    	synchronized (readiness) {
+    		if (warmUpStarted) {
+    			return readiness;
+    		}
+    		warmUpStarted = true;
+    	}
+    	if (solutions.isEmpty()) {
+    		readiness.complete(null);
+    		return readiness;
+    	}
+    	final long start = System.currentTimeMillis();
+    	final AtomicInteger remaining = new AtomicInteger(solutions.size());
+    	final ConcurrentLinkedQueue<String> failed = new ConcurrentLinkedQueue<String>();
+    	for (final String solution : solutions) {
+    		Thread thread = new Thread("BLogManager-warmup-" + solution) {
+    			@Override
+    			public void run() {
+    				try {
+    					BLogRegistry registry = BLogRegistry.getRegistry();
+    					int id = registry.getSolutionId(solution);
+    					BLogger logger = demandLogger(registry.getSolutionName(id), id);
+    					if (logger != null) {
+    						warmLoggers.put(logger.getLoggerName(), logger);
+    					}
+    					if (logger == null || logger.getHandlers().length == 0) {
+    						failed.add(solution);
+    					}
+    				} catch (RuntimeException e) {
+    					System.err.println("Error on warming up the logger " + solution + ": " + e.getMessage());
+    					failed.add(solution);
+    				} finally {
+    					if (remaining.decrementAndGet() == 0) {
+    						completeWarmUp(start, failed);
+    					}
+    				}
+    			}
+    		};
+    		thread.setDaemon(true);
+    		thread.start();
+    	}
+    	return readiness;
+    }
+    
+    private void completeWarmUp(long start, Collection<String> failed) {
+    	System.err.println("BLogManager has warmed up the loggers in " + (System.currentTimeMillis() - start) 
+    			+ " ms" + (failed.isEmpty() ? "" : ", failed: " + failed));
+    	if (failed.isEmpty()) {
+    		readiness.complete(null);
+    	} else {
+    		readiness.completeExceptionally(new IOException("the loggers haven't been created: " + failed));
+    	}
+    }
+    
+    /**
+     * @return true if the warm-up has been completed (see {@code warmUp()}), or there 
+     *         has been no warm-up
+     */
+    public boolean isReady() {
+    	synchronized (readiness) {
+    		return !warmUpStarted || readiness.isDone();
+    	}
+    }
+    
+    /**
+     * @return the future that is completed when the warm-up is done (see {@code warmUp()})
+     */
+    public CompletableFuture<Void> getReadiness() {
+    	return readiness;
+    }
+    
+    /**
+     * Method to find a named logger.
+     * @param name name of the logger 
+     * @return  matching logger or null if none is found
+     */
+    public BLogger getLogger(String name) {
+    	WeakReference<BLogger> ref = loggers.get(name);
+    	if (ref == null) {
+    		return null;
+        }
+    	BLogger logger = ref.get();
+    	if (logger == null) {
+            // Map holds stale weak reference 
+            // to a logger which has been GC-ed.
+            loggers.remove(name);
+        }
+    	
+    	return logger;
+    }
+    
+    /**
+     * Reinitialize the logging properties and reread the logging configuration
+     * from the CONFIG_FILE
+     * @throws IOException
+     */
+    public void readConfiguration() throws IOException {
+    	File f = getConfigFile();
+    	String cfgPath = f.getCanonicalPath();
+		if (f.exists()) {
+			InputStream in = new FileInputStream(cfgPath);
+			BufferedInputStream bin = new BufferedInputStream(in);
+			try {
+				// Load the properties
+				props.load(bin);
+			} finally {
+				if (bin != null) {
+					bin.close();
+				}
+			}
+		}
+    }
+    
+    /**
+     * Subscribe to the records drained by all the loggers (a live tail). A null
+     * field of the filter matches any value. The subscription must be closed when 
+     * it isn't needed any more.
+     * @param solution business solution or null for any
+     * @param user user or null for any
+     * @param operation business operation or null for any
+     * @param type message type or null for any
+     * @param capacity max amount of the buffered records, the new records are dropped when it's full
+     * @return the subscription
+     */
+    public BLogSubscription subscribe(BSolution solution, String user, BOperation operation, MessageType type, int capacity) {
+    	return subscriptions.subscribe(solution, user, operation, type, capacity, false);
+    }
+    
+    /**
+     * Subscribe to the records drained by all the loggers (a live tail). 
+     * @param solution business solution or null for any
+     * @param user user or null for any
+     * @param operation business operation or null for any
+     * @param type message type or null for any
+     * @param capacity max amount of the buffered records
+     * @param keepLatest drop the oldest buffered record instead of the new one when the buffer is full
+     * @return the subscription
+     */
+    public BLogSubscription subscribe(BSolution solution, String user, BOperation operation, MessageType type, 
+    		int capacity, boolean keepLatest) {
+    	return subscriptions.subscribe(solution, user, operation, type, capacity, keepLatest);
+    }
+    
+    private File getConfigFile() {
+    	String cfgPath = System.getProperty(BLOGS_DIR_PROP, getDefaultBaseDir());
+    	return new File(cfgPath + File.separatorChar  + "cfg.properties");
+    }
+    
+    protected String getDefaultBaseDir() {
+    	return DEFAULT_BLOGS_DIR.replaceFirst("<SID>", System.getProperty("SAPSYSTEMNAME", ""));
+    }
+    
+    /**
+     * Get the value of a logging property.
+     * The method returns defaultValue if the property is not found.
+     * @param name	property name
+     * @param defaultValue	default value
+     * @return property value
+     */
+    public String getProperty(String name, String defaultValue) {
+    	return props.getProperty(name, defaultValue);
+    }
+    
+    /**
+     * Get the value of a logging property.
+     * The method returns defaultValue if the property is not found.
+     * @param name	property name
+     * @param defaultValue	default value
+     * @return property	value
+     */
+    public int getProperty(String name, int defaultValue) {
+    	int result = defaultValue;
+    	String sResult = props.getProperty(name);
+    	if (sResult != null) {
+    		result = Integer.valueOf(sResult);
+    	} 
+    	
+    	return result;
+    }
+    
+    /**
+     * Get the value of a logging property.
+     * The method returns defaultValue if the property is not found.
+     * @param name	property name
+     * @param defaultValue	default value
+     * @return property	value
+     */
+    public boolean getProperty(String name, boolean defaultValue) {
+    	boolean result = defaultValue;
+    	String sResult = props.getProperty(name);
+    	if (sResult != null) {
+    		result = Boolean.valueOf(sResult.trim());
+    	}
+    	
+    	return result;
+    }
+}
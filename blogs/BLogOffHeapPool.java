@@ -0,0 +1,585 @@
+package blogs;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <tt>BLogOffHeapPool</tt> is an alternative records pool of a <tt>BLogger</tt> that keeps the
+ * records encoded in direct memory instead of the heap, so the pooled records and their strings
+ * don't have to be traced and copied by the garbage collector between the flushes.
+ * <p>
+ * The pool consists of two arenas of the same size. The business threads encode the records
+ * straight into the active arena: a thread measures the record, reserves the room by one atomic
+ * add and writes the fields there without locks and without intermediate buffers. The flushing
+ * thread swaps the arenas, waits for the threads which are still writing into the old one and
+ * decodes its records in the order of the reservations, so a drained record is a new object
+ * created by the flushing thread. A record which doesn't fit into the active arena isn't added,
+ * it's handled by the overflow policy of the logger.
+ * <p>
+ * The encoding is valid within the process only: the solution, the user, the operation and the
+ * field keys are written as their ids (see {@link BLogRegistry}), the strings as their chars.
+ * The thrown and the parameters which aren't strings aren't encoded, the arena keeps the
+ * references to them till the drain. The source class and method are kept if they have been set
+ * explicitly, otherwise they're inferred when they're asked for, as for the records on the heap.
+ * <p>
+ * An arena is a sequence of {@code [length][records bytes]}, the length {@code -1} marks the end
+ * of the records if the arena has been filled up. An entry holds one record, or all the records
+ * of a scope (see {@link BLogScope}).
+ * <p>
+ * The direct memory of an arena is allocated by its first record and released by
+ * {@code release()} when the logger hibernates or closes (the memory itself is returned when
+ * the buffer is collected). The arenas of all the loggers are counted against the budget of
+ * <tt>BLogManager</tt> (manager.offheap.bytes), a record isn't added if its arena can't be
+ * allocated within the budget.
+ */
+public class BLogOffHeapPool {
+	public static final int DEFAULT_ARENA_SIZE = 8 * 1024 * 1024; // 8 Mb
+	private static final int END = -1;
+	private static final int NULL = -1;
+	// the flags of an encoded record
+	private static final byte CALLER = 1; // the source class and method are written
+	private static final byte HEAP_PARAMETERS = 2; // the parameters are kept on the heap
+	private static final byte THROWN = 4; // the thrown is kept on the heap
+	private static final MessageType TYPES[] = MessageType.values();
+
+	/**
+	 * Direct memory with its counters
+	 */
+	private static final class Arena {
+		// allocated by the first record, null while the arena is released
+		volatile ByteBuffer buffer;
+		// reserved bytes, it never exceeds the capacity
+		final AtomicInteger reserved = new AtomicInteger();
+		// threads which are writing into the arena
+		final AtomicInteger writers = new AtomicInteger();
+		final AtomicInteger records = new AtomicInteger();
+		// the parameters and the thrown which aren't encoded, by the position of their record
+		final ConcurrentMap<Integer, Object[]> refs = new ConcurrentHashMap<Integer, Object[]>();
+	}
+
+	private final int arenaSize;
+	// the budget of the arenas, may be null
+	private final BLogManager manager;
+	private volatile Arena active = new Arena();
+	private Arena spare = new Arena();
+	// statistics
+	private final AtomicLong added = new AtomicLong();
+	private final AtomicLong overflowed = new AtomicLong();
+	private volatile int highWaterMark;
+
+	/**
+	 * Create the pool without a budget
+	 * @param arenaSize size of one of the two arenas in bytes
+	 */
+	public BLogOffHeapPool(int arenaSize) {
+		this(arenaSize, null);
+	}
+
+	/**
+	 * @param arenaSize size of one of the two arenas in bytes
+	 * @param manager the manager the arenas are counted by or null if there is no budget
+	 */
+	public BLogOffHeapPool(int arenaSize, BLogManager manager) {
+		if (arenaSize < 1024) {
+			throw new IllegalArgumentException();
+		}
+		this.arenaSize = arenaSize;
+		this.manager = manager;
+	}
+
+	/**
+	 * Encode the record into the active arena
+	 * @param record
+	 * @return false if there is no room for the record
+	 */
+	public boolean add(BLogRecord record) {
+		int len = sizeOf(record);
+		Arena arena = enter();
+		try {
+			int pos = reserve(arena, len, 1);
+			if (pos < 0) {
+				return false;
+			}
+			encode(record, arena, pos + 4);
+			commit(arena, pos, len, 1);
+			return true;
+		} finally {
+			arena.writers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Encode the records into the active arena one after another, they're reserved
+	 * at once and drained together
+	 * @param records
+	 * @return false if there is no room for all the records, none of them is added then
+	 */
+	public boolean addAll(BLogRecord records[]) {
+		int len = 0;
+		for (BLogRecord record : records) {
+			len += sizeOf(record);
+		}
+		Arena arena = enter();
+		try {
+			int pos = reserve(arena, len, records.length);
+			if (pos < 0) {
+				return false;
+			}
+			int next = pos + 4;
+			for (BLogRecord record : records) {
+				next = encode(record, arena, next);
+			}
+			commit(arena, pos, len, records.length);
+			return true;
+		} finally {
+			arena.writers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Register the thread as a writer of the active arena
+	 * @return the arena
+	 */
+	private Arena enter() {
+		while (true) {
+			Arena arena = active;
+			arena.writers.incrementAndGet();
+			// the arena may have been swapped before we registered
+			if (arena == active) {
+				return arena;
+			}
+			arena.writers.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Reserve the room of the entry
+	 * @param arena
+	 * @param len length of the encoded records
+	 * @param count amount of the records
+	 * @return the position of the entry or -1 if there is no room
+	 */
+	private int reserve(Arena arena, int len, int count) {
+		if (arena.buffer == null && !allocate(arena)) {
+			overflowed.addAndGet(count);
+			if (manager != null) {
+				manager.countOffHeapOverflow(count);
+			}
+			return -1;
+		}
+		long total = 4L + len;
+		for (;;) {
+			int pos = arena.reserved.get();
+			if (pos + total <= arenaSize) {
+				if (arena.reserved.compareAndSet(pos, (int) (pos + total))) {
+					return pos;
+				}
+				continue;
+			}
+			// the first reservation which doesn't fit owns the rest of the arena
+			if (pos < arenaSize) {
+				if (!arena.reserved.compareAndSet(pos, arenaSize)) {
+					continue;
+				}
+				if (pos + 4 <= arenaSize) {
+					arena.buffer.putInt(pos, END);
+				}
+			}
+			overflowed.addAndGet(count);
+			if (manager != null) {
+				manager.countOffHeapOverflow(count);
+			}
+			return -1;
+		}
+	}
+
+	private void commit(Arena arena, int pos, int len, int count) {
+		arena.buffer.putInt(pos, len);
+		arena.records.addAndGet(count);
+		added.addAndGet(count);
+		if (manager != null) {
+			manager.countOffHeapAdded(count);
+		}
+	}
+
+	/**
+	 * Allocate the direct memory of the arena within the budget
+	 * @param arena
+	 * @return false if the budget is exceeded
+	 */
+	private boolean allocate(Arena arena) {
+		synchronized (arena) {
+			if (arena.buffer == null) {
+				if (manager != null && !manager.reserveOffHeapBytes(arenaSize)) {
+					return false;
+				}
+				arena.buffer = ByteBuffer.allocateDirect(arenaSize);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Drop the direct memory of the arena which isn't written any more
+	 * @param arena
+	 */
+	private void free(Arena arena) {
+		synchronized (arena) {
+			if (arena.buffer != null) {
+				arena.buffer = null;
+				if (manager != null) {
+					manager.releaseOffHeapBytes(arenaSize);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get and remove the pooled records. It's invoked by the flushing thread only.
+	 * @return the records in the order they have been added
+	 */
+	public synchronized List<BLogRecord> drain() {
+		return drain(false);
+	}
+
+	/**
+	 * Get and remove the pooled records and release the direct memory of the pool.
+	 * The next record allocates the arena again. It's invoked by the flushing thread only.
+	 * @return the records in the order they have been added
+	 */
+	public synchronized List<BLogRecord> release() {
+		return drain(true);
+	}
+
+	private List<BLogRecord> drain(boolean release) {
+		Arena arena = active;
+		if (arena.reserved.get() == 0 && !release) {
+			return new ArrayList<BLogRecord>(0);
+		}
+		if (release) {
+			free(spare);
+		}
+		active = spare;
+		// wait for the threads which are still writing into the old arena
+		while (arena.writers.get() > 0) {
+			Thread.yield();
+		}
+		int end = arena.reserved.get();
+		highWaterMark = Math.max(highWaterMark, end);
+		List<BLogRecord> records = new ArrayList<BLogRecord>(arena.records.get());
+		if (end > 0) {
+			ByteBuffer source = arena.buffer.duplicate();
+			int pos = 0;
+			while (pos + 4 <= end) {
+				int len = source.getInt(pos);
+				if (len == END) {
+					break;
+				}
+				source.limit(pos + 4 + len);
+				source.position(pos + 4);
+				try {
+					// an entry holds several records if they have been added at once
+					while (source.hasRemaining()) {
+						records.add(decode(source, arena));
+					}
+				} catch (RuntimeException e) {
+					System.err.println("Error on decoding a pooled record at " + pos + ": " + e);
+				}
+				source.limit(source.capacity());
+				pos += 4 + len;
+			}
+		}
+		arena.reserved.set(0);
+		arena.records.set(0);
+		arena.refs.clear();
+		if (release) {
+			free(arena);
+		}
+		spare = arena;
+		return records;
+	}
+
+	/**
+	 * @param parameters
+	 * @return true if the parameters are strings or nulls
+	 */
+	private static boolean isEncodable(Object parameters[]) {
+		for (Object parameter : parameters) {
+			if (parameter != null && !(parameter instanceof String)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param record
+	 * @return length of the encoded record
+	 */
+	private static int sizeOf(BLogRecord record) {
+		// the times, the repeat count, the ids, the message type and the flags
+		int size = 8 + 8 + 4 + 4 + 4 + 4 + 1 + 1;
+		size += sizeOf(record.getLoggerName());
+		size += sizeOf(record.getUserId() == BLogRegistry.NONE ? record.getUser() : null);
+		size += sizeOf(record.getMessage());
+		if (record.isCallerKnown()) {
+			size += sizeOf(record.getSourceClassName()) + sizeOf(record.getSourceMethodName());
+		}
+		size += 4;
+		Object parameters[] = record.getParameters();
+		if (parameters != null && isEncodable(parameters)) {
+			for (Object parameter : parameters) {
+				size += sizeOf((String) parameter);
+			}
+		}
+		size += 4;
+		for (int i = 0; i < record.getFieldCount(); i++) {
+			size += 4 + sizeOf(record.getFieldValue(i));
+			if (record.getFieldKeyId(i) == BLogRegistry.NONE) {
+				size += sizeOf(record.getFieldKey(i));
+			}
+		}
+		return size;
+	}
+
+	private static int sizeOf(String s) {
+		return s == null ? 4 : 4 + 2 * s.length();
+	}
+
+	/**
+	 * Write the record into the reserved room of the arena
+	 * @param record
+	 * @param arena
+	 * @param pos
+	 * @return the position after the record
+	 */
+	private static int encode(BLogRecord record, Arena arena, int pos) {
+		ByteBuffer buffer = arena.buffer;
+		int start = pos;
+		buffer.putLong(pos, record.getMillis());
+		buffer.putLong(pos + 8, record.getLastMillis());
+		buffer.putInt(pos + 16, record.getRepeatCount());
+		buffer.putInt(pos + 20, record.getSolutionId());
+		buffer.putInt(pos + 24, record.getUserId());
+		buffer.putInt(pos + 28, record.getOperationId());
+		pos += 32;
+		MessageType type = record.getMessageType();
+		buffer.put(pos++, (byte) (type == null ? NULL : type.ordinal()));
+		Object parameters[] = record.getParameters();
+		Throwable thrown = record.getThrown();
+		boolean heapParameters = parameters != null && !isEncodable(parameters);
+		boolean caller = record.isCallerKnown();
+		byte flags = 0;
+		if (caller) {
+			flags |= CALLER;
+		}
+		if (heapParameters) {
+			flags |= HEAP_PARAMETERS;
+		}
+		if (thrown != null) {
+			flags |= THROWN;
+		}
+		buffer.put(pos++, flags);
+		if (heapParameters || thrown != null) {
+			arena.refs.put(start, new Object[] { heapParameters ? parameters : null, thrown });
+		}
+		pos = putString(buffer, pos, record.getLoggerName());
+		pos = putString(buffer, pos, record.getUserId() == BLogRegistry.NONE ? record.getUser() : null);
+		pos = putString(buffer, pos, record.getMessage());
+		if (caller) {
+			pos = putString(buffer, pos, record.getSourceClassName());
+			pos = putString(buffer, pos, record.getSourceMethodName());
+		}
+		if (parameters == null || heapParameters) {
+			buffer.putInt(pos, NULL);
+			pos += 4;
+		} else {
+			buffer.putInt(pos, parameters.length);
+			pos += 4;
+			for (Object parameter : parameters) {
+				pos = putString(buffer, pos, (String) parameter);
+			}
+		}
+		int count = record.getFieldCount();
+		buffer.putInt(pos, count);
+		pos += 4;
+		for (int i = 0; i < count; i++) {
+			int keyId = record.getFieldKeyId(i);
+			buffer.putInt(pos, keyId);
+			pos += 4;
+			if (keyId == BLogRegistry.NONE) {
+				pos = putString(buffer, pos, record.getFieldKey(i));
+			}
+			pos = putString(buffer, pos, record.getFieldValue(i));
+		}
+		return pos;
+	}
+
+	private static int putString(ByteBuffer buffer, int pos, String s) {
+		if (s == null) {
+			buffer.putInt(pos, NULL);
+			return pos + 4;
+		}
+		int len = s.length();
+		buffer.putInt(pos, len);
+		pos += 4;
+		for (int i = 0; i < len; i++) {
+			buffer.putChar(pos, s.charAt(i));
+			pos += 2;
+		}
+		return pos;
+	}
+
+	/**
+	 * Read the record at the position of the source
+	 * @param source
+	 * @param arena
+	 * @return the record
+	 */
+	private static BLogRecord decode(ByteBuffer source, Arena arena) {
+		int start = source.position();
+		long millis = source.getLong();
+		long lastMillis = source.getLong();
+		int repeatCount = source.getInt();
+		int solutionId = source.getInt();
+		int userId = source.getInt();
+		int operationId = source.getInt();
+		byte type = source.get();
+		byte flags = source.get();
+		String loggerName = getString(source);
+		String user = getString(source);
+		BLogRecord record = new BLogRecord(getString(source));
+		record.setMillis(millis);
+		record.setLastMillis(lastMillis);
+		record.setRepeatCount(repeatCount);
+		record.setSolutionId(solutionId);
+		if (userId != BLogRegistry.NONE) {
+			record.setUserId(userId);
+		} else if (user != null) {
+			record.setForeignUser(user);
+		}
+		record.setOperationId(operationId);
+		record.setMessageType(type == NULL ? null : TYPES[type]);
+		record.setLoggerName(loggerName);
+		if ((flags & CALLER) != 0) {
+			record.setSourceClassName(getString(source));
+			record.setSourceMethodName(getString(source));
+		}
+		int count = source.getInt();
+		if (count >= 0) {
+			Object parameters[] = new Object[count];
+			for (int i = 0; i < count; i++) {
+				parameters[i] = getString(source);
+			}
+			record.setParameters(parameters);
+		}
+		if ((flags & (HEAP_PARAMETERS | THROWN)) != 0) {
+			Object refs[] = arena.refs.remove(start);
+			if (refs != null) {
+				if ((flags & HEAP_PARAMETERS) != 0) {
+					record.setParameters((Object[]) refs[0]);
+				}
+				record.setThrown((Throwable) refs[1]);
+			}
+		}
+		count = source.getInt();
+		if (count > 0) {
+			int keys[] = new int[count];
+			String values[] = new String[count];
+			String names[] = null;
+			for (int i = 0; i < count; i++) {
+				keys[i] = source.getInt();
+				if (keys[i] == BLogRegistry.NONE) {
+					if (names == null) {
+						names = new String[count];
+					}
+					names[i] = getString(source);
+				}
+				values[i] = getString(source);
+			}
+			if (names == null) {
+				record.setFields(keys, values, count);
+			} else {
+				// the keys without an id are kept by their names
+				BLogRegistry registry = BLogRegistry.getRegistry();
+				for (int i = 0; i < count; i++) {
+					record.setForeignField(names[i] != null ? names[i] : registry.getFieldKey(keys[i]), values[i]);
+				}
+			}
+		}
+		return record;
+	}
+
+	private static String getString(ByteBuffer source) {
+		int len = source.getInt();
+		if (len < 0) {
+			return null;
+		}
+		char chars[] = new char[len];
+		for (int i = 0; i < len; i++) {
+			chars[i] = source.getChar();
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * @return approximate amount of the pooled records
+	 */
+	public int size() {
+		return active.records.get();
+	}
+
+	/**
+	 * @return bytes used in the active arena
+	 */
+	public int getUsedBytes() {
+		return active.reserved.get();
+	}
+
+	/**
+	 * @return size of one arena in bytes, the pool takes two of them
+	 */
+	public int getArenaSize() {
+		return arenaSize;
+	}
+
+	/**
+	 * @return bytes of the direct memory allocated by the pool now
+	 */
+	public synchronized int getAllocatedBytes() {
+		int result = 0;
+		if (active.buffer != null) {
+			result += arenaSize;
+		}
+		if (spare.buffer != null) {
+			result += arenaSize;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the max amount of bytes drained at once
+	 */
+	public int getHighWaterMark() {
+		return highWaterMark;
+	}
+
+	/**
+	 * @return amount of the records which have been added since the start
+	 */
+	public long getAddedCount() {
+		return added.get();
+	}
+
+	/**
+	 * @return amount of the records which haven't fit into the arena or its budget
+	 */
+	public long getOverflowCount() {
+		return overflowed.get();
+	}
+}
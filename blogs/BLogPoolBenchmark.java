@@ -0,0 +1,108 @@
+package blogs;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <tt>BLogPoolBenchmark</tt> measures the throughput of {@code BLogger.log()} on the
+ * {@code BSolution.ALL} logger for the different kinds of the records pool and an
+ * increasing number of business threads.
+ * <p>
+ * The records are published to a handler that only counts them, so the result shows
+ * the cost of putting the records into the pool and draining it.
+ * <p>
+ * Usage: <tt>java blogs.BLogPoolBenchmark [maxThreads] [seconds] [stripes]</tt>
+ */
+public class BLogPoolBenchmark {
+	private static final String POOLS[] = {"shared", "staging", "striped"};
+
+	// a handler that only counts the published records
+	private static final class CountingHandler extends BHandler {
+		final AtomicLong published = new AtomicLong();
+
+		@Override
+		public void publish(BLogRecord record) {
+			published.incrementAndGet();
+		}
+
+		@Override
+		public void flush() {
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int stripes = args.length > 2 ? Integer.parseInt(args[2]) : maxThreads;
+
+		System.out.println("pool;threads;log() per second;per thread");
+		for (String pool : POOLS) {
+			for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+				configure(pool, stripes);
+				long ops = run(threads, seconds);
+				long perSecond = ops / seconds;
+				System.out.println(pool + ";" + threads + ";" + perSecond + ";" + (perSecond / threads));
+			}
+		}
+	}
+
+	private static void configure(String pool, int stripes) {
+		BLogManager manager = BLogManager.getLogManager();
+		manager.props.setProperty(BLogManager.STAGING_PROP, String.valueOf("staging".equals(pool)));
+		manager.props.setProperty(BLogManager.STRIPES_PROP, "striped".equals(pool) ? String.valueOf(stripes) : "1");
+		manager.props.setProperty(BLogManager.FLUSHPERIOD_PROP, "100");
+		manager.props.setProperty(BLogManager.MAX_POOL_SIZE_PROP, "1000000");
+	}
+
+	private static long run(int threads, int seconds) throws InterruptedException {
+		final CountingHandler handler = new CountingHandler();
+		final BLogger logger = BLogger.getLogger("bench", BSolution.ALL, handler);
+		final AtomicLong ops = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final long deadline[] = new long[1];
+		Thread workers[] = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final String user = "user" + i;
+			workers[i] = new Thread() {
+				@Override
+				public void run() {
+					logger.setLocalUser(user);
+					long count = 0;
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					while (System.nanoTime() < deadline[0]) {
+						for (int j = 0; j < 100; j++) {
+							logger.log("benchmark message", MessageType.INFO, BOperation.CREATE_REQUEST);
+						}
+						count += 100;
+					}
+					ops.addAndGet(count);
+				}
+			};
+			workers[i].start();
+		}
+		deadline[0] = System.nanoTime() + seconds * 1000000000L;
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		// let the flushing thread drain the pool before closing the logger
+		long drainDeadline = System.currentTimeMillis() + 10000;
+		while (handler.published.get() < ops.get() && System.currentTimeMillis() < drainDeadline) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(200);
+		logger.close();
+		if (handler.published.get() != ops.get()) {
+			System.err.println("Lost records: " + (ops.get() - handler.published.get()));
+		}
+		return ops.get();
+	}
+}
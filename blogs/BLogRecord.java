@@ -1,432 +1,836 @@
-package blogs;
-
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.MissingResourceException;
-import java.util.ResourceBundle;
-
-
-public class BLogRecord implements java.io.Serializable {
-
-	/**
-	 * Business solution
-	 */
-	private BSolution businessSolution;
-	/**
-	 * @serial Class that issued logging call
-	 */
-	private String sourceClassName;
-
-	/**
-	 * @serial Method that issued logging call
-	 */
-	private String sourceMethodName;
-
-	/**
-	 * @serial Non-localized raw message text
-	 */
-	private String message;
-
-	/**
-	 * @serial Event time in milliseconds since 1970
-	 */
-	private long millis;
-
-	/**
-	 * @serial The Throwable (if any) associated with log message
-	 */
-	private Throwable thrown;
-
-	/**
-	 * @serial Name of the source Logger.
-	 */
-	private String loggerName;
-
-	/**
-	 * @serial User name
-	 */
-	private String user;
-	
-	/**
-	 * @serial business operation
-	 */
-	private BOperation operation;
-	
-	/**
-	 * @serial message type
-	 */
-	private MessageType messageType;
-	/**
-	 * @serial Resource bundle name to localized log message.
-	 */
-	private String resourceBundleName;
-
-	private transient boolean needToInferCaller;
-	private transient Object parameters[];
-	private transient ResourceBundle resourceBundle;
-
-	/**
-	 * Construct a BLogRecord with the given message.
-	 * <p>
-	 * The sequence property will be initialized with a new unique value. These
-	 * sequence values are allocated in increasing order within a VM.
-	 * <p>
-	 * The millis property will be initialized to the current time.
-	 * <p>
-	 * The thread ID property will be initialized with a unique ID for the
-	 * current thread.
-	 * <p>
-	 * All other properties will be initialized to "null".
-	 * 
-	 * @param msg
-	 *            the raw non-localized logging message (may be null)
-	 */
-	public BLogRecord(String msg) {
-		message = msg;
-		millis = System.currentTimeMillis();
-		needToInferCaller = true;
-	}
-
-	public BSolution getBusinessSolution() {
-		return businessSolution;
-	}
-	
-	public void setBusinessSolution(BSolution bSolution) {
-		this.businessSolution = bSolution;
-	}
-	
-	public MessageType getMessageType() {
-		return messageType;
-	}
-
-	public void setMessageType(MessageType messageType) {
-		this.messageType = messageType;
-	}
-
-	/**
-	 * Get the source Logger name's
-	 * 
-	 * @return source logger name (may be null)
-	 */
-	public String getLoggerName() {
-		return loggerName;
-	}
-
-	/**
-	 * Set the source Logger name.
-	 * 
-	 * @param name
-	 *            the source logger name (may be null)
-	 */
-	public void setLoggerName(String name) {
-		loggerName = name;
-	}
-
-	/**
-	 * Get the localization resource bundle
-	 * <p>
-	 * This is the ResourceBundle that should be used to localize the message
-	 * string before formatting it. The result may be null if the message is not
-	 * localizable, or if no suitable ResourceBundle is available.
-	 */
-	public ResourceBundle getResourceBundle() {
-		return resourceBundle;
-	}
-
-	/**
-	 * Set the localization resource bundle.
-	 * 
-	 * @param bundle
-	 *            localization bundle (may be null)
-	 */
-	public void setResourceBundle(ResourceBundle bundle) {
-		resourceBundle = bundle;
-	}
-
-	/**
-	 * Get the localization resource bundle name
-	 * <p>
-	 * This is the name for the ResourceBundle that should be used to localize
-	 * the message string before formatting it. The result may be null if the
-	 * message is not localizable.
-	 */
-	public String getResourceBundleName() {
-		return resourceBundleName;
-	}
-
-	/**
-	 * Set the localization resource bundle name.
-	 * 
-	 * @param name
-	 *            localization bundle name (may be null)
-	 */
-	public void setResourceBundleName(String name) {
-		resourceBundleName = name;
-	}
-
-	public String getUser() {
-		return user;
-	}
-	
-	public void setUser(String user) {
-		this.user = user;
-	}
-	
-	public BOperation getOperation() {
-		return operation;
-	}
-
-	public void setOperation(BOperation operation) {
-		this.operation = operation;
-	}
-	/**
-	 * Get the name of the class that (allegedly) issued the logging request.
-	 * <p>
-	 * Note that this sourceClassName is not verified and may be spoofed. This
-	 * information may either have been provided as part of the logging call, or
-	 * it may have been inferred automatically by the logging framework. In the
-	 * latter case, the information may only be approximate and may in fact
-	 * describe an earlier call on the stack frame.
-	 * <p>
-	 * May be null if no information could be obtained.
-	 * 
-	 * @return the source class name
-	 */
-	public String getSourceClassName() {
-		if (needToInferCaller) {
-			inferCaller();
-		}
-		return sourceClassName;
-	}
-
-	/**
-	 * Set the name of the class that (allegedly) issued the logging request.
-	 * 
-	 * @param sourceClassName
-	 *            the source class name (may be null)
-	 */
-	public void setSourceClassName(String sourceClassName) {
-		this.sourceClassName = sourceClassName;
-		needToInferCaller = false;
-	}
-
-	/**
-	 * Get the name of the method that (allegedly) issued the logging request.
-	 * <p>
-	 * Note that this sourceMethodName is not verified and may be spoofed. This
-	 * information may either have been provided as part of the logging call, or
-	 * it may have been inferred automatically by the logging framework. In the
-	 * latter case, the information may only be approximate and may in fact
-	 * describe an earlier call on the stack frame.
-	 * <p>
-	 * May be null if no information could be obtained.
-	 * 
-	 * @return the source method name
-	 */
-	public String getSourceMethodName() {
-		if (needToInferCaller) {
-			inferCaller();
-		}
-		return sourceMethodName;
-	}
-
-	/**
-	 * Set the name of the method that (allegedly) issued the logging request.
-	 * 
-	 * @param sourceMethodName
-	 *            the source method name (may be null)
-	 */
-	public void setSourceMethodName(String sourceMethodName) {
-		this.sourceMethodName = sourceMethodName;
-		needToInferCaller = false;
-	}
-
-	/**
-	 * Get the "raw" log message, before localization or formatting.
-	 * <p>
-	 * May be null, which is equivalent to the empty string "".
-	 * <p>
-	 * This message may be either the final text or a localization key.
-	 * <p>
-	 * During formatting, if the source logger has a localization ResourceBundle
-	 * and if that ResourceBundle has an entry for this message string, then the
-	 * message string is replaced with the localized value.
-	 * 
-	 * @return the raw message string
-	 */
-	public String getMessage() {
-		return message;
-	}
-
-	/**
-	 * Set the "raw" log message, before localization or formatting.
-	 * 
-	 * @param message
-	 *            the raw message string (may be null)
-	 */
-	public void setMessage(String message) {
-		this.message = message;
-	}
-
-	/**
-	 * Get the parameters to the log message.
-	 * 
-	 * @return the log message parameters. May be null if there are no
-	 *         parameters.
-	 */
-	public Object[] getParameters() {
-		return parameters;
-	}
-
-	/**
-	 * Set the parameters to the log message.
-	 * 
-	 * @param parameters
-	 *            the log message parameters. (may be null)
-	 */
-	public void setParameters(Object parameters[]) {
-		this.parameters = parameters;
-	}
-
-
-	/**
-	 * Get event time in milliseconds since 1970.
-	 * 
-	 * @return event time in millis since 1970
-	 */
-	public long getMillis() {
-		return millis;
-	}
-
-	/**
-	 * Set event time.
-	 * 
-	 * @param millis
-	 *            event time in millis since 1970
-	 */
-	public void setMillis(long millis) {
-		this.millis = millis;
-	}
-
-	/**
-	 * Get any throwable associated with the log record.
-	 * <p>
-	 * If the event involved an exception, this will be the exception object.
-	 * Otherwise null.
-	 * 
-	 * @return a throwable
-	 */
-	public Throwable getThrown() {
-		return thrown;
-	}
-
-	/**
-	 * Set a throwable associated with the log event.
-	 * 
-	 * @param thrown
-	 *            a throwable (may be null)
-	 */
-	public void setThrown(Throwable thrown) {
-		this.thrown = thrown;
-	}
-
-	private static final long serialVersionUID = 5372048053134512534L;
-
-	/**
-	 * @serialData Default fields, followed by a two byte version number (major
-	 *             byte, followed by minor byte), followed by information on the
-	 *             log record parameter array. If there is no parameter array,
-	 *             then -1 is written. If there is a parameter array (possible
-	 *             of zero length) then the array length is written as an
-	 *             integer, followed by String values for each parameter. If a
-	 *             parameter is null, then a null String is written. Otherwise
-	 *             the output of Object.toString() is written.
-	 */
-	private void writeObject(ObjectOutputStream out) throws IOException {
-		// We have to call defaultWriteObject first.
-		out.defaultWriteObject();
-
-		// Write our version number.
-		out.writeByte(1);
-		out.writeByte(0);
-		if (parameters == null) {
-			out.writeInt(-1);
-			return;
-		}
-		out.writeInt(parameters.length);
-		// Write string values for the parameters.
-		for (int i = 0; i < parameters.length; i++) {
-			if (parameters[i] == null) {
-				out.writeObject(null);
-			} else {
-				out.writeObject(parameters[i].toString());
-			}
-		}
-	}
-
-	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
-		// We have to call defaultReadObject first.
-		in.defaultReadObject();
-
-		// Read version number.
-		byte major = in.readByte();
-		byte minor = in.readByte();
-		if (major != 1) {
-			throw new IOException("BLogRecord: bad version: " + major + "."
-					+ minor);
-		}
-		int len = in.readInt();
-		if (len == -1) {
-			parameters = null;
-		} else {
-			parameters = new Object[len];
-			for (int i = 0; i < parameters.length; i++) {
-				parameters[i] = in.readObject();
-			}
-		}
-		// If necessary, try to regenerate the resource bundle.
-		if (resourceBundleName != null) {
-			try {
-				resourceBundle = ResourceBundle.getBundle(resourceBundleName);
-			} catch (MissingResourceException ex) {
-				// This is not a good place to throw an exception,
-				// so we simply leave the resourceBundle null.
-				resourceBundle = null;
-			}
-		}
-
-		needToInferCaller = false;
-	}
-
-	// Private method to infer the caller's class and method names
-	private void inferCaller() {
-		needToInferCaller = false;
-		// Get the stack trace.
-		StackTraceElement stack[] = (new Throwable()).getStackTrace();
-		// First, search back to a method in the Logger class.
-		int ix = 0;
-		while (ix < stack.length) {
-			StackTraceElement frame = stack[ix];
-			String cname = frame.getClassName();
-			if (cname.equals("blogs.BLogger")) {
-				break;
-			}
-			ix++;
-		}
-		// Now search for the first frame before the "Logger" class.
-		while (ix < stack.length) {
-			StackTraceElement frame = stack[ix];
-			String cname = frame.getClassName();
-			if (!cname.equals("blogs.BLogger")) {
-				// We've found the relevant frame.
-				setSourceClassName(cname);
-				setSourceMethodName(frame.getMethodName());
-				return;
-			}
-			ix++;
-		}
-		// We haven't found a suitable frame, so just punt. This is
-		// OK as we are only committed to making a "best effort" here.
-	}
-}
+package blogs;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.util.Arrays;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+
+
+public class BLogRecord implements java.io.Serializable {
+
+	/**
+	 * Business solution id (see {@link BLogRegistry})
+	 */
+	private transient int solutionId = BLogRegistry.NONE;
+	/**
+	 * @serial Class that issued logging call
+	 */
+	private String sourceClassName;
+
+	/**
+	 * @serial Method that issued logging call
+	 */
+	private String sourceMethodName;
+
+	/**
+	 * @serial Non-localized raw message text
+	 */
+	private String message;
+
+	/**
+	 * @serial Event time in milliseconds since 1970
+	 */
+	private long millis;
+
+	/**
+	 * @serial The Throwable (if any) associated with log message
+	 */
+	private Throwable thrown;
+
+	/**
+	 * @serial Name of the source Logger.
+	 */
+	private String loggerName;
+
+	/**
+	 * User id (see {@link BLogRegistry})
+	 */
+	private transient int userId = BLogRegistry.NONE;
+	
+	/**
+	 * The user which has no id: it's over the limit of the registry or it has been received
+	 * from another process
+	 */
+	private transient String user;
+	
+	/**
+	 * Business operation id (see {@link BLogRegistry})
+	 */
+	private transient int operationId = BLogRegistry.NONE;
+	
+	/**
+	 * @serial message type
+	 */
+	private MessageType messageType;
+	/**
+	 * @serial how many identical records this record stands for
+	 */
+	private int repeatCount;
+	
+	/**
+	 * @serial Time of the last identical record in milliseconds since 1970
+	 */
+	private long lastMillis;
+	
+	/**
+	 * @serial Resource bundle name to localized log message.
+	 */
+	private String resourceBundleName;
+
+	private transient boolean needToInferCaller;
+	private transient Object parameters[];
+	private transient ResourceBundle resourceBundle;
+	// the context fields: the key ids (see BLogRegistry) and the values, the first fieldCount are used
+	private transient int fieldKeys[];
+	private transient String fieldValues[];
+	// the keys which have no id, it's created by the first of them
+	private transient String fieldNames[];
+	private transient int fieldCount;
+	// the bytes reserved by the pool of the logger (see BLogger)
+	transient int pooledBytes;
+
+	/**
+	 * Construct a BLogRecord with the given message.
+	 * <p>
+	 * The sequence property will be initialized with a new unique value. These
+	 * sequence values are allocated in increasing order within a VM.
+	 * <p>
+	 * The millis property will be initialized to the current time.
+	 * <p>
+	 * The thread ID property will be initialized with a unique ID for the
+	 * current thread.
+	 * <p>
+	 * All other properties will be initialized to "null".
+	 * 
+	 * @param msg
+	 *            the raw non-localized logging message (may be null)
+	 */
+	public BLogRecord(String msg) {
+		message = msg;
+		millis = System.currentTimeMillis();
+		lastMillis = millis;
+		repeatCount = 1;
+		needToInferCaller = true;
+	}
+
+	/**
+	 * @return the business solution or null if it's absent or has been defined at runtime 
+	 * (see {@link BLogRegistry})
+	 */
+	public BSolution getBusinessSolution() {
+		return BLogRegistry.getRegistry().getSolution(solutionId);
+	}
+	
+	public void setBusinessSolution(BSolution bSolution) {
+		this.solutionId = bSolution == null ? BLogRegistry.NONE : bSolution.ordinal();
+	}
+	
+	/**
+	 * @return the id of the business solution or {@code BLogRegistry.NONE}
+	 */
+	public int getSolutionId() {
+		return solutionId;
+	}
+	
+	public void setSolutionId(int solutionId) {
+		this.solutionId = solutionId;
+	}
+	
+	/**
+	 * @return the name of the business solution (may be null)
+	 */
+	public String getSolutionName() {
+		return BLogRegistry.getRegistry().getSolutionName(solutionId);
+	}
+	
+	public MessageType getMessageType() {
+		return messageType;
+	}
+
+	public void setMessageType(MessageType messageType) {
+		this.messageType = messageType;
+	}
+
+	/**
+	 * Get the source Logger name's
+	 * 
+	 * @return source logger name (may be null)
+	 */
+	public String getLoggerName() {
+		return loggerName;
+	}
+
+	/**
+	 * Set the source Logger name.
+	 * 
+	 * @param name
+	 *            the source logger name (may be null)
+	 */
+	public void setLoggerName(String name) {
+		loggerName = name;
+	}
+
+	/**
+	 * Get the localization resource bundle
+	 * <p>
+	 * This is the ResourceBundle that should be used to localize the message
+	 * string before formatting it. The result may be null if the message is not
+	 * localizable, or if no suitable ResourceBundle is available.
+	 */
+	public ResourceBundle getResourceBundle() {
+		return resourceBundle;
+	}
+
+	/**
+	 * Set the localization resource bundle.
+	 * 
+	 * @param bundle
+	 *            localization bundle (may be null)
+	 */
+	public void setResourceBundle(ResourceBundle bundle) {
+		resourceBundle = bundle;
+	}
+
+	/**
+	 * Get the localization resource bundle name
+	 * <p>
+	 * This is the name for the ResourceBundle that should be used to localize
+	 * the message string before formatting it. The result may be null if the
+	 * message is not localizable.
+	 */
+	public String getResourceBundleName() {
+		return resourceBundleName;
+	}
+
+	/**
+	 * Set the localization resource bundle name.
+	 * 
+	 * @param name
+	 *            localization bundle name (may be null)
+	 */
+	public void setResourceBundleName(String name) {
+		resourceBundleName = name;
+	}
+
+	public String getUser() {
+		return user != null ? user : BLogRegistry.getRegistry().getUser(userId);
+	}
+	
+	public void setUser(String user) {
+		this.userId = BLogRegistry.getRegistry().getUserId(user);
+		this.user = userId == BLogRegistry.NONE ? user : null;
+	}
+	
+	/**
+	 * Set the user received from another process without registering it
+	 * @param user
+	 */
+	void setForeignUser(String user) {
+		this.userId = BLogRegistry.getRegistry().findUserId(user);
+		this.user = userId == BLogRegistry.NONE ? user : null;
+	}
+	
+	/**
+	 * @return the id of the user or {@code BLogRegistry.NONE} if there is no user
+	 *         or it has no id (see {@code getUser()})
+	 */
+	public int getUserId() {
+		return userId;
+	}
+	
+	public void setUserId(int userId) {
+		this.userId = userId;
+		this.user = null;
+	}
+	
+	/**
+	 * Set the value of a context field, the null value removes the field
+	 * @param key
+	 * @param value
+	 */
+	public void setField(String key, String value) {
+		setField(key, value, true);
+	}
+
+	/**
+	 * Set the value of a context field received from another process without registering its key
+	 * @param key
+	 * @param value
+	 */
+	void setForeignField(String key, String value) {
+		setField(key, value, false);
+	}
+
+	private void setField(String key, String value, boolean register) {
+		if (key == null) {
+			return;
+		}
+		int i = indexOfField(key);
+		if (value == null) {
+			if (i >= 0) {
+				fieldCount--;
+				System.arraycopy(fieldKeys, i + 1, fieldKeys, i, fieldCount - i);
+				System.arraycopy(fieldValues, i + 1, fieldValues, i, fieldCount - i);
+				fieldValues[fieldCount] = null;
+				if (fieldNames != null) {
+					System.arraycopy(fieldNames, i + 1, fieldNames, i, fieldCount - i);
+					fieldNames[fieldCount] = null;
+				}
+			}
+			return;
+		}
+		if (i >= 0) {
+			fieldValues[i] = value;
+			return;
+		}
+		BLogRegistry registry = BLogRegistry.getRegistry();
+		int keyId = register ? registry.getFieldKeyId(key) : registry.findFieldKeyId(key);
+		if (fieldKeys == null) {
+			fieldKeys = new int[4];
+			fieldValues = new String[4];
+		} else if (fieldCount == fieldKeys.length) {
+			fieldKeys = Arrays.copyOf(fieldKeys, fieldCount * 2);
+			fieldValues = Arrays.copyOf(fieldValues, fieldCount * 2);
+			if (fieldNames != null) {
+				fieldNames = Arrays.copyOf(fieldNames, fieldCount * 2);
+			}
+		}
+		if (keyId == BLogRegistry.NONE) {
+			if (fieldNames == null) {
+				fieldNames = new String[fieldKeys.length];
+			}
+			fieldNames[fieldCount] = key;
+		}
+		fieldKeys[fieldCount] = keyId;
+		fieldValues[fieldCount] = value;
+		fieldCount++;
+	}
+
+	/**
+	 * Replace the context fields by the given ones, the arrays are kept by the record
+	 * @param keys the key ids (see {@link BLogRegistry})
+	 * @param values
+	 * @param count amount of the fields
+	 */
+	void setFields(int keys[], String values[], int count) {
+		this.fieldKeys = keys;
+		this.fieldValues = values;
+		this.fieldNames = null;
+		this.fieldCount = count;
+	}
+
+	/**
+	 * @param key
+	 * @return the value of the context field or null
+	 */
+	public String getField(String key) {
+		int i = indexOfField(key);
+		return i < 0 ? null : fieldValues[i];
+	}
+
+	private int indexOfField(String key) {
+		int i = indexOfField(BLogRegistry.getRegistry().findFieldKeyId(key));
+		if (i < 0 && fieldNames != null && key != null) {
+			for (int j = 0; j < fieldCount; j++) {
+				if (key.equals(fieldNames[j])) {
+					return j;
+				}
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * @param keyId the id of the key (see {@link BLogRegistry})
+	 * @return the index of the field or -1
+	 */
+	public int indexOfField(int keyId) {
+		if (keyId == BLogRegistry.NONE) {
+			return -1;
+		}
+		for (int i = 0; i < fieldCount; i++) {
+			if (fieldKeys[i] == keyId) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return amount of the context fields
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * @param index 0..{@code getFieldCount()}-1
+	 * @return the id of the key of the field (see {@link BLogRegistry}) or {@code BLogRegistry.NONE}
+	 *         if the key has no id (see {@code getFieldKey()})
+	 */
+	public int getFieldKeyId(int index) {
+		return fieldKeys[index];
+	}
+
+	/**
+	 * @param index 0..{@code getFieldCount()}-1
+	 * @return the key of the field
+	 */
+	public String getFieldKey(int index) {
+		int keyId = fieldKeys[index];
+		return keyId == BLogRegistry.NONE ? fieldNames[index] : BLogRegistry.getRegistry().getFieldKey(keyId);
+	}
+
+	/**
+	 * @param index 0..{@code getFieldCount()}-1
+	 * @return the value of the field
+	 */
+	public String getFieldValue(int index) {
+		return fieldValues[index];
+	}
+
+	/**
+	 * @return the business operation or null if it's absent or has been defined at runtime 
+	 * (see {@link BLogRegistry})
+	 */
+	public BOperation getOperation() {
+		return BLogRegistry.getRegistry().getOperation(operationId);
+	}
+
+	public void setOperation(BOperation operation) {
+		this.operationId = operation == null ? BLogRegistry.NONE : operation.ordinal();
+	}
+	
+	/**
+	 * @return the id of the business operation or {@code BLogRegistry.NONE}
+	 */
+	public int getOperationId() {
+		return operationId;
+	}
+	
+	public void setOperationId(int operationId) {
+		this.operationId = operationId;
+	}
+	
+	/**
+	 * @return the code of the business operation (may be null)
+	 */
+	public String getOperationCode() {
+		return BLogRegistry.getRegistry().getOperationCode(operationId);
+	}
+	/**
+	 * @return true if the source class and method have been set or inferred already
+	 */
+	boolean isCallerKnown() {
+		return !needToInferCaller;
+	}
+
+	/**
+	 * Get the name of the class that (allegedly) issued the logging request.
+	 * <p>
+	 * Note that this sourceClassName is not verified and may be spoofed. This
+	 * information may either have been provided as part of the logging call, or
+	 * it may have been inferred automatically by the logging framework. In the
+	 * latter case, the information may only be approximate and may in fact
+	 * describe an earlier call on the stack frame.
+	 * <p>
+	 * May be null if no information could be obtained.
+	 * 
+	 * @return the source class name
+	 */
+	public String getSourceClassName() {
+		if (needToInferCaller) {
+			inferCaller();
+		}
+		return sourceClassName;
+	}
+
+	/**
+	 * Set the name of the class that (allegedly) issued the logging request.
+	 * 
+	 * @param sourceClassName
+	 *            the source class name (may be null)
+	 */
+	public void setSourceClassName(String sourceClassName) {
+		this.sourceClassName = sourceClassName;
+		needToInferCaller = false;
+	}
+
+	/**
+	 * Get the name of the method that (allegedly) issued the logging request.
+	 * <p>
+	 * Note that this sourceMethodName is not verified and may be spoofed. This
+	 * information may either have been provided as part of the logging call, or
+	 * it may have been inferred automatically by the logging framework. In the
+	 * latter case, the information may only be approximate and may in fact
+	 * describe an earlier call on the stack frame.
+	 * <p>
+	 * May be null if no information could be obtained.
+	 * 
+	 * @return the source method name
+	 */
+	public String getSourceMethodName() {
+		if (needToInferCaller) {
+			inferCaller();
+		}
+		return sourceMethodName;
+	}
+
+	/**
+	 * Set the name of the method that (allegedly) issued the logging request.
+	 * 
+	 * @param sourceMethodName
+	 *            the source method name (may be null)
+	 */
+	public void setSourceMethodName(String sourceMethodName) {
+		this.sourceMethodName = sourceMethodName;
+		needToInferCaller = false;
+	}
+
+	/**
+	 * Get the "raw" log message, before localization or formatting.
+	 * <p>
+	 * May be null, which is equivalent to the empty string "".
+	 * <p>
+	 * This message may be either the final text or a localization key.
+	 * <p>
+	 * During formatting, if the source logger has a localization ResourceBundle
+	 * and if that ResourceBundle has an entry for this message string, then the
+	 * message string is replaced with the localized value.
+	 * 
+	 * @return the raw message string
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Set the "raw" log message, before localization or formatting.
+	 * 
+	 * @param message
+	 *            the raw message string (may be null)
+	 */
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	/**
+	 * Get the parameters to the log message.
+	 * 
+	 * @return the log message parameters. May be null if there are no
+	 *         parameters.
+	 */
+	public Object[] getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * Set the parameters to the log message.
+	 * 
+	 * @param parameters
+	 *            the log message parameters. (may be null)
+	 */
+	public void setParameters(Object parameters[]) {
+		this.parameters = parameters;
+	}
+
+
+	/**
+	 * Get event time in milliseconds since 1970.
+	 * 
+	 * @return event time in millis since 1970
+	 */
+	public long getMillis() {
+		return millis;
+	}
+
+	/**
+	 * Set event time.
+	 * 
+	 * @param millis
+	 *            event time in millis since 1970
+	 */
+	public void setMillis(long millis) {
+		this.millis = millis;
+	}
+
+	/**
+	 * Get any throwable associated with the log record.
+	 * <p>
+	 * If the event involved an exception, this will be the exception object.
+	 * Otherwise null.
+	 * 
+	 * @return a throwable
+	 */
+	public Throwable getThrown() {
+		return thrown;
+	}
+
+	/**
+	 * Set a throwable associated with the log event.
+	 * 
+	 * @param thrown
+	 *            a throwable (may be null)
+	 */
+	public void setThrown(Throwable thrown) {
+		this.thrown = thrown;
+	}
+
+	/**
+	 * Get the number of identical records collapsed into this one 
+	 * (see {@link BLogRecordCoalescer}). Equals 1 for a unique record.
+	 * 
+	 * @return repeat count
+	 */
+	public int getRepeatCount() {
+		return repeatCount;
+	}
+
+	/**
+	 * Set the number of identical records collapsed into this one.
+	 * 
+	 * @param repeatCount
+	 *            repeat count (at least 1)
+	 */
+	public void setRepeatCount(int repeatCount) {
+		this.repeatCount = repeatCount;
+	}
+
+	/**
+	 * Get event time of the last identical record in milliseconds since 1970.
+	 * For a unique record it's the same as {@code getMillis()}.
+	 * 
+	 * @return event time of the last repeat
+	 */
+	public long getLastMillis() {
+		return lastMillis;
+	}
+
+	/**
+	 * Set event time of the last identical record.
+	 * 
+	 * @param lastMillis
+	 *            event time in millis since 1970
+	 */
+	public void setLastMillis(long lastMillis) {
+		this.lastMillis = lastMillis;
+	}
+
+	/**
+	 * Estimate the heap retained by the record: the record itself, its strings, parameters 
+	 * and throwable. A char is counted as two bytes, the shared objects (the enums, the 
+	 * registered users, the resource bundle) aren't counted.
+	 * 
+	 * @return approximate size in bytes
+	 */
+	public int getEstimatedSize() {
+		// the header and the fields
+		long size = 96;
+		size += sizeOf(message);
+		size += sizeOf(loggerName);
+		size += sizeOf(sourceClassName);
+		size += sizeOf(sourceMethodName);
+		if (parameters != null) {
+			size += 16 + 8 * parameters.length;
+			for (Object parameter : parameters) {
+				size += parameter instanceof String ? sizeOf((String) parameter) : 16;
+			}
+		}
+		if (thrown != null) {
+			// the stack trace is the biggest part of it
+			size += 1024;
+		}
+		if (fieldKeys != null) {
+			size += 32 + 12 * fieldKeys.length;
+			for (int i = 0; i < fieldCount; i++) {
+				size += sizeOf(fieldValues[i]);
+			}
+		}
+		return (int) Math.min(size, Integer.MAX_VALUE);
+	}
+
+	private static long sizeOf(String s) {
+		return s == null ? 0 : 40 + 2L * s.length();
+	}
+
+	private static final long serialVersionUID = 5372048053134512534L;
+
+	/**
+	 * The ids are valid within the process only, so the solution, the user and the operation are
+	 * serialized by value as before. The keys of the solution and the operation are written as well
+	 * for the ones defined at runtime.
+	 */
+	private static final ObjectStreamField serialPersistentFields[] = {
+		new ObjectStreamField("businessSolution", BSolution.class),
+		new ObjectStreamField("sourceClassName", String.class),
+		new ObjectStreamField("sourceMethodName", String.class),
+		new ObjectStreamField("message", String.class),
+		new ObjectStreamField("millis", long.class),
+		new ObjectStreamField("thrown", Throwable.class),
+		new ObjectStreamField("loggerName", String.class),
+		new ObjectStreamField("user", String.class),
+		new ObjectStreamField("operation", BOperation.class),
+		new ObjectStreamField("messageType", MessageType.class),
+		new ObjectStreamField("repeatCount", int.class),
+		new ObjectStreamField("lastMillis", long.class),
+		new ObjectStreamField("resourceBundleName", String.class),
+		new ObjectStreamField("solutionKey", String.class),
+		new ObjectStreamField("operationKey", String.class),
+		new ObjectStreamField("fields", String[].class)
+	};
+
+	/**
+	 * @serialData Serializable fields, followed by a two byte version number (major
+	 *             byte, followed by minor byte), followed by information on the
+	 *             log record parameter array. If there is no parameter array,
+	 *             then -1 is written. If there is a parameter array (possible
+	 *             of zero length) then the array length is written as an
+	 *             integer, followed by String values for each parameter. If a
+	 *             parameter is null, then a null String is written. Otherwise
+	 *             the output of Object.toString() is written.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		BLogRegistry registry = BLogRegistry.getRegistry();
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("businessSolution", getBusinessSolution());
+		fields.put("sourceClassName", sourceClassName);
+		fields.put("sourceMethodName", sourceMethodName);
+		fields.put("message", message);
+		fields.put("millis", millis);
+		fields.put("thrown", thrown);
+		fields.put("loggerName", loggerName);
+		fields.put("user", getUser());
+		fields.put("operation", getOperation());
+		fields.put("messageType", messageType);
+		fields.put("repeatCount", repeatCount);
+		fields.put("lastMillis", lastMillis);
+		fields.put("resourceBundleName", resourceBundleName);
+		fields.put("solutionKey", registry.getSolutionKey(solutionId));
+		fields.put("operationKey", registry.getOperationKey(operationId));
+		if (fieldCount > 0) {
+			// the keys and the values one after another
+			String keyValues[] = new String[fieldCount * 2];
+			for (int i = 0; i < fieldCount; i++) {
+				keyValues[2 * i] = getFieldKey(i);
+				keyValues[2 * i + 1] = fieldValues[i];
+			}
+			fields.put("fields", keyValues);
+		}
+		out.writeFields();
+
+		// Write our version number.
+		out.writeByte(1);
+		out.writeByte(0);
+		if (parameters == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(parameters.length);
+		// Write string values for the parameters.
+		for (int i = 0; i < parameters.length; i++) {
+			if (parameters[i] == null) {
+				out.writeObject(null);
+			} else {
+				out.writeObject(parameters[i].toString());
+			}
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		BLogRegistry registry = BLogRegistry.getRegistry();
+		ObjectInputStream.GetField fields = in.readFields();
+		sourceClassName = (String) fields.get("sourceClassName", null);
+		sourceMethodName = (String) fields.get("sourceMethodName", null);
+		message = (String) fields.get("message", null);
+		millis = fields.get("millis", 0L);
+		thrown = (Throwable) fields.get("thrown", null);
+		loggerName = (String) fields.get("loggerName", null);
+		messageType = (MessageType) fields.get("messageType", null);
+		repeatCount = fields.get("repeatCount", 0);
+		lastMillis = fields.get("lastMillis", 0L);
+		resourceBundleName = (String) fields.get("resourceBundleName", null);
+		setForeignUser((String) fields.get("user", null));
+		// the records of the previous versions have no keys
+		String solutionKey = (String) fields.get("solutionKey", null);
+		if (solutionKey != null) {
+			solutionId = registry.findSolutionId(solutionKey);
+		} else {
+			setBusinessSolution((BSolution) fields.get("businessSolution", null));
+		}
+		String operationKey = (String) fields.get("operationKey", null);
+		if (operationKey != null) {
+			operationId = registry.getOperationId(operationKey);
+		} else {
+			setOperation((BOperation) fields.get("operation", null));
+		}
+		String keyValues[] = (String[]) fields.get("fields", null);
+		if (keyValues != null) {
+			for (int i = 0; i + 1 < keyValues.length; i += 2) {
+				setForeignField(keyValues[i], keyValues[i + 1]);
+			}
+		}
+
+		// Read version number.
+		byte major = in.readByte();
+		byte minor = in.readByte();
+		if (major != 1) {
+			throw new IOException("BLogRecord: bad version: " + major + "."
+					+ minor);
+		}
+		int len = in.readInt();
+		if (len == -1) {
+			parameters = null;
+		} else {
+			parameters = new Object[len];
+			for (int i = 0; i < parameters.length; i++) {
+				parameters[i] = in.readObject();
+			}
+		}
+		// If necessary, try to regenerate the resource bundle.
+		if (resourceBundleName != null) {
+			try {
+				resourceBundle = ResourceBundle.getBundle(resourceBundleName);
+			} catch (MissingResourceException ex) {
+				// This is not a good place to throw an exception,
+				// so we simply leave the resourceBundle null.
+				resourceBundle = null;
+			}
+		}
+
+		needToInferCaller = false;
+	}
+
+	// Private method to infer the caller's class and method names
+	private void inferCaller() {
+		needToInferCaller = false;
+		// Get the stack trace.
+		StackTraceElement stack[] = (new Throwable()).getStackTrace();
+		// First, search back to a method in the Logger class.
+		int ix = 0;
+		while (ix < stack.length) {
+			StackTraceElement frame = stack[ix];
+			String cname = frame.getClassName();
+			if (cname.equals("blogs.BLogger")) {
+				break;
+			}
+			ix++;
+		}
+		// Now search for the first frame before the "Logger" class.
+		while (ix < stack.length) {
+			StackTraceElement frame = stack[ix];
+			String cname = frame.getClassName();
+			if (!cname.equals("blogs.BLogger")) {
+				// We've found the relevant frame.
+				setSourceClassName(cname);
+				setSourceMethodName(frame.getMethodName());
+				return;
+			}
+			ix++;
+		}
+		// We haven't found a suitable frame, so just punt. This is
+		// OK as we are only committed to making a "best effort" here.
+	}
+}
@@ -0,0 +1,115 @@
+package blogs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <tt>BLogRecordCoalescer</tt> collapses identical records of one drain of the
+ * records pool into a single record with a repeat count and the first/last timestamps.
+ * <p>
+ * Two records are identical if they have the same user, operation, message type and
+ * message text. Records with a throwable, parameters or context fields are never collapsed.
+ * The records are kept in a bounded open-addressing hash table which is reset by
+ * {@code drain()}. When the table is full the rest of the records pass through
+ * as they are, so unique records are always written unchanged and in order.
+ * <p>
+ * The coalescer isn't thread safe, it's intended to be used by the flushing thread only.
+ */
+public class BLogRecordCoalescer {
+	// hash table of the distinct records found since the last drain
+	private final BLogRecord table[];
+	private final int mask;
+	// max amount of the distinct records in the table
+	private final int maxSize;
+	private int size;
+	// records in the order they should be published
+	private List<BLogRecord> records = new ArrayList<BLogRecord>();
+
+	/**
+	 * Create a coalescer that remembers up to {@code maxSize} distinct records per drain
+	 * @param maxSize max amount of the distinct records
+	 */
+	public BLogRecordCoalescer(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException();
+		}
+		// keep the load factor under 0.5
+		int capacity = Integer.highestOneBit(maxSize) << 2;
+		this.table = new BLogRecord[capacity];
+		this.mask = capacity - 1;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Add the record. If an identical record has already been added since the last
+	 * drain, the record is merged into it and won't be returned by {@code drain()}.
+	 * @param record
+	 */
+	public void add(BLogRecord record) {
+		if (record.getThrown() != null || record.getParameters() != null || record.getFieldCount() > 0) {
+			records.add(record);
+			return;
+		}
+
+		int i = hash(record) & mask;
+		BLogRecord r;
+		while ((r = table[i]) != null) {
+			if (isIdentical(r, record)) {
+				r.setRepeatCount(r.getRepeatCount() + record.getRepeatCount());
+				if (record.getLastMillis() > r.getLastMillis()) {
+					r.setLastMillis(record.getLastMillis());
+				}
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+
+		if (size < maxSize) {
+			table[i] = record;
+			size++;
+		}
+		records.add(record);
+	}
+
+	/**
+	 * Get all the collapsed records in the order of their first occurrence
+	 * and reset the hash table.
+	 * @return records to publish
+	 */
+	public List<BLogRecord> drain() {
+		List<BLogRecord> result = records;
+		records = new ArrayList<BLogRecord>(result.size());
+		if (size > 0) {
+			for (int i = 0; i < table.length; i++) {
+				table[i] = null;
+			}
+			size = 0;
+		}
+		return result;
+	}
+
+	private static int hash(BLogRecord record) {
+		int h = hashCode(record.getMessage());
+		h = 31 * h + record.getUserId();
+		h = 31 * h + record.getOperationId();
+		h = 31 * h + hashCode(record.getMessageType());
+		// spread the higher bits to the lower ones
+		return h ^ (h >>> 16);
+	}
+
+	private static int hashCode(Object o) {
+		return o == null ? 0 : o.hashCode();
+	}
+
+	private static boolean isIdentical(BLogRecord r1, BLogRecord r2) {
+		return r1.getOperationId() == r2.getOperationId()
+				&& r1.getMessageType() == r2.getMessageType()
+				&& r1.getUserId() == r2.getUserId()
+				&& (r1.getUserId() != BLogRegistry.NONE || equals(r1.getUser(), r2.getUser()))
+				&& equals(r1.getMessage(), r2.getMessage());
+	}
+
+	private static boolean equals(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+}
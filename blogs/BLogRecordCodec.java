@@ -0,0 +1,280 @@
+package blogs;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+
+/**
+ * <tt>BLogRecordCodec</tt> converts a <tt>BLogRecord</tt> to the compact binary form and back.
+ * It's used where the records leave the heap: spill files, journals, network and shared memory.
+ * <p>
+ * The fields are written in the following order: version, time, time of the last repeat,
+ * repeat count, logger name, business solution, user, operation, message type, message,
+ * parameters, thrown and the context fields (the count and the keys with the values, since
+ * version 2). The strings are written as UTF-8 with the length
+ * ({@code -1} for null), the enums as their names. The parameters are written as strings
+ * like {@code BLogRecord.writeObject()} does. The thrown is written as text: its class name,
+ * message and stack trace (since version 3, it was serialized before), so the bytes received
+ * from the network are never deserialized as objects. The thrown of a decoded record is
+ * a {@link Thrown} which prints the original stack trace.
+ */
+public class BLogRecordCodec {
+	private static final byte VERSION = 3;
+	// the records with the serialized thrown
+	private static final byte VERSION_2 = 2;
+	// the records without the context fields
+	private static final byte VERSION_1 = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The thrown of a decoded record. It has no stack of its own, it prints the text of
+	 * the original one.
+	 */
+	public static final class Thrown extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		private final String className;
+		private final String trace;
+
+		public Thrown(String className, String message, String trace) {
+			super(message);
+			this.className = className;
+			this.trace = trace;
+		}
+
+		/**
+		 * @return the class name of the original thrown
+		 */
+		public String getClassName() {
+			return className;
+		}
+
+		/**
+		 * @return the stack trace of the original thrown as it has been printed
+		 */
+		public String getTrace() {
+			return trace;
+		}
+
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			String message = getLocalizedMessage();
+			return message != null ? className + ": " + message : className;
+		}
+
+		@Override
+		public void printStackTrace(PrintStream s) {
+			s.print(trace != null ? trace : toString());
+		}
+
+		@Override
+		public void printStackTrace(PrintWriter s) {
+			s.print(trace != null ? trace : toString());
+		}
+	}
+
+	/**
+	 * Reads the thrown serialized by the versions before 3, the classes other than
+	 * the throwables and their stack traces are rejected
+	 */
+	private static final class ThrownInputStream extends ObjectInputStream {
+		ThrownInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			String name = desc.getName();
+			if (!name.equals("[Ljava.lang.StackTraceElement;") && !name.equals("java.lang.StackTraceElement")
+					&& !name.startsWith("java.util.Collections$Unmodifiable") && !name.equals("java.util.Collections$EmptyList")
+					&& !name.equals("java.util.ArrayList")) {
+				Class<?> type = Class.forName(name, false, BLogRecordCodec.class.getClassLoader());
+				if (!Throwable.class.isAssignableFrom(type)) {
+					throw new InvalidClassException(name, "the class isn't allowed in the thrown");
+				}
+			}
+			return super.resolveClass(desc);
+		}
+	}
+
+	private BLogRecordCodec() {
+	}
+
+	/**
+	 * Write the record
+	 * @param record
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void write(BLogRecord record, DataOutput out) throws IOException {
+		out.writeByte(VERSION);
+		out.writeLong(record.getMillis());
+		out.writeLong(record.getLastMillis());
+		out.writeInt(record.getRepeatCount());
+		writeString(record.getLoggerName(), out);
+		// the ids are valid within the process only, so the keys are written
+		BLogRegistry registry = BLogRegistry.getRegistry();
+		writeString(registry.getSolutionKey(record.getSolutionId()), out);
+		writeString(record.getUser(), out);
+		writeString(registry.getOperationKey(record.getOperationId()), out);
+		writeString(record.getMessageType() == null ? null : record.getMessageType().name(), out);
+		writeString(record.getMessage(), out);
+
+		Object parameters[] = record.getParameters();
+		if (parameters == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(parameters.length);
+			for (int i = 0; i < parameters.length; i++) {
+				writeString(parameters[i] == null ? null : parameters[i].toString(), out);
+			}
+		}
+
+		Throwable thrown = record.getThrown();
+		if (thrown == null) {
+			writeString(null, out);
+		} else if (thrown instanceof Thrown) {
+			writeString(((Thrown) thrown).getClassName(), out);
+			writeString(thrown.getMessage(), out);
+			writeString(((Thrown) thrown).getTrace(), out);
+		} else {
+			StringWriter trace = new StringWriter();
+			thrown.printStackTrace(new PrintWriter(trace));
+			writeString(thrown.getClass().getName(), out);
+			writeString(thrown.getMessage(), out);
+			writeString(trace.toString(), out);
+		}
+
+		int count = record.getFieldCount();
+		out.writeInt(count);
+		for (int i = 0; i < count; i++) {
+			writeString(record.getFieldKey(i), out);
+			writeString(record.getFieldValue(i), out);
+		}
+	}
+
+	/**
+	 * Read the record
+	 * @param in
+	 * @return the record
+	 * @throws IOException
+	 */
+	public static BLogRecord read(DataInput in) throws IOException {
+		byte version = in.readByte();
+		if (version != VERSION && version != VERSION_2 && version != VERSION_1) {
+			throw new IOException("BLogRecordCodec: bad version: " + version);
+		}
+		long millis = in.readLong();
+		long lastMillis = in.readLong();
+		int repeatCount = in.readInt();
+		String loggerName = readString(in);
+		String solution = readString(in);
+		String user = readString(in);
+		String operation = readString(in);
+		String messageType = readString(in);
+		String message = readString(in);
+
+		BLogRecord record = new BLogRecord(message);
+		record.setMillis(millis);
+		record.setLastMillis(lastMillis);
+		record.setRepeatCount(repeatCount);
+		record.setLoggerName(loggerName);
+		BLogRegistry registry = BLogRegistry.getRegistry();
+		// an unknown solution isn't registered, the collector writes it as BSolution.ALL
+		record.setSolutionId(registry.findSolutionId(solution));
+		record.setForeignUser(user);
+		record.setOperationId(registry.getOperationId(operation));
+		record.setMessageType(messageType == null ? null : MessageType.valueOf(messageType));
+		// the caller can't be inferred any more
+		record.setSourceClassName(null);
+
+		int len = in.readInt();
+		if (len >= 0) {
+			Object parameters[] = new Object[len];
+			for (int i = 0; i < len; i++) {
+				parameters[i] = readString(in);
+			}
+			record.setParameters(parameters);
+		}
+
+		if (version >= VERSION) {
+			String className = readString(in);
+			if (className != null) {
+				String thrownMessage = readString(in);
+				record.setThrown(new Thrown(className, thrownMessage, readString(in)));
+			}
+		} else {
+			len = in.readInt();
+			if (len >= 0) {
+				byte bytes[] = new byte[len];
+				in.readFully(bytes);
+				ObjectInputStream ois = new ThrownInputStream(new ByteArrayInputStream(bytes));
+				try {
+					record.setThrown((Throwable) ois.readObject());
+				} catch (ClassNotFoundException e) {
+					// This is not a good place to throw an exception,
+					// so we simply leave the thrown null.
+				} catch (InvalidClassException e) {
+					// the same for the classes which aren't allowed
+				} finally {
+					ois.close();
+				}
+			}
+		}
+
+		if (version >= VERSION_2) {
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = readString(in);
+				record.setForeignField(key, readString(in));
+			}
+		}
+		return record;
+	}
+
+	/**
+	 * Write the string as UTF-8 bytes with the length
+	 * @param s string (may be null)
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void writeString(String s, DataOutput out) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte bytes[] = s.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Read the string written by {@code writeString()}
+	 * @param in
+	 * @return the string (may be null)
+	 * @throws IOException
+	 */
+	public static String readString(DataInput in) throws IOException {
+		int len = in.readInt();
+		if (len < 0) {
+			return null;
+		}
+		byte bytes[] = new byte[len];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+}
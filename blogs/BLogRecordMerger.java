@@ -0,0 +1,91 @@
+package blogs;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * <tt>BLogRecordMerger</tt> merges several runs of records into one run ordered by
+ * the record time ({@code BLogRecord.getMillis()}).
+ * <p>
+ * Every run is expected to be ordered by time already (e.g. records of one thread).
+ * The merge is stable: records with the same time keep the order of their runs and
+ * the order within a run is never changed.
+ */
+public class BLogRecordMerger {
+
+	private BLogRecordMerger() {
+	}
+
+	// the head record of a run
+	private static final class Cursor implements Comparable<Cursor> {
+		final Iterator<BLogRecord> iterator;
+		final int run;
+		BLogRecord record;
+
+		Cursor(Iterator<BLogRecord> iterator, int run) {
+			this.iterator = iterator;
+			this.run = run;
+			this.record = iterator.next();
+		}
+
+		boolean next() {
+			if (iterator.hasNext()) {
+				record = iterator.next();
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public int compareTo(Cursor c) {
+			if (record.getMillis() != c.record.getMillis()) {
+				return record.getMillis() < c.record.getMillis() ? -1 : 1;
+			}
+			return run - c.run;
+		}
+	}
+
+	/**
+	 * K-way merge of the given runs by time
+	 * @param runs runs of records ordered by time
+	 * @return all the records ordered by time
+	 */
+	public static List<BLogRecord> merge(List<? extends Iterable<BLogRecord>> runs) {
+		List<BLogRecord> result = new ArrayList<BLogRecord>();
+		merge(runs, result);
+		return result;
+	}
+
+	/**
+	 * K-way merge of the given runs by time
+	 * @param runs runs of records ordered by time
+	 * @param result list to add the ordered records to
+	 */
+	public static void merge(List<? extends Iterable<BLogRecord>> runs, List<BLogRecord> result) {
+		if (runs.size() == 1) {
+			// nothing to merge
+			for (BLogRecord record : runs.get(0)) {
+				result.add(record);
+			}
+			return;
+		}
+
+		PriorityQueue<Cursor> heads = new PriorityQueue<Cursor>(Math.max(1, runs.size()));
+		for (int i = 0; i < runs.size(); i++) {
+			Iterator<BLogRecord> iterator = runs.get(i).iterator();
+			if (iterator.hasNext()) {
+				heads.add(new Cursor(iterator, i));
+			}
+		}
+
+		Cursor cursor;
+		while ((cursor = heads.poll()) != null) {
+			result.add(cursor.record);
+			if (cursor.next()) {
+				heads.add(cursor);
+			}
+		}
+	}
+}
@@ -0,0 +1,373 @@
+package blogs;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <tt>BLogRegistry</tt> assigns compact int ids to the business solutions, operations, users and
+ * the keys of the context fields (see {@link BLogContext}).
+ * The records carry the ids (see {@link BLogRecord}), so a record doesn't keep the user string
+ * and the per-solution state can be kept in arrays indexed by the id.
+ * <p>
+ * The constants of {@link BSolution} and {@link BOperation} are registered first, their ids are
+ * their ordinals. More solutions and operations can be defined in cfg.properties without
+ * changing the enums:
+ * <pre>
+ * registry.solutions=CRM,BILLING:billing/path
+ * registry.operations=AR,CLR
+ * </pre>
+ * A solution is "NAME[:path]", the path is the name by default. Solutions and operations received
+ * from other processes (see {@link BLogRecordCodec}) are registered on the fly, up to
+ * {@code MAX_SOLUTIONS} and {@code MAX_OPERATIONS}.
+ * <p>
+ * The users and the field keys of the local records are registered on their first record and never
+ * removed, up to {@code registry.users.max} and {@code registry.fields.max}. The records keep
+ * the users and the keys which haven't got an id by themselves: the ones over the limits and the
+ * ones received from other processes, which are looked up but not registered, so a collector
+ * doesn't grow its dictionaries with the input.
+ * <p>
+ * The ids are valid within the process only. The lookups by id are lock-free.
+ */
+public class BLogRegistry {
+	/**
+	 * The id of an absent (null) value
+	 */
+	public static final int NONE = -1;
+	public static final int MAX_SOLUTIONS = 1024;
+	public static final int MAX_OPERATIONS = 4096;
+	public static final int DEFAULT_MAX_USERS = 100000;
+	public static final int DEFAULT_MAX_FIELD_KEYS = 1000;
+
+	private static final BSolution SOLUTIONS[] = BSolution.values();
+	private static final BOperation OPERATIONS[] = BOperation.values();
+
+	private static final class Holder {
+		static final BLogRegistry REGISTRY = create();
+	}
+
+	/**
+	 * Strings with sequential ids
+	 */
+	private static final class Names {
+		private final String kind;
+		private final int limit;
+		private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+		private volatile String names[] = new String[16];
+		private int size;
+		private boolean full;
+
+		Names(String kind, int limit) {
+			this.kind = kind;
+			this.limit = limit;
+		}
+
+		int find(String name) {
+			if (name == null) {
+				return NONE;
+			}
+			Integer id = ids.get(name);
+			return id == null ? NONE : id.intValue();
+		}
+
+		int intern(String name) {
+			if (name == null) {
+				return NONE;
+			}
+			Integer id = ids.get(name);
+			if (id != null) {
+				return id.intValue();
+			}
+			synchronized (this) {
+				id = ids.get(name);
+				if (id != null) {
+					return id.intValue();
+				}
+				if (size == limit) {
+					if (!full) {
+						full = true;
+						System.err.println("BLogRegistry: " + limit + " " + kind + " have been registered, the next ones get no id");
+					}
+					return NONE;
+				}
+				if (size == names.length) {
+					names = Arrays.copyOf(names, size * 2);
+				}
+				// the name is stored before the id is published
+				names[size] = name;
+				ids.put(name, size);
+				return size++;
+			}
+		}
+
+		String get(int id) {
+			String current[] = names;
+			return id < 0 || id >= current.length ? null : current[id];
+		}
+
+		synchronized int size() {
+			return size;
+		}
+	}
+
+	private final Names solutions = new Names("solutions", MAX_SOLUTIONS);
+	private final Names operations = new Names("operations", MAX_OPERATIONS);
+	private final Names users;
+	private final Names fieldKeys;
+	private final ConcurrentHashMap<String, String> solutionPaths = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * Get the registry configured by cfg.properties
+	 * @return the registry
+	 */
+	public static BLogRegistry getRegistry() {
+		return Holder.REGISTRY;
+	}
+
+	private static BLogRegistry create() {
+		BLogManager manager = BLogManager.getLogManager();
+		return new BLogRegistry(manager.getProperty(BLogManager.REGISTRY_SOLUTIONS_PROP, ""),
+				manager.getProperty(BLogManager.REGISTRY_OPERATIONS_PROP, ""),
+				manager.getProperty(BLogManager.REGISTRY_MAX_USERS_PROP, DEFAULT_MAX_USERS),
+				manager.getProperty(BLogManager.REGISTRY_MAX_FIELD_KEYS_PROP, DEFAULT_MAX_FIELD_KEYS));
+	}
+
+	/**
+	 * @param solutions comma separated "NAME[:path]" of the additional solutions
+	 * @param operations comma separated codes of the additional operations
+	 * @param maxUsers max amount of the registered users
+	 * @param maxFieldKeys max amount of the registered keys of the context fields
+	 */
+	BLogRegistry(String solutions, String operations, int maxUsers, int maxFieldKeys) {
+		this.users = new Names("users", maxUsers);
+		this.fieldKeys = new Names("field keys", maxFieldKeys);
+		for (BSolution solution : SOLUTIONS) {
+			this.solutions.intern(solution.name());
+		}
+		for (BOperation operation : OPERATIONS) {
+			this.operations.intern(operation.name());
+		}
+		for (String entry : solutions.split(",")) {
+			entry = entry.trim();
+			if (entry.isEmpty()) {
+				continue;
+			}
+			int i = entry.indexOf(':');
+			if (i < 0) {
+				registerSolution(entry, entry);
+			} else {
+				registerSolution(entry.substring(0, i).trim(), entry.substring(i + 1).trim());
+			}
+		}
+		for (String entry : operations.split(",")) {
+			entry = entry.trim();
+			if (!entry.isEmpty()) {
+				registerOperation(entry);
+			}
+		}
+	}
+
+	/**
+	 * Register a business solution. The solution of {@code BSolution} with the same name keeps its id.
+	 * @param name
+	 * @param path the directory of its files relative to the base directory
+	 * @return the id of the solution
+	 */
+	public int registerSolution(String name, String path) {
+		int id = solutions.find(name);
+		if (id != NONE) {
+			return id;
+		}
+		solutionPaths.putIfAbsent(name, path == null ? name : path);
+		return solutions.intern(name);
+	}
+
+	/**
+	 * Get the id of the solution registering it if necessary
+	 * @param key the name of the solution or the name of the {@code BSolution} constant
+	 * @return the id or {@code NONE} if the key is null
+	 */
+	public int getSolutionId(String key) {
+		int id = solutions.find(key);
+		return id != NONE || key == null ? id : registerSolution(key, key);
+	}
+
+	/**
+	 * Get the id of the solution without registering it. The solutions received from another
+	 * process are looked up only: their names become the directories of the files.
+	 * @param key the name of the solution or the name of the {@code BSolution} constant
+	 * @return the id or {@code NONE} if the solution hasn't been registered
+	 */
+	public int findSolutionId(String key) {
+		return solutions.find(key);
+	}
+
+	/**
+	 * @param id
+	 * @return the {@code BSolution} constant or null if the solution has been defined at runtime
+	 */
+	public BSolution getSolution(int id) {
+		return id >= 0 && id < SOLUTIONS.length ? SOLUTIONS[id] : null;
+	}
+
+	/**
+	 * @param id
+	 * @return the key of the solution for {@code getSolutionId()}
+	 */
+	public String getSolutionKey(int id) {
+		return solutions.get(id);
+	}
+
+	/**
+	 * @param id
+	 * @return the name of the solution (as it's written into the file names)
+	 */
+	public String getSolutionName(int id) {
+		BSolution solution = getSolution(id);
+		return solution != null ? solution.getName() : solutions.get(id);
+	}
+
+	/**
+	 * @param id
+	 * @return the directory of the solution relative to the base directory
+	 */
+	public String getSolutionPath(int id) {
+		BSolution solution = getSolution(id);
+		if (solution != null) {
+			return solution.getPath();
+		}
+		String name = solutions.get(id);
+		return name == null ? null : solutionPaths.get(name);
+	}
+
+	/**
+	 * @return amount of the registered solutions, the ids are less than it
+	 */
+	public int getSolutionCount() {
+		return solutions.size();
+	}
+
+	/**
+	 * Register a business operation. A {@code BOperation} constant with the same code keeps its id.
+	 * @param code
+	 * @return the id of the operation
+	 */
+	public int registerOperation(String code) {
+		if (code == null) {
+			return NONE;
+		}
+		for (BOperation operation : OPERATIONS) {
+			if (code.equals(operation.getOperation())) {
+				return operation.ordinal();
+			}
+		}
+		return operations.intern(code);
+	}
+
+	/**
+	 * Get the id of the operation registering it if necessary
+	 * @param key the code of the operation or the name of the {@code BOperation} constant
+	 * @return the id or {@code NONE} if the key is null
+	 */
+	public int getOperationId(String key) {
+		int id = operations.find(key);
+		return id != NONE || key == null ? id : registerOperation(key);
+	}
+
+	/**
+	 * @param id
+	 * @return the {@code BOperation} constant or null if the operation has been defined at runtime
+	 */
+	public BOperation getOperation(int id) {
+		return id >= 0 && id < OPERATIONS.length ? OPERATIONS[id] : null;
+	}
+
+	/**
+	 * @param id
+	 * @return the key of the operation for {@code getOperationId()}
+	 */
+	public String getOperationKey(int id) {
+		return operations.get(id);
+	}
+
+	/**
+	 * @param id
+	 * @return the code of the operation (as it's written into the logs)
+	 */
+	public String getOperationCode(int id) {
+		BOperation operation = getOperation(id);
+		return operation != null ? operation.getOperation() : operations.get(id);
+	}
+
+	/**
+	 * @return amount of the registered operations, the ids are less than it
+	 */
+	public int getOperationCount() {
+		return operations.size();
+	}
+
+	/**
+	 * Get the id of the user registering it if necessary
+	 * @param user
+	 * @return the id or {@code NONE} if the user is null or the users are over the limit
+	 */
+	public int getUserId(String user) {
+		return users.intern(user);
+	}
+
+	/**
+	 * Get the id of the user without registering it
+	 * @param user
+	 * @return the id or {@code NONE} if the user hasn't been registered
+	 */
+	public int findUserId(String user) {
+		return users.find(user);
+	}
+
+	/**
+	 * @param id
+	 * @return the user or null
+	 */
+	public String getUser(int id) {
+		return users.get(id);
+	}
+
+	/**
+	 * @return amount of the registered users
+	 */
+	public int getUserCount() {
+		return users.size();
+	}
+
+	/**
+	 * Get the id of the key of a context field registering it if necessary
+	 * @param key
+	 * @return the id or {@code NONE} if the key is null or the keys are over the limit
+	 */
+	public int getFieldKeyId(String key) {
+		return fieldKeys.intern(key);
+	}
+
+	/**
+	 * Get the id of the key of a context field without registering it
+	 * @param key
+	 * @return the id or {@code NONE} if the key hasn't been registered
+	 */
+	public int findFieldKeyId(String key) {
+		return fieldKeys.find(key);
+	}
+
+	/**
+	 * @param id
+	 * @return the key of a context field or null
+	 */
+	public String getFieldKey(int id) {
+		return fieldKeys.get(id);
+	}
+
+	/**
+	 * @return amount of the registered keys of the context fields
+	 */
+	public int getFieldKeyCount() {
+		return fieldKeys.size();
+	}
+}
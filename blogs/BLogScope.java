@@ -0,0 +1,206 @@
+package blogs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <tt>BLogScope</tt> collects the records of one business operation (e.g. a CREATE_REQUEST flow)
+ * and puts them to the pool of the logger at once. It's opened by {@code BLogger.openScope()}
+ * and used by the opening thread only.
+ * <p>
+ * The records are buffered in the scope without any synchronization. {@code commit()} puts them
+ * to the pool as one entry, so the operation costs one enqueue however many records it has, and
+ * the records are written down together, one after another, in the order they have been logged.
+ * {@code rollback()} keeps the warnings and the errors only, {@code discard()} drops all the
+ * records. {@code close()} rolls back the scope which hasn't been committed.
+ * <pre>
+ * BLogScope scope = logger.openScope();
+ * try {
+ *     scope.log("request created", MessageType.INFO, BOperation.CREATE_REQUEST);
+ *     ...
+ *     scope.commit();
+ * } finally {
+ *     scope.close();
+ * }
+ * </pre>
+ * A scope holds {@code blogger.scope.size} records at most, the earlier records of a bigger
+ * operation are committed by parts. A committed scope counts all its records against the limits
+ * of the pool. The records are written one by one if they are coalesced or spilled, and they
+ * may be interleaved with the others if the pool is full and the caller writes them down by itself.
+ * The records stay together in the part files only: {@link BLogDayMerger} orders the merged
+ * day by time, so the records of other operations logged meanwhile come between them.
+ */
+public class BLogScope implements AutoCloseable {
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	/**
+	 * The records of a scope pooled as one entry. It's unpacked by the logger before the
+	 * records reach the handlers, the coalescer, the spill or the journal.
+	 */
+	static final class Batch extends BLogRecord {
+		private static final long serialVersionUID = 1L;
+
+		private final BLogRecord records[];
+
+		Batch(List<BLogRecord> records) {
+			super(null);
+			this.records = records.toArray(new BLogRecord[records.size()]);
+			BLogRecord first = this.records[0];
+			setMillis(first.getMillis());
+			setLastMillis(first.getMillis());
+			setUserId(first.getUserId());
+			setSolutionId(first.getSolutionId());
+			setLoggerName(first.getLoggerName());
+		}
+
+		BLogRecord[] getRecords() {
+			return records;
+		}
+
+		@Override
+		public int getEstimatedSize() {
+			long size = 16 + 8L * records.length;
+			for (BLogRecord record : records) {
+				size += record.getEstimatedSize();
+			}
+			return (int) Math.min(size, Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * @param record
+	 * @return amount of the records in the pool entry
+	 */
+	static int countOf(BLogRecord record) {
+		return record instanceof Batch ? ((Batch) record).getRecords().length : 1;
+	}
+
+	private final BLogger logger;
+	private final int maxSize;
+	private List<BLogRecord> records = new ArrayList<BLogRecord>();
+	private boolean open = true;
+
+	BLogScope(BLogger logger, int maxSize) {
+		this.logger = logger;
+		this.maxSize = Math.max(1, maxSize);
+	}
+
+	/**
+	 * Add the message with the {@code MessageType.INFO} and without a business operation
+	 * @param message
+	 */
+	public void log(String message) {
+		log(message, MessageType.INFO, BOperation.EMPTY);
+	}
+
+	/**
+	 * Add the message to the scope
+	 * @param message
+	 * @param messageType
+	 * @param operation
+	 */
+	public void log(String message, MessageType messageType, BOperation operation) {
+		BLogRecord record = logger.createRecord(message);
+		record.setOperation(operation);
+		record.setMessageType(messageType);
+		add(record);
+	}
+
+	/**
+	 * Add the message with the code of a business operation which may be absent in the {@code BOperation}
+	 * @param message
+	 * @param messageType
+	 * @param operation the code of the operation
+	 */
+	public void logCode(String message, MessageType messageType, String operation) {
+		BLogRecord record = logger.createRecord(message);
+		record.setOperationId(BLogRegistry.getRegistry().registerOperation(operation));
+		record.setMessageType(messageType);
+		add(record);
+	}
+
+	private void add(BLogRecord record) {
+		if (!open) {
+			throw new IllegalStateException("the scope has been closed");
+		}
+		records.add(record);
+		if (records.size() >= maxSize) {
+			enqueue(records);
+			records = new ArrayList<BLogRecord>();
+		}
+	}
+
+	private void enqueue(List<BLogRecord> batch) {
+		if (batch.size() == 1) {
+			logger.log(batch.get(0));
+		} else if (!batch.isEmpty()) {
+			logger.log(new Batch(batch));
+		}
+	}
+
+	/**
+	 * Put the records of the scope to the pool as one entry and close the scope
+	 */
+	public void commit() {
+		if (open) {
+			open = false;
+			enqueue(records);
+			records = null;
+		}
+	}
+
+	/**
+	 * Put the warnings and the errors of the scope to the pool and close the scope
+	 */
+	public void rollback() {
+		rollback(MessageType.WARNING);
+	}
+
+	/**
+	 * Put the records of the given type and the more severe ones to the pool, drop the
+	 * others and close the scope
+	 * @param minType the least severe type of the kept records or null to drop all of them
+	 */
+	public void rollback(MessageType minType) {
+		if (!open) {
+			return;
+		}
+		open = false;
+		List<BLogRecord> kept = new ArrayList<BLogRecord>();
+		if (minType != null) {
+			for (BLogRecord record : records) {
+				if (record.getMessageType() != null && record.getMessageType().ordinal() >= minType.ordinal()) {
+					kept.add(record);
+				}
+			}
+		}
+		records = null;
+		enqueue(kept);
+	}
+
+	/**
+	 * Drop the records of the scope and close it
+	 */
+	public void discard() {
+		rollback(null);
+	}
+
+	/**
+	 * Roll back the scope if it hasn't been committed
+	 */
+	@Override
+	public void close() {
+		rollback();
+	}
+
+	/**
+	 * @return amount of the records which haven't been put to the pool yet
+	 */
+	public int size() {
+		return open ? records.size() : 0;
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+}
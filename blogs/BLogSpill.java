@@ -0,0 +1,263 @@
+package blogs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <tt>BLogSpill</tt> is a local file where a <tt>BLogger</tt> puts the records which don't
+ * fit into its records pool.
+ * <p>
+ * The spill is a FIFO queue on the disk. The records are appended sequentially in the compact
+ * binary form (see {@link BLogRecordCodec}), every record is preceded by its length. The file
+ * header holds the position of the first record which hasn't been replayed yet.
+ * <p>
+ * Once the spill has been activated by an overflow, all the new records go to the spill until
+ * the flushing thread has replayed it to the handlers, so the records are written in order
+ * and the memory stays flat however long the handlers are stalled. If the JVM dies, the
+ * records after the saved read position are replayed on the next start.
+ */
+public class BLogSpill {
+	// the header holds the read position
+	private static final int HEADER_SIZE = 8;
+	// the size of the buffer for appended records
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	// position of the next record to replay
+	private long readPos;
+	// position after the records which have been read but not committed
+	private long pendingPos;
+	// position of the next record to append
+	private long writePos;
+	private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+	private final DataOutputStream recordData = new DataOutputStream(recordBuffer);
+	private final ByteArrayOutputStream writeBuffer = new ByteArrayOutputStream(WRITE_BUFFER_SIZE);
+	private final DataOutputStream writeData = new DataOutputStream(writeBuffer);
+	// the spill is active while it holds the records
+	private volatile boolean active;
+
+	/**
+	 * Open the spill file. If it holds the records left by the previous run,
+	 * the spill is active and they'll be replayed.
+	 * @param file spill file
+	 * @throws IOException
+	 */
+	public BLogSpill(File file) throws IOException {
+		this.file = file;
+		File dir = file.getParentFile();
+		if (dir != null) {
+			dir.mkdirs();
+		}
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+		recover();
+	}
+
+	/**
+	 * Read the header and find the end of the last complete record
+	 * @throws IOException
+	 */
+	private void recover() throws IOException {
+		long size = channel.size();
+		if (size < HEADER_SIZE) {
+			reset();
+			return;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		channel.read(header, 0);
+		header.flip();
+		readPos = header.getLong();
+		if (readPos < HEADER_SIZE || readPos > size) {
+			readPos = HEADER_SIZE;
+		}
+
+		// skip the complete records, a torn record at the end is dropped
+		ByteBuffer len = ByteBuffer.allocate(4);
+		long pos = readPos;
+		while (pos + 4 <= size) {
+			len.clear();
+			channel.read(len, pos);
+			len.flip();
+			int recordLen = len.getInt();
+			if (recordLen < 0 || pos + 4 + recordLen > size) {
+				break;
+			}
+			pos += 4 + recordLen;
+		}
+		writePos = pos;
+		channel.truncate(writePos);
+		if (readPos < writePos) {
+			active = true;
+		} else {
+			reset();
+		}
+	}
+
+	/**
+	 * Append the record to the end of the spill
+	 * @param record
+	 * @param activate activate the spill if it isn't active
+	 * @return false if the spill isn't active (and {@code activate} is false)
+	 * or the record can't be written
+	 */
+	public synchronized boolean append(BLogRecord record, boolean activate) {
+		if (!active && !activate) {
+			return false;
+		}
+		recordBuffer.reset();
+		try {
+			BLogRecordCodec.write(record, recordData);
+			writeData.writeInt(recordBuffer.size());
+			recordBuffer.writeTo(writeData);
+		} catch (IOException e) {
+			System.err.println("Error on encoding a record to the spill " + file + ": " + e.getMessage());
+			return false;
+		}
+		active = true;
+		if (writeBuffer.size() >= WRITE_BUFFER_SIZE) {
+			try {
+				flushWriteBuffer();
+			} catch (IOException e) {
+				System.err.println("Error on writing the spill " + file + ": " + e.getMessage());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read the next records of the spill. The records aren't removed from the spill
+	 * until {@code commit()} is invoked.
+	 * @param maxRecords max amount of the records to read
+	 * @return records in the order they have been appended
+	 * @throws IOException
+	 */
+	public synchronized List<BLogRecord> read(int maxRecords) throws IOException {
+		return read(readPos, maxRecords);
+	}
+
+	/**
+	 * Read the records following the ones returned by the previous reads, even if they haven't
+	 * been committed yet, so several batches can be replayed before the first one is committed
+	 * (see {@code commit(mark)})
+	 * @param maxRecords max amount of the records to read
+	 * @return records in the order they have been appended
+	 * @throws IOException
+	 */
+	public synchronized List<BLogRecord> readNext(int maxRecords) throws IOException {
+		return read(Math.max(readPos, pendingPos), maxRecords);
+	}
+
+	private List<BLogRecord> read(long from, int maxRecords) throws IOException {
+		flushWriteBuffer();
+		List<BLogRecord> records = new ArrayList<BLogRecord>();
+		long pos = from;
+		ByteBuffer len = ByteBuffer.allocate(4);
+		while (pos < writePos && records.size() < maxRecords) {
+			len.clear();
+			channel.read(len, pos);
+			len.flip();
+			int recordLen = len.getInt();
+			ByteBuffer data = ByteBuffer.allocate(recordLen);
+			while (data.hasRemaining()) {
+				if (channel.read(data, pos + 4 + data.position()) < 0) {
+					throw new IOException("Unexpected end of the spill " + file);
+				}
+			}
+			records.add(BLogRecordCodec.read(new DataInputStream(new ByteArrayInputStream(data.array()))));
+			pos += 4 + recordLen;
+		}
+		pendingPos = pos;
+		return records;
+	}
+
+	/**
+	 * Remove the records returned by the last {@code read()} from the spill. The spill
+	 * is deactivated and truncated if there are no records left.
+	 * @throws IOException
+	 */
+	public synchronized void commit() throws IOException {
+		commit(pendingPos);
+	}
+
+	/**
+	 * @return the position after the records returned by the last read, see {@code commit(mark)}
+	 */
+	public synchronized long getReadMark() {
+		return pendingPos;
+	}
+
+	/**
+	 * Remove the records before the mark from the spill. The spill is deactivated and
+	 * truncated if there are no records left.
+	 * @param mark the position taken by {@code getReadMark()} after a read
+	 * @throws IOException
+	 */
+	public synchronized void commit(long mark) throws IOException {
+		readPos = Math.max(readPos, mark);
+		if (readPos >= writePos && writeBuffer.size() == 0) {
+			reset();
+		} else {
+			writeHeader();
+		}
+	}
+
+	/**
+	 * @return true if there are records in the spill
+	 */
+	public boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Write down the buffered records and close the spill file. The records
+	 * which haven't been replayed will be replayed on the next start.
+	 */
+	public synchronized void close() {
+		try {
+			flushWriteBuffer();
+			writeHeader();
+			channel.force(true);
+			raf.close();
+		} catch (IOException e) {
+			System.err.println("Error on closing the spill " + file + ": " + e.getMessage());
+		}
+	}
+
+	private void flushWriteBuffer() throws IOException {
+		if (writeBuffer.size() == 0) {
+			return;
+		}
+		ByteBuffer buff = ByteBuffer.wrap(writeBuffer.toByteArray());
+		while (buff.hasRemaining()) {
+			writePos += channel.write(buff, writePos);
+		}
+		writeBuffer.reset();
+	}
+
+	private void writeHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putLong(readPos);
+		header.flip();
+		channel.write(header, 0);
+	}
+
+	private void reset() throws IOException {
+		readPos = HEADER_SIZE;
+		writePos = HEADER_SIZE;
+		pendingPos = HEADER_SIZE;
+		channel.truncate(HEADER_SIZE);
+		writeHeader();
+		active = false;
+	}
+}
@@ -0,0 +1,166 @@
+package blogs;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <tt>BLogStagingBuffers</tt> is an alternative records pool of a <tt>BLogger</tt> where
+ * every thread appends the records to its own buffer.
+ * <p>
+ * There is only one writer (the owner thread) and one reader (the flushing thread) for
+ * every buffer, so neither of them has to CAS on a shared queue tail. The flushing thread
+ * harvests all the buffers on every cycle and merges their records by time
+ * (see {@link BLogRecordMerger}).
+ * <p>
+ * A buffer of a dead thread is removed only after its records have been harvested, so no records
+ * are lost if a thread finishes or the logger expires before the next harvest.
+ * <p>
+ * The records of all the buffers are limited together by {@code maxSize}, as the shared pool
+ * of the logger is: the threads count them by one atomic add, so the heap is bounded however
+ * many threads are logging.
+ */
+public class BLogStagingBuffers {
+	// buffer of the current thread
+	private final ThreadLocal<Buffer> localBuffer = new ThreadLocal<Buffer>();
+	// all the registered buffers. A thread registers its buffer only once.
+	private final ConcurrentLinkedQueue<Buffer> buffers = new ConcurrentLinkedQueue<Buffer>();
+	// max amount of the records in all the buffers
+	private final int maxSize;
+	// amount of the records in all the buffers
+	private final AtomicInteger total = new AtomicInteger();
+
+	/**
+	 * Single-writer single-reader linked buffer of one thread
+	 */
+	private static final class Buffer implements Iterable<BLogRecord> {
+		private static final class Node {
+			BLogRecord record;
+			volatile Node next;
+
+			Node(BLogRecord record) {
+				this.record = record;
+			}
+		}
+
+		private final WeakReference<Thread> owner;
+		// the reader's side
+		private Node head = new Node(null);
+		private volatile int consumed;
+		// the writer's side
+		private Node tail = head;
+		private volatile int produced;
+		// harvested records
+		private List<BLogRecord> run;
+
+		Buffer(Thread owner) {
+			this.owner = new WeakReference<Thread>(owner);
+		}
+
+		void append(BLogRecord record, int count) {
+			Node node = new Node(record);
+			tail.next = node;
+			tail = node;
+			produced += count;
+		}
+
+		int size() {
+			return produced - consumed;
+		}
+
+		boolean isOrphaned() {
+			Thread thread = owner.get();
+			return thread == null || !thread.isAlive();
+		}
+
+		boolean harvest() {
+			List<BLogRecord> records = new ArrayList<BLogRecord>();
+			Node node;
+			int count = 0;
+			while ((node = head.next) != null) {
+				records.add(node.record);
+				count += BLogScope.countOf(node.record);
+				node.record = null;
+				head = node;
+			}
+			consumed += count;
+			run = records;
+			return !records.isEmpty();
+		}
+
+		@Override
+		public Iterator<BLogRecord> iterator() {
+			return run.iterator();
+		}
+	}
+
+	/**
+	 * @param maxSize max amount of the records in the buffers of all the threads
+	 */
+	public BLogStagingBuffers(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Append the record to the buffer of the current thread.
+	 * @param record
+	 * @return false if the buffers are full and the record hasn't been added
+	 */
+	public boolean add(BLogRecord record) {
+		Buffer buffer = localBuffer.get();
+		if (buffer == null) {
+			buffer = new Buffer(Thread.currentThread());
+			localBuffer.set(buffer);
+			buffers.add(buffer);
+		}
+		// a scope counts all its records, it's taken by the empty buffers however big it is
+		int count = BLogScope.countOf(record);
+		int size = total.addAndGet(count);
+		if (size > count && size > maxSize) {
+			total.addAndGet(-count);
+			return false;
+		}
+		buffer.append(record, count);
+		return true;
+	}
+
+	/**
+	 * @return approximate amount of the records in all the buffers
+	 */
+	public int size() {
+		return total.get();
+	}
+
+	/**
+	 * Get and remove the records of all the threads ordered by time.
+	 * The buffers of dead threads are reclaimed.
+	 * @return harvested records
+	 */
+	public synchronized List<BLogRecord> harvest() {
+		List<Buffer> runs = new ArrayList<Buffer>();
+		for (Iterator<Buffer> it = buffers.iterator(); it.hasNext();) {
+			Buffer buffer = it.next();
+			// check it before harvesting: a dead thread can't append anything later
+			boolean orphaned = buffer.isOrphaned();
+			int consumed = buffer.consumed;
+			if (buffer.harvest()) {
+				total.addAndGet(consumed - buffer.consumed);
+				runs.add(buffer);
+			}
+			if (orphaned) {
+				it.remove();
+			}
+		}
+		if (runs.isEmpty()) {
+			return new ArrayList<BLogRecord>(0);
+		}
+		List<BLogRecord> result = BLogRecordMerger.merge(runs);
+		for (Buffer buffer : runs) {
+			buffer.run = null;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,158 @@
+package blogs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <tt>BLogStripedPool</tt> is an alternative records pool of a <tt>BLogger</tt> that
+ * consists of several independent queues (stripes).
+ * <p>
+ * A stripe is selected by the hash of the current thread or by the hash of the record user,
+ * so the business threads spread over the stripes instead of contending for one queue tail.
+ * Every stripe has its own counters and overflow threshold ({@code maxPoolSize / stripes}).
+ * The flushing thread drains all the stripes and merges them by time
+ * (see {@link BLogRecordMerger}), so the records are still written in chronological order.
+ */
+public class BLogStripedPool {
+	public static final String STRIPE_BY_THREAD = "thread";
+	public static final String STRIPE_BY_USER = "user";
+
+	private final Stripe stripes[];
+	private final int mask;
+	private final boolean byUser;
+
+	/**
+	 * One queue of the pool with its own counters
+	 */
+	private static final class Stripe {
+		final ConcurrentLinkedQueue<BLogRecord> queue = new ConcurrentLinkedQueue<BLogRecord>();
+		// current amount of the records in the queue
+		final AtomicInteger size = new AtomicInteger();
+		// amount of the records which have been added/rejected since the start
+		final AtomicLong added = new AtomicLong();
+		final AtomicLong overflowed = new AtomicLong();
+		final int maxSize;
+
+		Stripe(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		boolean add(BLogRecord record) {
+			// a scope counts all its records, it's taken by an empty stripe however big it is
+			int count = BLogScope.countOf(record);
+			int newSize = size.addAndGet(count);
+			if (newSize > maxSize && newSize > count) {
+				size.addAndGet(-count);
+				overflowed.addAndGet(count);
+				return false;
+			}
+			queue.add(record);
+			added.addAndGet(count);
+			return true;
+		}
+
+		List<BLogRecord> drain() {
+			List<BLogRecord> records = new ArrayList<BLogRecord>();
+			BLogRecord record;
+			int count = 0;
+			while ((record = queue.poll()) != null) {
+				records.add(record);
+				count += BLogScope.countOf(record);
+			}
+			size.addAndGet(-count);
+			return records;
+		}
+	}
+
+	/**
+	 * @param stripes amount of the stripes (will be rounded up to a power of two)
+	 * @param maxPoolSize max amount of the records in all the stripes
+	 * @param stripeBy {@code STRIPE_BY_THREAD} or {@code STRIPE_BY_USER}
+	 */
+	public BLogStripedPool(int stripes, int maxPoolSize, String stripeBy) {
+		if (stripes < 1) {
+			throw new IllegalArgumentException();
+		}
+		int n = Integer.highestOneBit(stripes);
+		if (n < stripes) {
+			n <<= 1;
+		}
+		this.stripes = new Stripe[n];
+		int maxStripeSize = Math.max(1, (maxPoolSize + n - 1) / n);
+		for (int i = 0; i < n; i++) {
+			this.stripes[i] = new Stripe(maxStripeSize);
+		}
+		this.mask = n - 1;
+		this.byUser = STRIPE_BY_USER.equalsIgnoreCase(stripeBy);
+	}
+
+	/**
+	 * Add the record to its stripe
+	 * @param record
+	 * @return false if the stripe is full and the record hasn't been added
+	 */
+	public boolean add(BLogRecord record) {
+		int h;
+		if (byUser) {
+			// the user ids are sequential
+			h = record.getUserId() * 0x9E3779B9;
+		} else {
+			h = (int) Thread.currentThread().getId();
+		}
+		// spread the higher bits to the lower ones
+		h ^= (h >>> 16);
+		return stripes[h & mask].add(record);
+	}
+
+	/**
+	 * Get and remove the records of all the stripes ordered by time
+	 * @return drained records
+	 */
+	public synchronized List<BLogRecord> drain() {
+		List<List<BLogRecord>> runs = new ArrayList<List<BLogRecord>>(stripes.length);
+		for (Stripe stripe : stripes) {
+			List<BLogRecord> records = stripe.drain();
+			if (!records.isEmpty()) {
+				runs.add(records);
+			}
+		}
+		if (runs.isEmpty()) {
+			return new ArrayList<BLogRecord>(0);
+		}
+		return BLogRecordMerger.merge(runs);
+	}
+
+	/**
+	 * @return amount of the stripes
+	 */
+	public int getStripeCount() {
+		return stripes.length;
+	}
+
+	/**
+	 * @param stripe stripe index
+	 * @return current amount of the records in the stripe
+	 */
+	public int getSize(int stripe) {
+		return stripes[stripe].size.get();
+	}
+
+	/**
+	 * @param stripe stripe index
+	 * @return amount of the records which have been added to the stripe
+	 */
+	public long getAddedCount(int stripe) {
+		return stripes[stripe].added.get();
+	}
+
+	/**
+	 * @param stripe stripe index
+	 * @return amount of the records which haven't been added because the stripe was full
+	 */
+	public long getOverflowCount(int stripe) {
+		return stripes[stripe].overflowed.get();
+	}
+}
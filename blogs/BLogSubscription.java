@@ -0,0 +1,182 @@
+package blogs;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <tt>BLogSubscription</tt> receives the records matching its filter as they are drained by
+ * the loggers (a live tail). It's created by {@code BLogManager.subscribe()} or
+ * {@code BLogger.subscribe()} and must be closed when it isn't needed any more.
+ * <p>
+ * A null field of the filter matches any value. The matching records are put to a bounded
+ * buffer, so the flushing threads are never blocked by a slow subscriber: when the buffer is full
+ * the new record is dropped, or the oldest one if the subscription keeps the latest records.
+ * The amount of the dropped records is reported by {@code getDroppedCount()}.
+ * <pre>
+ * BLogSubscription tail = BLogManager.getLogManager().subscribe(BSolution.PKO, "user1", null, null, 1000);
+ * BLogRecord record;
+ * while ((record = tail.poll(1000)) != null) {
+ *     show(record);
+ * }
+ * tail.close();
+ * </pre>
+ */
+public class BLogSubscription {
+	private final BLogSubscriptions owner;
+	private final int solutionId;
+	private final String user;
+	private final int userId;
+	private final int operationId;
+	private final MessageType type;
+	private final int capacity;
+	private final boolean keepLatest;
+
+	private final ConcurrentLinkedQueue<BLogRecord> buffer = new ConcurrentLinkedQueue<BLogRecord>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile Thread waiter;
+	private volatile boolean closed;
+
+	BLogSubscription(BLogSubscriptions owner, int solutionId, String user, BOperation operation,
+			MessageType type, int capacity, boolean keepLatest) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException();
+		}
+		this.owner = owner;
+		this.solutionId = solutionId;
+		this.user = user;
+		this.userId = BLogRegistry.getRegistry().getUserId(user);
+		this.operationId = operation == null ? BLogRegistry.NONE : operation.ordinal();
+		this.type = type;
+		this.capacity = capacity;
+		this.keepLatest = keepLatest;
+	}
+
+	/**
+	 * @param record
+	 * @return true if the record matches the filter
+	 */
+	boolean matches(BLogRecord record) {
+		return (solutionId == BLogRegistry.NONE || solutionId == record.getSolutionId())
+				&& (user == null || (userId != BLogRegistry.NONE ? userId == record.getUserId() : user.equals(record.getUser())))
+				&& (operationId == BLogRegistry.NONE || operationId == record.getOperationId())
+				&& (type == null || type == record.getMessageType());
+	}
+
+	/**
+	 * Put the record to the buffer without blocking
+	 * @param record
+	 */
+	void offer(BLogRecord record) {
+		if (closed) {
+			return;
+		}
+		if (size.incrementAndGet() > capacity) {
+			if (!keepLatest || buffer.poll() == null) {
+				size.decrementAndGet();
+				dropped.incrementAndGet();
+				return;
+			}
+			// the oldest record has been dropped instead
+			size.decrementAndGet();
+			dropped.incrementAndGet();
+		}
+		buffer.add(record);
+		Thread w = waiter;
+		if (w != null) {
+			LockSupport.unpark(w);
+		}
+	}
+
+	/**
+	 * Take the next record waiting for it if there are none
+	 * @param timeout max time to wait (milliseconds)
+	 * @return the next record or null if there are none after the timeout or the
+	 *         subscription has been closed
+	 * @throws InterruptedException
+	 */
+	public BLogRecord poll(long timeout) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (true) {
+			BLogRecord record = buffer.poll();
+			if (record != null) {
+				size.decrementAndGet();
+				return record;
+			}
+			long left = deadline - System.nanoTime();
+			if (closed || left <= 0) {
+				return null;
+			}
+			waiter = Thread.currentThread();
+			if (buffer.isEmpty()) {
+				LockSupport.parkNanos(this, left);
+			}
+			waiter = null;
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+	}
+
+	/**
+	 * Take the buffered records without waiting
+	 * @param records the list to add the records to
+	 * @param max max amount of the records to take
+	 * @return amount of the records taken
+	 */
+	public int drainTo(List<BLogRecord> records, int max) {
+		int n = 0;
+		BLogRecord record;
+		while (n < max && (record = buffer.poll()) != null) {
+			size.decrementAndGet();
+			records.add(record);
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return amount of the records which haven't fit into the buffer
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return amount of the buffered records
+	 */
+	public int getBufferedCount() {
+		return Math.max(0, size.get());
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Stop receiving the records. The buffered records can still be taken.
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		owner.remove(this);
+		Thread w = waiter;
+		if (w != null) {
+			LockSupport.unpark(w);
+		}
+	}
+
+	int getSolutionId() {
+		return solutionId;
+	}
+
+	String getUser() {
+		return user;
+	}
+}
@@ -0,0 +1,150 @@
+package blogs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <tt>BLogSubscriptions</tt> is the index of the active subscriptions (see {@link BLogSubscription}).
+ * The loggers pass every drained record to {@code publish()}.
+ * <p>
+ * The subscriptions are indexed by the user if their filter has one, otherwise by the business
+ * solution, the rest are checked for every record. So a record is matched against the subscriptions
+ * which can accept it only. The index is copied on every change and read without locks: when there
+ * are no subscriptions, {@code publish()} costs one volatile read.
+ */
+public class BLogSubscriptions {
+	/**
+	 * Immutable state of the index
+	 */
+	private static final class Index {
+		static final BLogSubscription NONE[] = new BLogSubscription[0];
+
+		final int count;
+		final Map<String, BLogSubscription[]> byUser;
+		// by the solution id
+		final BLogSubscription bySolution[][];
+		final BLogSubscription others[];
+
+		Index(List<BLogSubscription> subscriptions) {
+			Map<String, List<BLogSubscription>> users = new HashMap<String, List<BLogSubscription>>();
+			Map<Integer, List<BLogSubscription>> solutions = new HashMap<Integer, List<BLogSubscription>>();
+			List<BLogSubscription> rest = new ArrayList<BLogSubscription>();
+			for (BLogSubscription subscription : subscriptions) {
+				if (subscription.getUser() != null) {
+					add(users, subscription.getUser(), subscription);
+				} else if (subscription.getSolutionId() != BLogRegistry.NONE) {
+					add(solutions, subscription.getSolutionId(), subscription);
+				} else {
+					rest.add(subscription);
+				}
+			}
+			this.count = subscriptions.size();
+			this.byUser = toArrays(users);
+			int size = 0;
+			for (Integer id : solutions.keySet()) {
+				size = Math.max(size, id + 1);
+			}
+			this.bySolution = new BLogSubscription[size][];
+			for (Map.Entry<Integer, List<BLogSubscription>> entry : solutions.entrySet()) {
+				bySolution[entry.getKey()] = entry.getValue().toArray(NONE);
+			}
+			this.others = rest.toArray(NONE);
+		}
+
+		private static <K> void add(Map<K, List<BLogSubscription>> map, K key, BLogSubscription subscription) {
+			List<BLogSubscription> list = map.get(key);
+			if (list == null) {
+				list = new ArrayList<BLogSubscription>();
+				map.put(key, list);
+			}
+			list.add(subscription);
+		}
+
+		private static <K> Map<K, BLogSubscription[]> toArrays(Map<K, List<BLogSubscription>> map) {
+			if (map.isEmpty()) {
+				return Collections.emptyMap();
+			}
+			Map<K, BLogSubscription[]> res = new HashMap<K, BLogSubscription[]>();
+			for (Map.Entry<K, List<BLogSubscription>> entry : map.entrySet()) {
+				res.put(entry.getKey(), entry.getValue().toArray(NONE));
+			}
+			return res;
+		}
+	}
+
+	private final List<BLogSubscription> subscriptions = new ArrayList<BLogSubscription>();
+	private volatile Index index = new Index(subscriptions);
+
+	/**
+	 * Register a subscription
+	 * @param solution business solution or null for any
+	 * @param user user or null for any
+	 * @param operation business operation or null for any
+	 * @param type message type or null for any
+	 * @param capacity max amount of the buffered records
+	 * @param keepLatest drop the oldest buffered record instead of the new one when the buffer is full
+	 * @return the subscription
+	 */
+	public BLogSubscription subscribe(BSolution solution, String user, BOperation operation,
+			MessageType type, int capacity, boolean keepLatest) {
+		return subscribe(solution == null ? BLogRegistry.NONE : solution.ordinal(), user, operation, type, capacity, keepLatest);
+	}
+
+	/**
+	 * Register a subscription
+	 * @param solutionId id of the business solution (see {@link BLogRegistry}) or {@code BLogRegistry.NONE} for any
+	 */
+	synchronized BLogSubscription subscribe(int solutionId, String user, BOperation operation,
+			MessageType type, int capacity, boolean keepLatest) {
+		BLogSubscription subscription = new BLogSubscription(this, solutionId, user, operation, type, capacity, keepLatest);
+		subscriptions.add(subscription);
+		index = new Index(subscriptions);
+		return subscription;
+	}
+
+	synchronized void remove(BLogSubscription subscription) {
+		if (subscriptions.remove(subscription)) {
+			index = new Index(subscriptions);
+		}
+	}
+
+	/**
+	 * @return amount of the active subscriptions
+	 */
+	public int size() {
+		return index.count;
+	}
+
+	/**
+	 * Pass the record to the matching subscriptions
+	 * @param record
+	 */
+	public void publish(BLogRecord record) {
+		Index current = index;
+		if (current.count == 0) {
+			return;
+		}
+		if (!current.byUser.isEmpty() && record.getUser() != null) {
+			offer(current.byUser.get(record.getUser()), record);
+		}
+		int solutionId = record.getSolutionId();
+		if (solutionId >= 0 && solutionId < current.bySolution.length) {
+			offer(current.bySolution[solutionId], record);
+		}
+		offer(current.others, record);
+	}
+
+	private static void offer(BLogSubscription candidates[], BLogRecord record) {
+		if (candidates == null) {
+			return;
+		}
+		for (BLogSubscription subscription : candidates) {
+			if (subscription.matches(record)) {
+				subscription.offer(record);
+			}
+		}
+	}
+}
@@ -1,402 +1,1342 @@
-package blogs;
-
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
-/**
- * <tt>BLogger</tt> class is useful to log business messages in efficient way into 
- * convenient format. 
- * <p>
- * Every instance of <tt>BLogger</tt> class has its own local cache 
- * to hold <tt>BLogRecord</tt>s and writes these records down into its handlers periodically. Only one
- * instance of {@code BLogger} <strong>with a specified</strong> {@code loggerName} can be created.
- * Thus only one thread can publish this pool records. But several threads are able to invoke 
- * {@code getLogger()} method simultaneously. If there are no records in the 
- * cache during a specified time-period {@code DEFAULT_LIFETIME}, the logger will be closed.
- * <p>
- * A Periodic of flushing the records pool is defined by {@code flushPeriod}.
- * <p>
- * The messages have a corresponding format <tt>BFormatter</tt>.
- */
-public class BLogger {
-	// we hold the records in a memory cache 
-	protected ConcurrentLinkedQueue<BLogRecord> recordPool = new ConcurrentLinkedQueue<BLogRecord>();
-	// max amount of the records in the pool
-	protected int maxPoolSize;
-	protected int DEFAULT_MAX_POOL_SIZE = 5000; // 5000 records
-	
-	protected Thread flushThread = new Thread(new FlushBLogRecords());
-	//flush period
-	protected int flushPeriod; 
-	// default flush period in milliseconds
-	protected static final int DEFAULT_FLUSHPERIOD = 5000; // 5 seconds
-	// logger lifetime
-	protected int lifetime;
-	// default logger lifetime during which there are no records in the pool (milliseconds)
-	protected static final int DEFAULT_LIFETIME = 1000 * 10 * 60; // 10 minutes
-	// a time when this flushThread has been started
-	protected long startTime;
-	protected List<BHandler> handlers;
-	protected static final BHandler emptyHandlers[] = new BHandler[0];
-	protected String loggerName;
-	// Every thread may has its own user
-	protected ThreadLocal<String> localUser = new ThreadLocal<String>();
-	protected BSolution businessSolution;
-	
-	/**
-	 * Get the logger from {@code BLogManeger} map. If there is no logger with a given {@code solution}
-	 * in the {@code BLogManeger} map, the new instance of {@code BLogger} with the default
-	 * {@code CSVFileHandler} will be created.
-	 * @param user current user name
-	 * @param solution specified business solution
-	 * @return
-	 */
-	public synchronized static BLogger getLogger(String user, BSolution solution) {
-		BLogManager manager = BLogManager.getLogManager();
-		BLogger logger = manager.demandLogger(solution.getName(), solution);
-		logger.setLocalUser(user);	
-		return logger;
-	}
-	
-	/**
-	 * Get the logger from {@code BLogManeger} map. If there is no logger with a given {@code solution}
-	 * in the {@code BLogManeger} map, the new instance of {@code BLogger} with a given 
-	 * {@code handler} will be created.
-	 * Note, If this logger is existing in the BLogManager then the given {@code handler}
-	 * won't be added
-	 * @param user current user name
-	 * @param solution specified business solution
-	 * @param handler specified handler
-	 * @return
-	 */
-	public synchronized static BLogger getLogger(String user, BSolution solution, BHandler handler) {
-		BLogManager manager = BLogManager.getLogManager();
-		BLogger logger = manager.demandLogger(solution.getName(), solution, handler);
-		logger.setLocalUser(user);
-		return logger;
-	}
-	
-	/**
-	 * Get the logger from {@code BLogManeger} map and set a specified {@code lifetime}. 
-	 * If there is no logger with given {@code solution} in the {@code BLogManeger} map, 
-	 * the new instance of {@code BLogger} will be created.
-	 * Note, If this logger is existing in the BLogManager then the given {@code handler}
-	 * won't be added
-	 * @param user
-	 * @param solution
-	 * @param handler
-	 * @param lifetime
-	 * @return
-	 */
-	public synchronized static BLogger getLogger(String user, BSolution solution, BHandler handler, int lifetime) {
-		BLogger logger = getLogger(user, solution, handler);
-		logger.lifetime = lifetime;
-		return logger;
-	}
-	
-	protected void configure(BLogManager manager) {
-		this.lifetime = manager.getProperty(BLogManager.LIFETIME_PROP, DEFAULT_LIFETIME);
-		this.flushPeriod = manager.getProperty(BLogManager.FLUSHPERIOD_PROP, DEFAULT_FLUSHPERIOD);
-		this.maxPoolSize = manager.getProperty(BLogManager.MAX_POOL_SIZE_PROP, DEFAULT_MAX_POOL_SIZE);
-	}
-	
-	protected BLogger(String name, BSolution solution, BLogManager manager) {
-		this.loggerName = name;
-		this.businessSolution = solution;
-		configure(manager);
-		CSVFileHandler handler = null;
-		try {
-			handler = new CSVFileHandler("%d/" + businessSolution.getPath() + "/" + businessSolution.getName() + "_%t%i.csv");
-		} catch (IOException e) {
-			System.err.println("Error on creating an instance of CSVFileHandler. " + e.getMessage());
-			return;
-		}
-		addHandler(handler);
-		// start flushing this records pool
-		this.startTime = System.currentTimeMillis();
-		startFlushing();
-	}
-	
-	protected BLogger(String name, BSolution solution, BHandler handler, BLogManager manager) {
-		this.loggerName = name;
-		this.businessSolution = solution;
-		configure(manager);
-		addHandler(handler);
-		// start flushing this records pool
-		this.startTime = System.currentTimeMillis();
-		startFlushing();
-	}
-	
-	/**
-	 * Flush the local cache {@code recordPool} periodically. If the records pool is empty
-	 * during {@code lifetime} then we'll close the BLoger instance.
-	 */ 
-	private final class FlushBLogRecords implements Runnable {
-		@Override
-		public void run() {
-			boolean finished = false;
-			try {
-				boolean isFlushed = true;
-				long timeWhenNotFlushed = 0;
-				while (true) {
-					isFlushed = dequeueAllRecords();
-					
-					if (!isFlushed) {
-						if (timeWhenNotFlushed == 0) {
-							// remember the current time when there weren't records in the pool
-							timeWhenNotFlushed = System.currentTimeMillis();
-						}
-						// logger had expired by lapse of time
-						if (System.currentTimeMillis() - timeWhenNotFlushed > lifetime) {
-							finished = true;
-							break;
-						}
-					} else {
-						// refresh the time if we found records during lifetime
-						timeWhenNotFlushed = 0;
-					}
-					
-					Thread.sleep(flushPeriod);
-				}
-			} catch(InterruptedException e) {
-				System.err.println("The flushing thread '" + loggerName + "' was forcibly finished " 
-						+ this.getClass().getCanonicalName());
-			} finally {
-				//close all the handlers
-				// if this thread is completing by itself (lifetime)
-				if (finished) {
-					shutDown();
-				} else {
-					// otherwise, it has been closed by someone else (somebody invoked a close() method)
-				}
-			}
-		}
-	}
-	
-	/**
-	 * Start thread that will flush the pool of records {@code recordPool} periodically
-	 */
-	private void startFlushing() {
-		this.flushThread.start();
-	}
-	
-	/**
-	 * Force to stop flushing the pool of records {@code recordPool}
-	 * This method will be invoked by ShutdownHook thread ( see {@link BLogManager} constructor)
-	 */
-	protected synchronized void close() {
-		// stop flushing thread if it's running
-		try {
-			if (flushThread.isAlive()) {
-				flushThread.interrupt();
-				flushThread.join(40000);
-			}
-		} catch (InterruptedException ie) {
-			System.err.println("Error on close() " + getClass().getCanonicalName() + " " + ie.getMessage());
-		} finally {
-			if (!flushThread.isAlive()) {
-				shutDown();
-			} else {
-				System.err.println("Interrupted thread is alive " + getClass().getCanonicalName());
-			}
-		}
-	}
-	
-	/**
-	 * Shut down this logger and remove it from the {@link BLogManager}.
-	 * It also closes and removes all the associated handlers.  
-	 */
-	private synchronized void shutDown() {
-		// flush all the records in the pool
-		dequeueAllRecords();
-		// close & remove all the handlers
-		for (BHandler h : getHandlers()) {
-			h.close();
-			removeHandler(h);
-		}
-		BLogManager.getLogManager().loggers.remove(this.getLoggerName());
-		System.err.println("BLogger " + this.loggerName + " has been closed");
-	}
-	
-	/**
-	 * Write the message down into business logs with a default messageType {@code MessageType.INFO}
-	 * and business operation {@code BOperation.EMPTY}. 
-	 * If you want to write the message with your own business operation which is absent 
-	 * in the {@code BOperation} you need to use {@code BOperation.EMPTY} and then set 
-	 * your operation using {@code setOperation} method .
-	 * @param message 
-	 * 				message text
-	 */
-	public void log(String message) {
-		log(message, BOperation.EMPTY);
-	}
-	
-	/**
-	 * Write the message down into business logs with a default {@code MessageType.INFO}. 
-	 * If you want to write the message with your own business operation which is absent 
-	 * in the {@code BOperation} you need to use {@code BOperation.EMPTY} and then set 
-	 * your operation using {@code setOperation} method  method of {@code BOperation} enum.
-	 * 
-	 * @param message message text
-	 * @param operation business operation
-	 */
-	public void log(String message, BOperation operation) {
-		log(message, MessageType.INFO, operation);
-	}
-	
-	/**
-	 * Write the message down into business logs with a default {@code BOperation.EMPTY}. 
-	 * If you want to write the message with your own business operation which is absent 
-	 * in the {@code BOperation} you need to use {@code BOperation.EMPTY} and then set 
-	 * your operation using {@code setOperation} method of {@code BOperation} enum.
-	 * @deprecated use {@code log(message, messageType, operation)}
-	 * @param message
-	 * @param messageType
-	 */
-	public void log(String message, MessageType messageType) {
-		log(message, messageType, BOperation.EMPTY);
-	}
-	
-	/**
-	 * Write the message down into business logs with a given {@code messageType} and {@code operation}. 
-	 * If you want to write the message with your own business operation which is absent 
-	 * in the {@code BOperation} you need to use {@code BOperation.EMPTY} and set 
-	 * your operation using {@code setOperation} method of {@code BOperation} enum.
-	 * @param message
-	 * @param messageType
-	 * @param operation
-	 */
-	public void log(String message, MessageType messageType, BOperation operation) {
-		BLogRecord bLogRecord = createRecord(message);
-		bLogRecord.setOperation(operation);
-		bLogRecord.setMessageType(messageType);
-		log(bLogRecord);
-	} 
-	
-	protected BLogRecord createRecord(String message) {
-		BLogRecord bLogRecord = new BLogRecord(message);
-		bLogRecord.setUser(getLocalUser());
-		bLogRecord.setLoggerName(getLoggerName());
-		bLogRecord.setBusinessSolution(getBusinesSolution());
-		bLogRecord.setOperation(BOperation.EMPTY);
-		bLogRecord.setMessageType(MessageType.INFO);
-		return bLogRecord;
-	}
-	
-	/**
-     * Log a BLogRecord.
-     * <p>
-     * All the other logging methods in this class call through
-     * this method to actually perform any logging.  Subclasses can
-     * override this single method to capture all log activity.
-     *
-     * @param record the LogRecord to be published
-     */
-	protected void log(BLogRecord record) {
-		this.recordPool.add(record);
-		if (this.recordPool.size() > this.maxPoolSize) {
-			flushRecord(record);
-		}
-	}
-	
-	/**
-	 * Writes the record down into corresponding handlers 
-	 * @param record
-	 */
-	protected void flushRecord(BLogRecord record) {
-		BHandler targets[] = getHandlers();
-
-		if (targets != null) {
-			for (int i = 0; i < targets.length; i++) {
-				targets[i].publish(record);
-			}
-		}
-	}
-	
-	/**
-	 * Dequeues {@code this.recordPool}.<p>(Gets and removes all the 
-	 * records from the {@code this.recordPool} to write them down into 
-	 * corresponding handlers, see {@linkplain BLogger.flushRecord})
-	 * 
-	 * @return true if there were records in the pool 
-	 */
-	protected boolean dequeueAllRecords() {
-		boolean result = false;
-		while (!recordPool.isEmpty()) {
-			BLogRecord record = recordPool.poll();
-			if (record != null) {
-				flushRecord(record);
-			}
-			result = true;
-		}
-		
-		BHandler targets[] = getHandlers();
-		if (targets != null) {
-			for (int i = 0; i < targets.length; i++) {
-				targets[i].flush();
-			}
-		}
-		
-		return result;
-	}
-	
-	/**
-     * Add a log Handler to receive logging messages.
-     * @param	handler	a logging Handler
-     */
-	public synchronized void addHandler(BHandler handler) {
-		// Check for null handler
-		handler.getClass();
-		if (handlers == null) {
-			handlers = new ArrayList<BHandler>();
-		}
-		handlers.add(handler);
-	}
-
-    /**
-     * Remove a log Handler.
-     * <P>
-     * Returns silently if the given Handler is not found or is null
-     * @param	handler	a logging Handler
-     */
-	public synchronized void removeHandler(BHandler handler) {
-		if (handler == null) {
-			return;
-		}
-		if (handlers == null) {
-			return;
-		}
-		handlers.remove(handler);
-	}
-    
-	/**
-     * Get the Handlers associated with this logger.
-     * <p>
-     * @return  an array of all registered Handlers
-     */
-	public synchronized BHandler[] getHandlers() {
-		if (handlers == null) {
-			return emptyHandlers;
-		}
-		BHandler result[] = new BHandler[handlers.size()];
-		result = handlers.toArray(result);
-		return result;
-	}
-	
-	public String getLoggerName() {
-		return this.loggerName;
-	}
-	
-	public String getLocalUser() {
-		return localUser.get();
-	}
-	
-	public void setLocalUser(String user) {
-		this.localUser.set(user);
-	}
-	
-	public BSolution getBusinesSolution() {
-		return this.businessSolution;
-	}
-}
+package blogs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+/**
+ * <tt>BLogger</tt> class is useful to log business messages in efficient way into 
+ * convenient format. 
+ * <p>
+ * Every instance of <tt>BLogger</tt> class has its own local cache 
+ * to hold <tt>BLogRecord</tt>s and writes these records down into its handlers periodically. Only one
+ * instance of {@code BLogger} <strong>with a specified</strong> {@code loggerName} can be created.
+ * Thus only one thread can publish this pool records. But several threads are able to invoke 
+ * {@code getLogger()} method simultaneously. If there are no records in the 
+ * cache during a specified time-period {@code DEFAULT_LIFETIME}, the logger hibernates: 
+ * its flushing thread is finished and the handlers close their files. The logger is revived
+ * by the next record, no records are lost in between.
+ * <p>
+ * A Periodic of flushing the records pool is defined by {@code flushPeriod}.
+ * <p>
+ * The pool is limited by the amount of the records ({@code maxPoolSize}) and optionally by their 
+ * estimated size in bytes, per logger ({@code maxPoolBytes}) and for all the loggers (see 
+ * {@link BLogManager}). The records which don't fit are spilled or written down by the caller.
+ * The pool can also be kept encoded in direct memory (see {@link BLogOffHeapPool}),
+ * then it's limited by the size of its arena and the arenas of all the loggers by the budget 
+ * of {@link BLogManager}. The arenas are released while the logger hibernates.
+ * <p>
+ * The messages have a corresponding format <tt>BFormatter</tt>.
+ * <p>
+ * The drained records can be watched live through the subscriptions (see {@code subscribe()}).
+ * <p>
+ * The records of a business operation can be pooled at once through a scope (see {@code openScope()}).
+ */
+public class BLogger {
+	// we hold the records in a memory cache 
+	protected ConcurrentLinkedQueue<BLogRecord> recordPool = new ConcurrentLinkedQueue<BLogRecord>();
+	// amount of the records in the recordPool, a scope entry counts all its records
+	private final AtomicInteger pooledCount = new AtomicInteger();
+	// max amount of the records in the pool
+	protected int maxPoolSize;
+	protected int DEFAULT_MAX_POOL_SIZE = 5000; // 5000 records
+	// max estimated size of the pooled records in bytes, 0 - no limit (see BLogRecord.getEstimatedSize())
+	protected int maxPoolBytes;
+	// estimated size of the pooled records
+	private final AtomicLong pooledBytes = new AtomicLong();
+	// the manager keeps the global budget
+	private BLogManager manager;
+	// collapses identical records on every drain (null if it's switched off)
+	protected BLogRecordCoalescer coalescer;
+	// max amount of distinct records to be collapsed per drain, 0 - don't collapse
+	protected static final int DEFAULT_COALESCE_SIZE = 0;
+	// per-thread buffers used instead of the recordPool (null if they're switched off)
+	protected BLogStagingBuffers stagingBuffers;
+	// several queues used instead of the recordPool (null if they're switched off)
+	protected BLogStripedPool stripedPool;
+	// serialized records in direct memory used instead of the recordPool (null if it's switched off)
+	protected BLogOffHeapPool offHeapPool;
+	// max amount of the records buffered by a scope
+	protected int maxScopeSize;
+	// delivers the records to every handler by its own thread (null if the handlers are called in turn)
+	protected BLogDispatcher dispatcher;
+	// how long the logger waits for the handlers to consume the dispatched records on shut down
+	protected static final int DISPATCH_CLOSE_TIMEOUT = 30000; // 30 seconds
+	// how long close() waits for the flushing thread
+	protected static final int CLOSE_TIMEOUT = 40000; // 40 seconds
+	// amount of the records dequeued by the draining thread
+	private long drainedCount;
+	// local file for the records which don't fit into the pool (null if they're written by the caller thread)
+	protected BLogSpill spill;
+	// write-ahead journal of the pooled records (null if it's switched off)
+	protected BLogJournal journal;
+	protected static final int DEFAULT_JOURNAL_SIZE = 64 * 1024 * 1024; // 64 Mb
+	// records left in the journal by the previous run and the journal position after them
+	private List<BLogRecord> journalRecovered;
+	private long journalRecoveredMark;
+	// journal positions to truncate when the dispatched records before them are flushed: {seq, mark}
+	private final ConcurrentLinkedQueue<long[]> journalPending = new ConcurrentLinkedQueue<long[]>();
+	// the spill marks waiting for the dispatcher consumers: {published count, spill mark}
+	private final ConcurrentLinkedQueue<long[]> spillPending = new ConcurrentLinkedQueue<long[]>();
+	
+	protected volatile Thread flushThread = new Thread(new FlushBLogRecords());
+	// the states of the flushing thread
+	private static final int RUNNING = 0;
+	private static final int HIBERNATING = 1; // the thread is releasing the resources
+	private static final int ASLEEP = 2; // the thread is finished till the next record
+	private static final int CLOSED = 3;
+	private volatile int state = RUNNING;
+	// guards the state changes
+	private final Object lifecycle = new Object();
+	// it wakes the flushing thread up before the flush period has passed
+	private final Object flushSignal = new Object();
+	private boolean flushRequested;
+	// futures of flushAsync() waiting for the next drain
+	private final ConcurrentLinkedQueue<CompletableFuture<Void>> flushRequests = new ConcurrentLinkedQueue<CompletableFuture<Void>>();
+	// futures waiting for the dispatched records before the given sequence to be flushed
+	private final ConcurrentLinkedQueue<DispatchedFlush> dispatchedFlushes = new ConcurrentLinkedQueue<DispatchedFlush>();
+	//flush period
+	protected int flushPeriod; 
+	// default flush period in milliseconds
+	protected static final int DEFAULT_FLUSHPERIOD = 5000; // 5 seconds
+	// logger lifetime
+	protected int lifetime;
+	// default logger lifetime during which there are no records in the pool (milliseconds)
+	protected static final int DEFAULT_LIFETIME = 1000 * 10 * 60; // 10 minutes
+	// a time when this flushThread has been started
+	protected long startTime;
+	protected List<BHandler> handlers;
+	protected static final BHandler emptyHandlers[] = new BHandler[0];
+	protected String loggerName;
+	// Every thread may has its own user
+	protected ThreadLocal<String> localUser = new ThreadLocal<String>();
+	protected BSolution businessSolution;
+	// see BLogRegistry
+	protected int solutionId;
+	// live tail subscriptions (see BLogManager)
+	protected BLogSubscriptions subscriptions;
+	
+	/**
+	 * Get the logger from {@code BLogManeger} map. If there is no logger with a given {@code solution}
+	 * in the {@code BLogManeger} map, the new instance of {@code BLogger} with the default
+	 * {@code CSVFileHandler} will be created.
+	 * @param user current user name
+	 * @param solution specified business solution
+	 * @return
+	 */
+	public static BLogger getLogger(String user, BSolution solution) {
+		BLogManager manager = BLogManager.getLogManager();
+		BLogger logger = manager.demandLogger(solution.getName(), solution);
+		logger.setLocalUser(user);	
+		return logger;
+	}
+	
+	/**
+	 * Get the logger from {@code BLogManeger} map. If there is no logger with a given {@code solution}
+	 * in the {@code BLogManeger} map, the new instance of {@code BLogger} with a given 
+	 * {@code handler} will be created.
+	 * Note, If this logger is existing in the BLogManager then the given {@code handler}
+	 * won't be added
+	 * @param user current user name
+	 * @param solution specified business solution
+	 * @param handler specified handler
+	 * @return
+	 */
+	public static BLogger getLogger(String user, BSolution solution, BHandler handler) {
+		BLogManager manager = BLogManager.getLogManager();
+		BLogger logger = manager.demandLogger(solution.getName(), solution, handler);
+		logger.setLocalUser(user);
+		return logger;
+	}
+	
+	/**
+	 * Get the logger from {@code BLogManeger} map and set a specified {@code lifetime}. 
+	 * If there is no logger with given {@code solution} in the {@code BLogManeger} map, 
+	 * the new instance of {@code BLogger} will be created.
+	 * Note, If this logger is existing in the BLogManager then the given {@code handler}
+	 * won't be added
+	 * @param user
+	 * @param solution
+	 * @param handler
+	 * @param lifetime
+	 * @return
+	 */
+	public static BLogger getLogger(String user, BSolution solution, BHandler handler, int lifetime) {
+		BLogger logger = getLogger(user, solution, handler);
+		logger.lifetime = lifetime;
+		return logger;
+	}
+	
+	/**
+	 * Get the logger of a business solution which may be absent in the {@code BSolution}. 
+	 * The solution is registered in {@link BLogRegistry} on its first use, it can be defined 
+	 * with its path in cfg.properties as well.
+	 * @param user current user name
+	 * @param solution the name of the business solution
+	 * @return
+	 */
+	public static BLogger getLogger(String user, String solution) {
+		BLogManager manager = BLogManager.getLogManager();
+		BLogRegistry registry = BLogRegistry.getRegistry();
+		int id = registry.getSolutionId(solution);
+		BLogger logger = manager.demandLogger(registry.getSolutionName(id), id);
+		logger.setLocalUser(user);
+		return logger;
+	}
+	
+	protected void configure(BLogManager manager) {
+		this.subscriptions = manager.subscriptions;
+		this.lifetime = manager.getProperty(BLogManager.LIFETIME_PROP, DEFAULT_LIFETIME);
+		this.flushPeriod = manager.getProperty(BLogManager.FLUSHPERIOD_PROP, DEFAULT_FLUSHPERIOD);
+		this.maxPoolSize = manager.getProperty(BLogManager.MAX_POOL_SIZE_PROP, DEFAULT_MAX_POOL_SIZE);
+		this.maxPoolBytes = manager.getProperty(BLogManager.MAX_POOL_BYTES_PROP, 0);
+		this.maxScopeSize = manager.getProperty(BLogManager.SCOPE_SIZE_PROP, BLogScope.DEFAULT_MAX_SIZE);
+		this.manager = manager;
+		int coalesceSize = manager.getProperty(BLogManager.COALESCE_SIZE_PROP, DEFAULT_COALESCE_SIZE);
+		if (coalesceSize > 0) {
+			this.coalescer = new BLogRecordCoalescer(coalesceSize);
+		}
+		if (manager.getProperty(BLogManager.STAGING_PROP, false)) {
+			this.stagingBuffers = new BLogStagingBuffers(maxPoolSize);
+		} else if (manager.getProperty(BLogManager.OFFHEAP_PROP, false)) {
+			this.offHeapPool = new BLogOffHeapPool(
+					manager.getProperty(BLogManager.OFFHEAP_SIZE_PROP, BLogOffHeapPool.DEFAULT_ARENA_SIZE), manager);
+		} else {
+			int stripes = manager.getProperty(BLogManager.STRIPES_PROP, 1);
+			if (stripes > 1) {
+				String stripeBy = manager.getProperty(BLogManager.STRIPE_BY_PROP, BLogStripedPool.STRIPE_BY_THREAD);
+				this.stripedPool = new BLogStripedPool(stripes, maxPoolSize, stripeBy);
+			}
+		}
+		int dispatchSize = manager.getProperty(BLogManager.DISPATCH_SIZE_PROP, 0);
+		if (dispatchSize > 0) {
+			this.dispatcher = new BLogDispatcher(loggerName, dispatchSize);
+		}
+		if (manager.getProperty(BLogManager.SPILL_PROP, false)) {
+			String dir = manager.getProperty(BLogManager.SPILL_DIR_PROP, 
+					manager.getProperty(BLogManager.BLOGS_DIR_PROP, manager.getDefaultBaseDir()));
+			try {
+				this.spill = new BLogSpill(new File(dir, loggerName + ".spill"));
+			} catch (IOException e) {
+				System.err.println("Error on opening the spill of " + loggerName + ". " + e.getMessage());
+			}
+		}
+		if (manager.getProperty(BLogManager.JOURNAL_PROP, false)) {
+			String dir = manager.getProperty(BLogManager.JOURNAL_DIR_PROP, 
+					manager.getProperty(BLogManager.BLOGS_DIR_PROP, manager.getDefaultBaseDir()));
+			int size = manager.getProperty(BLogManager.JOURNAL_SIZE_PROP, DEFAULT_JOURNAL_SIZE);
+			try {
+				this.journal = new BLogJournal(new File(dir, loggerName + ".journal"), size);
+				// they'll be re-published by the flushing thread
+				this.journalRecovered = journal.recover();
+				this.journalRecoveredMark = journal.checkpoint();
+			} catch (IOException e) {
+				System.err.println("Error on opening the journal of " + loggerName + ". " + e.getMessage());
+			}
+		}
+		if (dispatcher != null) {
+			dispatcher.setFlushListener(new Runnable() {
+				@Override
+				public void run() {
+					if (journal != null) {
+						truncateDispatchedJournal();
+					}
+					if (spill != null) {
+						commitDispatchedSpill();
+					}
+					completeDispatchedFlushes();
+				}
+			});
+		}
+	}
+	
+	protected BLogger(String name, BSolution solution, BLogManager manager) {
+		this(name, solution.ordinal(), manager);
+	}
+	
+	protected BLogger(String name, int solutionId, BLogManager manager) {
+		BLogRegistry registry = BLogRegistry.getRegistry();
+		this.loggerName = name;
+		this.solutionId = solutionId;
+		this.businessSolution = registry.getSolution(solutionId);
+		configure(manager);
+		CSVFileHandler handler = null;
+		try {
+			handler = new CSVFileHandler("%d/" + registry.getSolutionPath(solutionId) + "/" 
+					+ registry.getSolutionName(solutionId) + "_%t%i.csv");
+		} catch (IOException e) {
+			System.err.println("Error on creating an instance of CSVFileHandler. " + e.getMessage());
+			return;
+		}
+		addHandler(manager.getProperty(BLogManager.BREAKER_PROP, false) ? protect(handler, manager) : handler);
+		// start flushing this records pool
+		this.startTime = System.currentTimeMillis();
+		startFlushing();
+	}
+	
+	/**
+	 * Wrap the handler in a circuit breaker, the records are spilled while the handler is failing
+	 * @param handler
+	 * @param manager
+	 * @return the breaker
+	 */
+	private BHandler protect(BHandler handler, BLogManager manager) {
+		String dir = manager.getProperty(BLogManager.SPILL_DIR_PROP, 
+				manager.getProperty(BLogManager.BLOGS_DIR_PROP, manager.getDefaultBaseDir()));
+		BLogSpill breakerSpill = null;
+		try {
+			breakerSpill = new BLogSpill(new File(dir, loggerName + ".breaker.spill"));
+		} catch (IOException e) {
+			System.err.println("Error on opening the breaker spill of " + loggerName + ": " + e.getMessage());
+		}
+		return new CircuitBreakerBHandler(handler, null, breakerSpill);
+	}
+	
+	protected BLogger(String name, BSolution solution, BHandler handler, BLogManager manager) {
+		this.loggerName = name;
+		this.businessSolution = solution;
+		this.solutionId = solution.ordinal();
+		configure(manager);
+		addHandler(handler);
+		// start flushing this records pool
+		this.startTime = System.currentTimeMillis();
+		startFlushing();
+	}
+	
+	/**
+	 * Flush the local cache {@code recordPool} periodically. If the records pool is empty
+	 * during {@code lifetime} then the BLogger instance hibernates.
+	 */ 
+	private final class FlushBLogRecords implements Runnable {
+		@Override
+		public void run() {
+			recoverJournal();
+			try {
+				boolean isFlushed = true;
+				long timeWhenNotFlushed = 0;
+				while (true) {
+					// the records logged before these requests are in the pool
+					List<CompletableFuture<Void>> requests = takeFlushRequests();
+					isFlushed = dequeueAllRecords();
+					completeFlushRequests(requests);
+					
+					if (!isFlushed) {
+						if (timeWhenNotFlushed == 0) {
+							// remember the current time when there weren't records in the pool
+							timeWhenNotFlushed = System.currentTimeMillis();
+						}
+						// logger had expired by lapse of time
+						if (System.currentTimeMillis() - timeWhenNotFlushed > lifetime) {
+							if (hibernate()) {
+								break;
+							}
+							// it has been revived meanwhile
+							timeWhenNotFlushed = 0;
+						}
+					} else {
+						// refresh the time if we found records during lifetime
+						timeWhenNotFlushed = 0;
+					}
+					
+					waitForNextFlush();
+				}
+			} catch(InterruptedException e) {
+				// it has been closed by someone else (somebody invoked a close() method)
+				System.err.println("The flushing thread '" + loggerName + "' was forcibly finished " 
+						+ this.getClass().getCanonicalName());
+			}
+		}
+	}
+	
+	/**
+	 * Release the resources of the idle logger. The records pooled before the callers have seen
+	 * the logger hibernating are written down and flushed by the dispatcher consumers if there are
+	 * any, the consumers sleep till the logger is revived, then the handlers close their files.
+	 * @return true if the flushing thread has to finish, false if the logger has been revived meanwhile
+	 */
+	private boolean hibernate() {
+		synchronized (lifecycle) {
+			if (state != RUNNING) {
+				return true;
+			}
+			state = HIBERNATING;
+		}
+		List<CompletableFuture<Void>> requests = takeFlushRequests();
+		dequeueAllRecords(true);
+		completeFlushRequests(requests);
+		// the consumers mustn't write into the handlers which are releasing their resources
+		if (dispatcher != null && !dispatcher.hibernate(DISPATCH_CLOSE_TIMEOUT)) {
+			synchronized (lifecycle) {
+				if (state == HIBERNATING) {
+					state = RUNNING;
+				}
+			}
+			return false;
+		}
+		for (BHandler handler : getHandlers()) {
+			handler.hibernate();
+		}
+		synchronized (lifecycle) {
+			if (state == HIBERNATING) {
+				state = ASLEEP;
+			}
+			if (state == RUNNING && dispatcher != null) {
+				// it has been revived meanwhile
+				dispatcher.wake();
+			}
+			return state != RUNNING;
+		}
+	}
+	
+	/**
+	 * Revive the hibernating logger. It's called after the record has been pooled, so
+	 * either the hibernating thread or the new one writes it down.
+	 */
+	private void wake() {
+		synchronized (lifecycle) {
+			if (state == HIBERNATING) {
+				// the hibernating thread goes on
+				state = RUNNING;
+			} else if (state == ASLEEP) {
+				state = RUNNING;
+				if (dispatcher != null) {
+					dispatcher.wake();
+				}
+				flushThread = new Thread(new FlushBLogRecords());
+				startFlushing();
+			}
+		}
+	}
+	
+	/**
+	 * @return true if the logger is hibernating (see {@code lifetime})
+	 */
+	public boolean isHibernating() {
+		int current = state;
+		return current == HIBERNATING || current == ASLEEP;
+	}
+	
+	/**
+	 * Start thread that will flush the pool of records {@code recordPool} periodically
+	 */
+	private void startFlushing() {
+		this.flushThread.start();
+	}
+	
+	/**
+	 * Force to stop flushing the pool of records {@code recordPool}
+	 * This method will be invoked by ShutdownHook thread ( see {@link BLogManager} constructor)
+	 */
+	protected void close() {
+		close(CLOSE_TIMEOUT + DISPATCH_CLOSE_TIMEOUT);
+	}
+	
+	/**
+	 * Stop the flushing thread without waiting for it. The logger can't be revived any more,
+	 * {@code close(timeout)} completes the shut down. 
+	 */
+	void beginClose() {
+		Thread thread;
+		synchronized (lifecycle) {
+			state = CLOSED;
+			thread = flushThread;
+		}
+		thread.interrupt();
+	}
+	
+	/**
+	 * Stop flushing the pool, write down the pooled records and close the handlers
+	 * within the given time. 
+	 * @param timeout max time to wait for the flushing thread and the handlers (milliseconds)
+	 * @return amount of the records written down by the shut down or -1 if the flushing thread 
+	 *         hasn't stopped in time (see {@code getPendingCount()})
+	 */
+	protected long close(long timeout) {
+		long deadline = System.currentTimeMillis() + timeout;
+		beginClose();
+		Thread thread = flushThread;
+		// stop flushing thread if it's running
+		try {
+			if (thread.isAlive()) {
+				thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+			}
+		} catch (InterruptedException ie) {
+			System.err.println("Error on close() " + getClass().getCanonicalName() + " " + ie.getMessage());
+		}
+		if (thread.isAlive()) {
+			System.err.println("Interrupted thread is alive " + getClass().getCanonicalName());
+			return -1;
+		}
+		return shutDown(deadline);
+	}
+	
+	/**
+	 * Get the amount of the records which haven't been written down yet: the pooled ones and 
+	 * the ones the dispatched handlers haven't flushed. The spilled records aren't counted, 
+	 * they're kept till the next run.
+	 * @return approximate amount of the pending records
+	 */
+	public long getPendingCount() {
+		long result = pooledCount.get();
+		if (stagingBuffers != null) {
+			result += stagingBuffers.size();
+		}
+		if (offHeapPool != null) {
+			result += offHeapPool.size();
+		}
+		if (stripedPool != null) {
+			for (int i = 0; i < stripedPool.getStripeCount(); i++) {
+				result += stripedPool.getSize(i);
+			}
+		}
+		if (dispatcher != null) {
+			result += dispatcher.getPublishedCount() - dispatcher.getFlushedCount();
+		}
+		return result;
+	}
+	
+	/**
+	 * Shut down this logger and remove it from the {@link BLogManager}.
+	 * It also closes and removes all the associated handlers.  
+	 * @param deadline the time the dispatched handlers are waited for till
+	 * @return amount of the records written down
+	 */
+	private synchronized long shutDown(long deadline) {
+		long journalMark = journal != null ? journal.checkpoint() : 0;
+		List<CompletableFuture<Void>> requests = takeFlushRequests();
+		long drainedBefore = drainedCount;
+		// flush all the records in the pool
+		dequeueAllRecords(true);
+		completeFlushRequests(requests);
+		long written = drainedCount - drainedBefore;
+		boolean drained = true;
+		if (dispatcher != null) {
+			// let the handlers consume the dispatched records
+			long wait = Math.min(DISPATCH_CLOSE_TIMEOUT, deadline - System.currentTimeMillis());
+			drained = dispatcher.close(Math.max(1, wait));
+			written -= dispatcher.getPublishedCount() - dispatcher.getFlushedCount();
+		}
+		if (journal != null) {
+			if (drained) {
+				journal.truncate(journalMark);
+			}
+			journal.close();
+		}
+		if (dispatcher != null) {
+			completeDispatchedFlushes();
+		}
+		// the requests which can't be completed any more
+		IOException closed = new IOException("BLogger " + loggerName + " has been closed");
+		completeFlushRequests(takeFlushRequests(), closed);
+		DispatchedFlush pending;
+		while ((pending = dispatchedFlushes.poll()) != null) {
+			completeFlushRequests(pending.requests, closed);
+		}
+		if (spill != null) {
+			if (dispatcher != null) {
+				commitDispatchedSpill();
+			}
+			spill.close();
+		}
+		// close & remove all the handlers
+		for (BHandler h : getHandlers()) {
+			if (h instanceof AsyncBHandler) {
+				// its writer thread mustn't hold the shut down past the deadline
+				((AsyncBHandler) h).close(deadline - System.currentTimeMillis());
+			} else {
+				h.close();
+			}
+			removeHandler(h);
+		}
+		BLogManager.getLogManager().loggers.remove(this.getLoggerName());
+		BLogManager.getLogManager().warmLoggers.remove(this.getLoggerName(), this);
+		System.err.println("BLogger " + this.loggerName + " has been closed");
+		return Math.max(0, written);
+	}
+	
+	/**
+	 * Flush all the records logged before this call and force them to the storage device
+	 * asynchronously. The pool is drained by the flushing thread without waiting for the flush 
+	 * period, and all the requests made before the drain share one force of the handlers.
+	 * 
+	 * @return the future that is completed when the records are durable, or completed 
+	 * exceptionally if a handler can't be forced or the logger has been closed
+	 */
+	public CompletableFuture<Void> flushAsync() {
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		if (state == CLOSED) {
+			future.completeExceptionally(new IOException("BLogger " + loggerName + " has been closed"));
+			return future;
+		}
+		flushRequests.add(future);
+		if (state != RUNNING) {
+			wake();
+		}
+		synchronized (flushSignal) {
+			flushRequested = true;
+			flushSignal.notifyAll();
+		}
+		return future;
+	}
+	
+	/**
+	 * Wait for the flush period or a flush request
+	 * @throws InterruptedException
+	 */
+	private void waitForNextFlush() throws InterruptedException {
+		synchronized (flushSignal) {
+			if (!flushRequested) {
+				flushSignal.wait(flushPeriod);
+			}
+			flushRequested = false;
+		}
+	}
+	
+	private List<CompletableFuture<Void>> takeFlushRequests() {
+		List<CompletableFuture<Void>> requests = new ArrayList<CompletableFuture<Void>>();
+		CompletableFuture<Void> request;
+		while ((request = flushRequests.poll()) != null) {
+			requests.add(request);
+		}
+		return requests;
+	}
+	
+	/**
+	 * Complete the flush requests when the dequeued records are durable. If the records 
+	 * are dispatched, the requests wait for the consumers to flush them.
+	 * @param requests
+	 */
+	private void completeFlushRequests(List<CompletableFuture<Void>> requests) {
+		if (requests.isEmpty()) {
+			return;
+		}
+		if (dispatcher != null) {
+			dispatchedFlushes.add(new DispatchedFlush(dispatcher.getPublishedCount(), requests));
+			completeDispatchedFlushes();
+			return;
+		}
+		completeFlushRequests(requests, syncHandlers());
+	}
+	
+	private void completeFlushRequests(List<CompletableFuture<Void>> requests, IOException error) {
+		for (CompletableFuture<Void> request : requests) {
+			if (error == null) {
+				request.complete(null);
+			} else {
+				request.completeExceptionally(error);
+			}
+		}
+	}
+	
+	/**
+	 * Force all the handlers
+	 * @return the first error or null if all the handlers have been forced
+	 */
+	private IOException syncHandlers() {
+		IOException error = null;
+		for (BHandler handler : getHandlers()) {
+			try {
+				handler.sync();
+			} catch (IOException e) {
+				if (error == null) {
+					error = e;
+				}
+			}
+		}
+		return error;
+	}
+	
+	/**
+	 * Flush requests waiting for the dispatcher consumers
+	 */
+	private static final class DispatchedFlush {
+		final long seq;
+		final List<CompletableFuture<Void>> requests;
+		
+		DispatchedFlush(long seq, List<CompletableFuture<Void>> requests) {
+			this.seq = seq;
+			this.requests = requests;
+		}
+	}
+	
+	/**
+	 * Complete the flush requests whose records have been flushed by all the 
+	 * dispatcher consumers. The handlers are forced once for all of them.
+	 */
+	private void completeDispatchedFlushes() {
+		synchronized (dispatchedFlushes) {
+			long flushed = dispatcher.getFlushedCount();
+			List<CompletableFuture<Void>> requests = new ArrayList<CompletableFuture<Void>>();
+			DispatchedFlush pending;
+			while ((pending = dispatchedFlushes.peek()) != null && pending.seq <= flushed) {
+				requests.addAll(pending.requests);
+				dispatchedFlushes.poll();
+			}
+			if (!requests.isEmpty()) {
+				completeFlushRequests(requests, syncHandlers());
+			}
+		}
+	}
+	
+	/**
+	 * Write the message down into business logs with a default messageType {@code MessageType.INFO}
+	 * and business operation {@code BOperation.EMPTY}. 
+	 * If you want to write the message with your own business operation which is absent 
+	 * in the {@code BOperation} you need to use {@code BOperation.EMPTY} and then set 
+	 * your operation using {@code setOperation} method .
+	 * @param message 
+	 * 				message text
+	 */
+	public void log(String message) {
+		log(message, BOperation.EMPTY);
+	}
+	
+	/**
+	 * Write the message down into business logs with a default {@code MessageType.INFO}. 
+	 * If you want to write the message with your own business operation which is absent 
+	 * in the {@code BOperation} you need to use {@code BOperation.EMPTY} and then set 
+	 * your operation using {@code setOperation} method  method of {@code BOperation} enum.
+	 * 
+	 * @param message message text
+	 * @param operation business operation
+	 */
+	public void log(String message, BOperation operation) {
+		log(message, MessageType.INFO, operation);
+	}
+	
+	/**
+	 * Write the message down into business logs with a default {@code BOperation.EMPTY}. 
+	 * If you want to write the message with your own business operation which is absent 
+	 * in the {@code BOperation} you need to use {@code BOperation.EMPTY} and then set 
+	 * your operation using {@code setOperation} method of {@code BOperation} enum.
+	 * @deprecated use {@code log(message, messageType, operation)}
+	 * @param message
+	 * @param messageType
+	 */
+	public void log(String message, MessageType messageType) {
+		log(message, messageType, BOperation.EMPTY);
+	}
+	
+	/**
+	 * Write the message down into business logs with a given {@code messageType} and {@code operation}. 
+	 * If you want to write the message with your own business operation which is absent 
+	 * in the {@code BOperation} you need to use {@code BOperation.EMPTY} and set 
+	 * your operation using {@code setOperation} method of {@code BOperation} enum.
+	 * @param message
+	 * @param messageType
+	 * @param operation
+	 */
+	public void log(String message, MessageType messageType, BOperation operation) {
+		BLogRecord bLogRecord = createRecord(message);
+		bLogRecord.setOperation(operation);
+		bLogRecord.setMessageType(messageType);
+		log(bLogRecord);
+	} 
+	
+	/**
+	 * Write the message down into business logs with a given {@code messageType}, {@code operation}
+	 * and context fields in addition to the fields of the current thread (see {@link BLogContext}).
+	 * @param message
+	 * @param messageType
+	 * @param operation
+	 * @param fields the keys and the values one after another: key1, value1, key2, value2...
+	 * @exception IllegalArgumentException if a key has no value (the length of {@code fields} is odd)
+	 */
+	public void log(String message, MessageType messageType, BOperation operation, String... fields) {
+		if (fields.length % 2 != 0) {
+			throw new IllegalArgumentException("the field " + fields[fields.length - 1] + " has no value");
+		}
+		BLogRecord bLogRecord = createRecord(message);
+		bLogRecord.setOperation(operation);
+		bLogRecord.setMessageType(messageType);
+		for (int i = 0; i < fields.length; i += 2) {
+			bLogRecord.setField(fields[i], fields[i + 1]);
+		}
+		log(bLogRecord);
+	}
+	
+	/**
+	 * Write the message down into business logs with a given {@code messageType} and the code of 
+	 * a business operation which may be absent in the {@code BOperation}. The operation is registered 
+	 * in {@link BLogRegistry} on its first use, it can be defined in cfg.properties as well.
+	 * @param message
+	 * @param messageType
+	 * @param operation the code of the operation
+	 */
+	public void logCode(String message, MessageType messageType, String operation) {
+		BLogRecord bLogRecord = createRecord(message);
+		bLogRecord.setOperationId(BLogRegistry.getRegistry().registerOperation(operation));
+		bLogRecord.setMessageType(messageType);
+		log(bLogRecord);
+	}
+	
+	protected BLogRecord createRecord(String message) {
+		BLogRecord bLogRecord = new BLogRecord(message);
+		bLogRecord.setUser(getLocalUser());
+		bLogRecord.setLoggerName(getLoggerName());
+		bLogRecord.setSolutionId(solutionId);
+		bLogRecord.setOperation(BOperation.EMPTY);
+		bLogRecord.setMessageType(MessageType.INFO);
+		BLogContext.copyTo(bLogRecord);
+		return bLogRecord;
+	}
+	
+	/**
+     * Log a BLogRecord.
+     * <p>
+     * All the other logging methods in this class call through
+     * this method to actually perform any logging.  Subclasses can
+     * override this single method to capture all log activity.
+     *
+     * @param record the LogRecord to be published
+     */
+	protected void log(BLogRecord record) {
+		if (this.journal == null) {
+			poolRecord(record);
+		} else {
+			int token = this.journal.enter();
+			try {
+				if (record instanceof BLogScope.Batch) {
+					for (BLogRecord scoped : ((BLogScope.Batch) record).getRecords()) {
+						this.journal.append(scoped);
+					}
+				} else {
+					this.journal.append(record);
+				}
+				poolRecord(record);
+			} finally {
+				this.journal.exit(token);
+			}
+		}
+		if (this.state != RUNNING) {
+			wake();
+		}
+	}
+	
+	/**
+	 * Put the record to the pool
+	 * @param record
+	 */
+	private void poolRecord(BLogRecord record) {
+		// once the spill is active, the records follow the spilled ones
+		if (this.spill != null && spillRecord(record, false)) {
+			return;
+		}
+		// the serialized records aren't on the heap, the arena is their budget
+		if (this.offHeapPool != null) {
+			boolean added = record instanceof BLogScope.Batch
+					? this.offHeapPool.addAll(((BLogScope.Batch) record).getRecords())
+					: this.offHeapPool.add(record);
+			if (!added) {
+				overflow(record);
+			}
+			return;
+		}
+		if (!reserveBytes(record)) {
+			overflow(record);
+			return;
+		}
+		if (this.stagingBuffers != null) {
+			if (!this.stagingBuffers.add(record)) {
+				releaseBytes(record);
+				overflow(record);
+			}
+			return;
+		}
+		if (this.stripedPool != null) {
+			if (!this.stripedPool.add(record)) {
+				releaseBytes(record);
+				overflow(record);
+			}
+			return;
+		}
+		int count = BLogScope.countOf(record);
+		if (this.spill != null && this.pooledCount.get() + count > this.maxPoolSize) {
+			releaseBytes(record);
+			overflow(record);
+			return;
+		}
+		this.recordPool.add(record);
+		if (this.pooledCount.addAndGet(count) > this.maxPoolSize) {
+			flushRecord(record);
+		}
+	}
+	
+	/**
+	 * Reserve the estimated size of the record in the budgets of this logger and the manager
+	 * @param record
+	 * @return false if a budget is exceeded
+	 */
+	private boolean reserveBytes(BLogRecord record) {
+		if (this.maxPoolBytes <= 0 && !this.manager.hasPoolBudget()) {
+			return true;
+		}
+		int size = record.getEstimatedSize();
+		long pooled = this.pooledBytes.addAndGet(size);
+		if ((this.maxPoolBytes > 0 && pooled > this.maxPoolBytes) || !this.manager.reservePoolBytes(size)) {
+			this.pooledBytes.addAndGet(-size);
+			return false;
+		}
+		record.pooledBytes = size;
+		return true;
+	}
+	
+	/**
+	 * Release the size of the dequeued record reserved by {@code reserveBytes()}
+	 * @param record
+	 */
+	private void releaseBytes(BLogRecord record) {
+		int size = record.pooledBytes;
+		if (size > 0) {
+			record.pooledBytes = 0;
+			this.pooledBytes.addAndGet(-size);
+			this.manager.releasePoolBytes(size);
+		}
+	}
+	
+	private void releaseBytes(List<BLogRecord> records) {
+		long size = 0;
+		for (BLogRecord record : records) {
+			size += record.pooledBytes;
+			record.pooledBytes = 0;
+		}
+		if (size > 0) {
+			this.pooledBytes.addAndGet(-size);
+			this.manager.releasePoolBytes(size);
+		}
+	}
+	
+	/**
+	 * @return estimated size of the pooled records in bytes, it's only counted if
+	 *         a budget is defined (see {@code maxPoolBytes})
+	 */
+	public long getPooledBytes() {
+		return pooledBytes.get();
+	}
+	
+	/**
+	 * Open a scope of a business operation: its records are buffered by the current thread
+	 * and put to the pool at once when it's committed (see {@link BLogScope})
+	 * @return the scope
+	 */
+	public BLogScope openScope() {
+		return new BLogScope(this, maxScopeSize);
+	}
+	
+	/**
+	 * @return the pool of the serialized records or null if the records are pooled on the heap
+	 */
+	public BLogOffHeapPool getOffHeapPool() {
+		return offHeapPool;
+	}
+	
+	/**
+	 * Handle the record which doesn't fit into the pool. It's put to the {@code spill} if it's
+	 * defined, otherwise we write the record down by ourselves.
+	 * @param record
+	 */
+	private void overflow(BLogRecord record) {
+		if (this.spill == null || !spillRecord(record, true)) {
+			flushRecord(record);
+		}
+	}
+	
+	/**
+	 * Append the record to the {@code spill}, the records of a scope are appended one by one
+	 * @param record
+	 * @param activate activate the spill if it isn't active
+	 * @return false if the spill isn't active (and {@code activate} is false) or the record can't be written
+	 */
+	private boolean spillRecord(BLogRecord record, boolean activate) {
+		if (!(record instanceof BLogScope.Batch)) {
+			return this.spill.append(record, activate);
+		}
+		BLogRecord records[] = ((BLogScope.Batch) record).getRecords();
+		if (!this.spill.append(records[0], activate)) {
+			return false;
+		}
+		for (int i = 1; i < records.length; i++) {
+			if (!this.spill.append(records[i], true)) {
+				flushRecord(records[i]);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes the record down into corresponding handlers. If the {@code dispatcher} is
+	 * defined the record is only put to its sequence and the handlers consume it by 
+	 * themselves.
+	 * @param record
+	 */
+	protected void flushRecord(BLogRecord record) {
+		if (record instanceof BLogScope.Batch) {
+			// the records of a scope are written one after another
+			for (BLogRecord scoped : ((BLogScope.Batch) record).getRecords()) {
+				flushRecord(scoped);
+			}
+			return;
+		}
+		// live tail subscribers
+		subscriptions.publish(record);
+		if (dispatcher != null) {
+			try {
+				dispatcher.publish(record);
+				return;
+			} catch (InterruptedException e) {
+				// we're being closed, so don't wait for the slow handlers
+				Thread.currentThread().interrupt();
+			}
+		}
+		BHandler targets[] = getHandlers();
+
+		if (targets != null) {
+			for (int i = 0; i < targets.length; i++) {
+				targets[i].publish(record);
+			}
+		}
+	}
+	
+	/**
+	 * Dequeues {@code this.recordPool}.<p>(Gets and removes all the 
+	 * records from the {@code this.recordPool} to write them down into 
+	 * corresponding handlers, see {@linkplain BLogger.flushRecord})
+	 * <p>
+	 * If the {@code stagingBuffers} are defined the records are harvested from the 
+	 * buffers of all the threads instead of the {@code this.recordPool}. The same way
+	 * the records are drained from all the stripes if the {@code stripedPool} is defined
+	 * and decoded from the arena of the {@code offHeapPool} if it's defined.
+	 * If the {@code coalescer} is defined the identical records are collapsed 
+	 * into one record before they're written down. 
+	 * 
+	 * @return true if there were records in the pool 
+	 */
+	protected boolean dequeueAllRecords() {
+		return dequeueAllRecords(false);
+	}
+	
+	/**
+	 * Dequeue the pool, see {@code dequeueAllRecords()}
+	 * @param release release the direct memory of the {@code offHeapPool} as well
+	 * @return true if there were records in the pool
+	 */
+	private boolean dequeueAllRecords(boolean release) {
+		boolean result = false;
+		// all the records journaled before the mark are in the pool
+		long journalMark = journal != null ? journal.checkpoint() : 0;
+		if (stagingBuffers != null) {
+			List<BLogRecord> records = stagingBuffers.harvest();
+			releaseBytes(records);
+			result = publishRecords(records);
+		} else if (offHeapPool != null) {
+			result = publishRecords(release ? offHeapPool.release() : offHeapPool.drain());
+		} else if (stripedPool != null) {
+			List<BLogRecord> records = stripedPool.drain();
+			releaseBytes(records);
+			result = publishRecords(records);
+		} else if (coalescer != null) {
+			List<BLogRecord> records = new ArrayList<BLogRecord>();
+			BLogRecord record;
+			while ((record = recordPool.poll()) != null) {
+				pooledCount.addAndGet(-BLogScope.countOf(record));
+				records.add(record);
+			}
+			releaseBytes(records);
+			result = publishRecords(records);
+		} else {
+			while (!recordPool.isEmpty()) {
+				BLogRecord record = recordPool.poll();
+				if (record != null) {
+					int count = BLogScope.countOf(record);
+					pooledCount.addAndGet(-count);
+					releaseBytes(record);
+					flushRecord(record);
+					drainedCount += count;
+				}
+				result = true;
+			}
+		}
+		
+		flushHandlers();
+		
+		if (spill != null && spill.isActive()) {
+			// the spilled records are newer than the pooled ones
+			result |= replaySpill();
+		}
+		
+		if (journal != null) {
+			commitJournal(journalMark);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Truncate the {@code journal} up to the given mark when the records before it have been
+	 * written down. If the records are dispatched, we have to wait for the consumers, 
+	 * so the mark is kept until they have flushed their handlers.
+	 * @param mark journal checkpoint taken before the records were dequeued
+	 */
+	private void commitJournal(long mark) {
+		if (dispatcher == null) {
+			journal.truncate(mark);
+			return;
+		}
+		journalPending.add(new long[] {dispatcher.getPublishedCount(), mark});
+		truncateDispatchedJournal();
+	}
+	
+	/**
+	 * Truncate the {@code journal} up to the pending marks whose records have been
+	 * flushed by all the dispatcher consumers
+	 */
+	private void truncateDispatchedJournal() {
+		synchronized (journalPending) {
+			long flushed = dispatcher.getFlushedCount();
+			long mark = -1;
+			long pending[];
+			while ((pending = journalPending.peek()) != null && pending[0] <= flushed) {
+				mark = pending[1];
+				journalPending.poll();
+			}
+			if (mark >= 0) {
+				journal.truncate(mark);
+			}
+		}
+	}
+	
+	/**
+	 * Re-publish the records left in the {@code journal} by the previous run
+	 */
+	private void recoverJournal() {
+		if (journalRecovered == null) {
+			return;
+		}
+		if (!journalRecovered.isEmpty()) {
+			System.err.println("BLogger " + loggerName + " recovers " + journalRecovered.size() + " records from the journal");
+			publishRecords(journalRecovered);
+			flushHandlers();
+		}
+		journalRecovered = null;
+		commitJournal(journalRecoveredMark);
+	}
+	
+	/**
+	 * Flush all the handlers
+	 */
+	private void flushHandlers() {
+		if (dispatcher != null) {
+			// the consumers flush their handlers when they catch up with the sequence
+			dispatcher.signal();
+		} else {
+			BHandler targets[] = getHandlers();
+			if (targets != null) {
+				for (int i = 0; i < targets.length; i++) {
+					targets[i].flush();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Replay the {@code spill} to the handlers by batches of {@code maxPoolSize} records.
+	 * A batch is removed from the spill when the handlers have been flushed. If the records are
+	 * dispatched, we have to wait for the consumers, so the batch is kept in the spill until they
+	 * have flushed their handlers and the next batches are read after it.
+	 * @return true if there were records in the spill
+	 */
+	private boolean replaySpill() {
+		boolean result = false;
+		try {
+			List<BLogRecord> records;
+			while (!(records = spill.readNext(maxPoolSize)).isEmpty()) {
+				publishRecords(records);
+				flushHandlers();
+				commitSpill(spill.getReadMark());
+				result = true;
+			}
+			if (spillPending.isEmpty()) {
+				// deactivate the empty spill, otherwise the last pending batch does it
+				spill.commit();
+			}
+		} catch (IOException e) {
+			System.err.println("Error on replaying the spill of " + loggerName + ". " + e.getMessage());
+		}
+		return result;
+	}
+	
+	/**
+	 * Remove the replayed records from the {@code spill} up to the given mark when they have
+	 * been written down, see {@code commitJournal()}
+	 * @param mark the read mark of the spill after the replayed records
+	 * @throws IOException
+	 */
+	private void commitSpill(long mark) throws IOException {
+		if (dispatcher == null) {
+			spill.commit(mark);
+			return;
+		}
+		spillPending.add(new long[] {dispatcher.getPublishedCount(), mark});
+		commitDispatchedSpill();
+	}
+	
+	/**
+	 * Commit the {@code spill} up to the pending marks whose records have been
+	 * flushed by all the dispatcher consumers
+	 */
+	private void commitDispatchedSpill() {
+		synchronized (spillPending) {
+			long flushed = dispatcher.getFlushedCount();
+			long mark = -1;
+			long pending[];
+			while ((pending = spillPending.peek()) != null && pending[0] <= flushed) {
+				mark = pending[1];
+				spillPending.poll();
+			}
+			if (mark >= 0) {
+				try {
+					spill.commit(mark);
+				} catch (IOException e) {
+					System.err.println("Error on committing the spill of " + loggerName + ". " + e.getMessage());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Writes the dequeued records down into corresponding handlers. The identical 
+	 * records are collapsed by the {@code coalescer} if it's defined.
+	 * @param records
+	 * @return true if there were records to write
+	 */
+	private boolean publishRecords(List<BLogRecord> records) {
+		for (BLogRecord record : records) {
+			drainedCount += BLogScope.countOf(record);
+		}
+		if (coalescer != null) {
+			synchronized (coalescer) {
+				for (BLogRecord record : records) {
+					if (record instanceof BLogScope.Batch) {
+						for (BLogRecord scoped : ((BLogScope.Batch) record).getRecords()) {
+							coalescer.add(scoped);
+						}
+					} else {
+						coalescer.add(record);
+					}
+				}
+				records = coalescer.drain();
+			}
+		}
+		for (BLogRecord record : records) {
+			flushRecord(record);
+		}
+		return !records.isEmpty();
+	}
+	
+	/**
+     * Add a log Handler to receive logging messages.
+     * @param	handler	a logging Handler
+     */
+	public synchronized void addHandler(BHandler handler) {
+		// Check for null handler
+		handler.getClass();
+		if (handlers == null) {
+			handlers = new ArrayList<BHandler>();
+		}
+		handlers.add(handler);
+		if (dispatcher != null) {
+			dispatcher.addHandler(handler);
+		}
+	}
+
+    /**
+     * Remove a log Handler.
+     * <P>
+     * Returns silently if the given Handler is not found or is null
+     * @param	handler	a logging Handler
+     */
+	public synchronized void removeHandler(BHandler handler) {
+		if (handler == null) {
+			return;
+		}
+		if (handlers == null) {
+			return;
+		}
+		handlers.remove(handler);
+		if (dispatcher != null) {
+			dispatcher.removeHandler(handler);
+		}
+	}
+    
+	/**
+     * Get the Handlers associated with this logger.
+     * <p>
+     * @return  an array of all registered Handlers
+     */
+	public synchronized BHandler[] getHandlers() {
+		if (handlers == null) {
+			return emptyHandlers;
+		}
+		BHandler result[] = new BHandler[handlers.size()];
+		result = handlers.toArray(result);
+		return result;
+	}
+	
+	/**
+	 * Get the amount of the records the given handler hasn't written down yet.
+	 * It's only known if the records are dispatched to the handlers independently.
+	 * @param handler
+	 * @return lag of the handler or -1 if it's unknown
+	 */
+	public long getHandlerLag(BHandler handler) {
+		if (dispatcher == null) {
+			return -1;
+		}
+		return dispatcher.getLag(handler);
+	}
+	
+	/**
+	 * Subscribe to the records of this logger's business solution as they are drained
+	 * (a live tail). A null field of the filter matches any value. The subscription must
+	 * be closed when it isn't needed any more.
+	 * @param user user or null for any
+	 * @param operation business operation or null for any
+	 * @param type message type or null for any
+	 * @param capacity max amount of the buffered records, the new records are dropped when it's full
+	 * @return the subscription
+	 * @see BLogManager#subscribe(BSolution, String, BOperation, MessageType, int)
+	 */
+	public BLogSubscription subscribe(String user, BOperation operation, MessageType type, int capacity) {
+		return subscriptions.subscribe(solutionId, user, operation, type, capacity, false);
+	}
+	
+	public String getLoggerName() {
+		return this.loggerName;
+	}
+	
+	public String getLocalUser() {
+		return localUser.get();
+	}
+	
+	public void setLocalUser(String user) {
+		this.localUser.set(user);
+	}
+	
+	/**
+	 * @return the business solution or null if it has been defined at runtime (see {@link BLogRegistry})
+	 */
+	public BSolution getBusinesSolution() {
+		return this.businessSolution;
+	}
+	
+	/**
+	 * @return the id of the business solution (see {@link BLogRegistry})
+	 */
+	public int getSolutionId() {
+		return this.solutionId;
+	}
+}
@@ -1,172 +1,253 @@
-package blogs;
-
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
-import java.io.Writer;
-
-public class BStreamHandler extends BHandler {
-	private OutputStream output;
-	private Writer writer;
-
-	// Private method to configure a StreamHandler from LogManager
-	// properties and/or default values as specified in the class
-	// javadoc.
-	private void configure() {
-	}
-
-	/**
-	 * Create a <tt>BStreamHandler</tt>, with no current output stream.
-	 */
-	public BStreamHandler() {
-		configure();
-	}
-
-	/**
-	 * Create a <tt>BStreamHandler</tt> with a given <tt>BFormatter</tt> and
-	 * output stream.
-	 * <p>
-	 * 
-	 * @param out
-	 *            the target output stream
-	 * @param formatter
-	 *            Formatter to be used to format output
-	 */
-	public BStreamHandler(OutputStream out, BFormatter formatter) {
-		configure();
-		setFormatter(formatter);
-		setOutputStream(out);
-	}
-
-	/**
-	 * Change the output stream.
-	 * <P>
-	 * If there is a current output stream then the <tt>BFormatter</tt>'s tail
-	 * string is written and the stream is flushed and closed. Then the output
-	 * stream is replaced with the new output stream.
-	 * 
-	 * @param out
-	 *            New output stream. May not be null.
-	 * 
-	 */
-	protected synchronized void setOutputStream(OutputStream out) {
-		if (out == null) {
-			throw new NullPointerException();
-		}
-		flushAndClose();
-		output = out;
-		String encoding = getEncoding();
-		if (encoding == null) {
-			writer = new OutputStreamWriter(output);
-		} else {
-			try {
-				writer = new OutputStreamWriter(output, encoding);
-			} catch (UnsupportedEncodingException ex) {
-				// This shouldn't happen. The setEncoding method
-				// should have validated that the encoding is OK.
-				getErrorManager().error("Unexpected exception " + ex.getMessage(), ex, ErrorManager.GENERIC_FAILURE);
-			}
-		}
-	}
-
-	/**
-	 * Set (or change) the character encoding used by this <tt>BHandler</tt>.
-	 * <p>
-	 * The encoding should be set before any <tt>BLogRecords</tt> are written to
-	 * the <tt>BHandler</tt>.
-	 * 
-	 * @param encoding
-	 *            The name of a supported character encoding. May be null, to
-	 *            indicate the default platform encoding.
-	 * 
-	 * @exception UnsupportedEncodingException
-	 *                if the named encoding is not supported.
-	 */
-	public void setEncoding(String encoding) throws java.io.UnsupportedEncodingException {
-		super.setEncoding(encoding);
-		if (output == null) {
-			return;
-		}
-		// Replace the current writer with a writer for the new encoding.
-		flush();
-		if (encoding == null) {
-			writer = new OutputStreamWriter(output);
-		} else {
-			writer = new OutputStreamWriter(output, encoding);
-		}
-	}
-
-	/**
-	 * Format and publish a <tt>BLogRecord</tt>.
-	 * <p>
-	 * The <tt>BStreamHandler</tt> first checks if there is an
-	 * <tt>OutputStream</tt> If not it silently returns. If so, it calls its
-	 * <tt>Formatter</tt> to format the record and then writes the result to the
-	 * current output stream.
-	 * <p>
-	 * If this is the first <tt>BLogRecord</tt> to be written to a given
-	 * <tt>OutputStream</tt>, the <tt>BFormatter</tt>'s "head" string is written
-	 * to the stream before the <tt>BLogRecord</tt> is written.
-	 * 
-	 * @param record
-	 *            description of the log event. A null record is silently
-	 *            ignored and is not published
-	 */
-	public synchronized void publish(BLogRecord record) {
-
-		String msg;
-		try {
-			msg = getFormatter().format(record);
-		} catch (Exception ex) {
-			// We don't want to throw an exception here, but we
-			// report the exception to any registered ErrorManager.
-			getErrorManager().error(ex.getMessage(), ex, ErrorManager.FORMAT_FAILURE);
-			return;
-		}
-
-		try {
-			writer.write(msg);
-		} catch (Exception ex) {
-			// We don't want to throw an exception here, but we
-			// report the exception to any registered ErrorManager.
-			getErrorManager().error(ex.getMessage(), ex, ErrorManager.WRITE_FAILURE);
-		}
-	}
-
-	/**
-	 * Flush any buffered messages.
-	 */
-	public synchronized void flush() {
-		if (writer != null) {
-			try {
-				writer.flush();
-			} catch (Exception ex) {
-				// We don't want to throw an exception here, but we
-				// report the exception to any registered ErrorManager.
-				getErrorManager().error(ex.getMessage(), ex, ErrorManager.WRITE_FAILURE);
-			}
-		}
-	}
-
-	private synchronized void flushAndClose() {
-		if (writer != null) {
-			try {
-				writer.flush();
-				writer.close();
-			} catch (Exception ex) {
-				// We don't want to throw an exception here, but we
-				// report the exception to any registered ErrorManager.
-				getErrorManager().error(ex.getMessage(), ex, ErrorManager.WRITE_FAILURE);
-			}
-			writer = null;
-			output = null;
-		}
-	}
-
-	/**
-	 * Close the current output stream.
-	 */
-	public synchronized void close() {
-		flushAndClose();
-	}
-}
+package blogs;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+public class BStreamHandler extends BHandler {
+	private OutputStream output;
+	private Writer writer;
+	// a time when the output has been forced last time
+	private long lastSync;
+
+	// Private method to configure a StreamHandler from LogManager
+	// properties and/or default values as specified in the class
+	// javadoc.
+	private void configure() {
+	}
+
+	/**
+	 * Create a <tt>BStreamHandler</tt>, with no current output stream.
+	 */
+	public BStreamHandler() {
+		configure();
+	}
+
+	/**
+	 * Create a <tt>BStreamHandler</tt> with a given <tt>BFormatter</tt> and
+	 * output stream.
+	 * <p>
+	 * 
+	 * @param out
+	 *            the target output stream
+	 * @param formatter
+	 *            Formatter to be used to format output
+	 */
+	public BStreamHandler(OutputStream out, BFormatter formatter) {
+		configure();
+		setFormatter(formatter);
+		setOutputStream(out);
+	}
+
+	/**
+	 * Change the output stream.
+	 * <P>
+	 * If there is a current output stream then the <tt>BFormatter</tt>'s tail
+	 * string is written and the stream is flushed and closed. Then the output
+	 * stream is replaced with the new output stream.
+	 * 
+	 * @param out
+	 *            New output stream. May not be null.
+	 * 
+	 */
+	protected synchronized void setOutputStream(OutputStream out) {
+		if (out == null) {
+			throw new NullPointerException();
+		}
+		flushAndClose();
+		output = out;
+		try {
+			writer = createWriter(output, getEncoding());
+		} catch (UnsupportedEncodingException ex) {
+			// This shouldn't happen. The setEncoding method
+			// should have validated that the encoding is OK.
+			getErrorManager().error("Unexpected exception " + ex.getMessage(), ex, ErrorManager.GENERIC_FAILURE);
+		}
+	}
+
+	/**
+	 * Create a writer for the given encoding. UTF-8 is written by the {@link Utf8Writer},
+	 * the other encodings by the <tt>OutputStreamWriter</tt>.
+	 * 
+	 * @param out
+	 *            the target output stream
+	 * @param encoding
+	 *            the name of a character encoding. May be null, to indicate 
+	 *            the default platform encoding.
+	 * @exception UnsupportedEncodingException
+	 *                if the named encoding is not supported.
+	 */
+	private static Writer createWriter(OutputStream out, String encoding) throws UnsupportedEncodingException {
+		Charset charset;
+		try {
+			charset = encoding == null ? Charset.defaultCharset() : Charset.forName(encoding);
+		} catch (IllegalArgumentException ex) {
+			throw new UnsupportedEncodingException(encoding);
+		}
+		if (charset.equals(StandardCharsets.UTF_8)) {
+			return new Utf8Writer(out);
+		}
+		return new OutputStreamWriter(out, charset);
+	}
+
+	/**
+	 * Set (or change) the character encoding used by this <tt>BHandler</tt>.
+	 * <p>
+	 * The encoding should be set before any <tt>BLogRecords</tt> are written to
+	 * the <tt>BHandler</tt>.
+	 * 
+	 * @param encoding
+	 *            The name of a supported character encoding. May be null, to
+	 *            indicate the default platform encoding.
+	 * 
+	 * @exception UnsupportedEncodingException
+	 *                if the named encoding is not supported.
+	 */
+	public void setEncoding(String encoding) throws java.io.UnsupportedEncodingException {
+		super.setEncoding(encoding);
+		if (output == null) {
+			return;
+		}
+		// Replace the current writer with a writer for the new encoding.
+		flush();
+		writer = createWriter(output, encoding);
+	}
+
+	/**
+	 * Format and publish a <tt>BLogRecord</tt>.
+	 * <p>
+	 * The <tt>BStreamHandler</tt> first checks if there is an
+	 * <tt>OutputStream</tt> If not it silently returns. If so, it calls its
+	 * <tt>Formatter</tt> to format the record and then writes the result to the
+	 * current output stream.
+	 * <p>
+	 * If this is the first <tt>BLogRecord</tt> to be written to a given
+	 * <tt>OutputStream</tt>, the <tt>BFormatter</tt>'s "head" string is written
+	 * to the stream before the <tt>BLogRecord</tt> is written.
+	 * 
+	 * @param record
+	 *            description of the log event. A null record is silently
+	 *            ignored and is not published
+	 */
+	public synchronized void publish(BLogRecord record) {
+
+		String msg;
+		try {
+			msg = getFormatter().format(record);
+		} catch (Exception ex) {
+			// We don't want to throw an exception here, but we
+			// report the exception to any registered ErrorManager.
+			getErrorManager().error(ex.getMessage(), ex, ErrorManager.FORMAT_FAILURE);
+			return;
+		}
+
+		try {
+			writer.write(msg);
+		} catch (Exception ex) {
+			// We don't want to throw an exception here, but we
+			// report the exception to any registered ErrorManager.
+			getErrorManager().error(ex.getMessage(), ex, ErrorManager.WRITE_FAILURE);
+		}
+	}
+
+	/**
+	 * Flush any buffered messages. The output is forced to the storage device
+	 * according to the {@code durability}.
+	 */
+	public synchronized void flush() {
+		if (writer != null) {
+			try {
+				writer.flush();
+			} catch (Exception ex) {
+				// We don't want to throw an exception here, but we
+				// report the exception to any registered ErrorManager.
+				getErrorManager().error(ex.getMessage(), ex, ErrorManager.WRITE_FAILURE);
+				return;
+			}
+			Durability durability = getDurability();
+			if (durability == Durability.DRAIN || (durability == Durability.PERIODIC 
+					&& System.currentTimeMillis() - lastSync >= getSyncPeriod())) {
+				try {
+					force();
+				} catch (Exception ex) {
+					getErrorManager().error(ex.getMessage(), ex, ErrorManager.FLUSH_FAILURE);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Flush the writer without forcing the output
+	 */
+	protected synchronized void flushWriter() {
+		if (writer != null) {
+			try {
+				writer.flush();
+			} catch (Exception ex) {
+				// We don't want to throw an exception here, but we
+				// report the exception to any registered ErrorManager.
+				getErrorManager().error(ex.getMessage(), ex, ErrorManager.WRITE_FAILURE);
+			}
+		}
+	}
+
+	/**
+	 * @return amount of the encoded bytes kept in the writer, or -1 if the writer 
+	 *         can't tell it (the output has to be flushed to count the bytes)
+	 */
+	protected synchronized int getBufferedBytes() {
+		if (writer instanceof Utf8Writer) {
+			return ((Utf8Writer) writer).getBufferedBytes();
+		}
+		return writer == null ? 0 : -1;
+	}
+
+	/**
+	 * Flush any buffered messages and force them to the storage device.
+	 */
+	public synchronized void sync() throws IOException {
+		if (writer != null) {
+			writer.flush();
+			force();
+		}
+	}
+
+	/**
+	 * Force the output stream to the storage device. Only a <tt>FileOutputStream</tt> can 
+	 * be forced, the subclasses which wrap it override this method.
+	 * @throws IOException
+	 */
+	protected void force() throws IOException {
+		if (output instanceof FileOutputStream) {
+			((FileOutputStream) output).getChannel().force(false);
+		}
+		lastSync = System.currentTimeMillis();
+	}
+
+	private synchronized void flushAndClose() {
+		if (writer != null) {
+			try {
+				writer.flush();
+				writer.close();
+			} catch (Exception ex) {
+				// We don't want to throw an exception here, but we
+				// report the exception to any registered ErrorManager.
+				getErrorManager().error(ex.getMessage(), ex, ErrorManager.WRITE_FAILURE);
+			}
+			writer = null;
+			output = null;
+		}
+	}
+
+	/**
+	 * Close the current output stream.
+	 */
+	public synchronized void close() {
+		flushAndClose();
+	}
+}
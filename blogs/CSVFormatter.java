@@ -1,53 +1,154 @@
-package blogs;
-import java.text.Format;
-import java.text.MessageFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.TimeZone;
-
-/**
- * CSV formatter to format the LogRecord into table view where the columns are :
- * [Date] [Time] [User] [Operation] [additional attributes]
- * CSV delimiter is a char ';'
- */
-public class CSVFormatter extends BFormatter {	
-	private static final String MESSAGE_FORMAT = "{0};{0};{1};{3};{4};{2}";
-	private static final String LINE_SEP = "\r\n";
-	private String timeZone = "GMT";
-	
-	/**
-	 * Format a record according to the MESSAGE_FORMAT
-	 */
-	@Override
-	public String format(BLogRecord record) {
-		MessageFormat messageFormat = new MessageFormat(MESSAGE_FORMAT + LINE_SEP);
-		SimpleDateFormat sdf1 = new SimpleDateFormat("yyyy-MM-dd");
-		sdf1.setTimeZone(TimeZone.getTimeZone(timeZone));
-		SimpleDateFormat sdf2 = new SimpleDateFormat("HH:mm:ss.SSS z");
-		sdf2.setTimeZone(TimeZone.getTimeZone(timeZone));
-		messageFormat.setFormats(new Format[]{sdf1, sdf2});
-		
-		StringBuffer res = new StringBuffer();
-		messageFormat.format(new Object[]{  record.getMillis(),
-											record.getUser(),
-											record.getMessage(),
-											record.getOperation(),
-											record.getMessageType()}, res, null);
-		
-		return res.toString();
-	}
-	
-	/**
-	 * Get string of current date. The format of date is "yyyy-MM-dd" 
-	 * @return
-	 */
-	public String getDateString() {
-		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd");
-		df.setTimeZone(TimeZone.getTimeZone(timeZone));
-		return df.format(new Date());
-	}
-
-	public void setTimeZone(String timezone) {
-		this.timeZone = timezone;
-	}
-}
+package blogs;
+import java.text.Format;
+import java.text.MessageFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * CSV formatter to format the LogRecord into table view where the columns are :
+ * [Date] [Time] [User] [Operation] [additional attributes]
+ * CSV delimiter is a char ';'
+ * <p>
+ * The context fields listed by the csvformatter.fields property (comma separated keys, see
+ * {@link BLogContext}) are written as extra columns before the message, an absent field is
+ * an empty column. The delimiters and the line breaks of their values are replaced by spaces.
+ */
+public class CSVFormatter extends BFormatter {	
+	private static final String MESSAGE_FORMAT = "{0};{0};{1};{3};{4};{2}";
+	private static final String FIELDS_MESSAGE_FORMAT = "{0};{0};{1};{3};{4};{5}{2}";
+	private static final String LINE_SEP = "\r\n";
+	private String timeZone = "GMT";
+	// "yyyy-MM-dd HH:mm:ss z" of the last parsed second and its time
+	private SimpleDateFormat secondFormat;
+	private String parsedSecond;
+	private long parsedMillis;
+	// the keys of the extra columns and their ids (see BLogRegistry)
+	private final String fieldKeys[];
+	private final int fieldIds[];
+	
+	/**
+	 * Construct a <tt>CSVFormatter</tt>. The extra columns are configured from <tt>BLogManager</tt>
+	 * property csvformatter.fields.
+	 */
+	public CSVFormatter() {
+		String keys = BLogManager.getLogManager().getProperty(BLogManager.CSV_FIELDS_PROP, "").trim();
+		String names[] = keys.isEmpty() ? new String[0] : keys.split(",");
+		fieldKeys = new String[names.length];
+		fieldIds = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			fieldKeys[i] = names[i].trim();
+			fieldIds[i] = BLogRegistry.getRegistry().getFieldKeyId(fieldKeys[i]);
+		}
+	}
+	
+	/**
+	 * Format a record according to the MESSAGE_FORMAT
+	 */
+	@Override
+	public String format(BLogRecord record) {
+		MessageFormat messageFormat = new MessageFormat((fieldIds.length > 0 ? FIELDS_MESSAGE_FORMAT : MESSAGE_FORMAT) + LINE_SEP);
+		SimpleDateFormat sdf1 = new SimpleDateFormat("yyyy-MM-dd");
+		sdf1.setTimeZone(TimeZone.getTimeZone(timeZone));
+		SimpleDateFormat sdf2 = new SimpleDateFormat("HH:mm:ss.SSS z");
+		sdf2.setTimeZone(TimeZone.getTimeZone(timeZone));
+		messageFormat.setFormats(new Format[]{sdf1, sdf2});
+		
+		String message = record.getMessage();
+		if (record.getRepeatCount() > 1) {
+			// the record stands for several identical records (see BLogRecordCoalescer)
+			message = message + " (repeated " + record.getRepeatCount() + " times, last at " 
+					+ sdf2.format(new Date(record.getLastMillis())) + ")";
+		}
+		
+		StringBuffer res = new StringBuffer();
+		messageFormat.format(new Object[]{  record.getMillis(),
+											record.getUser(),
+											message,
+											record.getOperationCode(),
+											record.getMessageType(),
+											fieldIds.length > 0 ? formatFields(record) : null}, res, null);
+		
+		return res.toString();
+	}
+	
+	/**
+	 * @param record
+	 * @return the values of the extra columns each followed by the delimiter
+	 */
+	private String formatFields(BLogRecord record) {
+		StringBuilder sb = new StringBuilder();
+		for (int k = 0; k < fieldIds.length; k++) {
+			// the key over the limit of the registry is looked up by its name
+			String value;
+			if (fieldIds[k] != BLogRegistry.NONE) {
+				int i = record.indexOfField(fieldIds[k]);
+				value = i >= 0 ? record.getFieldValue(i) : null;
+			} else {
+				value = record.getField(fieldKeys[k]);
+			}
+			if (value != null) {
+				for (int j = 0; j < value.length(); j++) {
+					char c = value.charAt(j);
+					sb.append(c == ';' || c == '\r' || c == '\n' ? ' ' : c);
+				}
+			}
+			sb.append(';');
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * @return amount of the extra columns of the context fields
+	 */
+	public int getFieldColumnCount() {
+		return fieldIds.length;
+	}
+	
+	/**
+	 * Get string of current date. The format of date is "yyyy-MM-dd" 
+	 * @return
+	 */
+	public String getDateString() {
+		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd");
+		df.setTimeZone(TimeZone.getTimeZone(timeZone));
+		return df.format(new Date());
+	}
+
+	/**
+	 * Parse the time of a formatted record. The seconds are parsed once, 
+	 * the milliseconds are added to the cached time of the second.
+	 * @param date the date column "yyyy-MM-dd"
+	 * @param time the time column "HH:mm:ss.SSS z"
+	 * @return the time in milliseconds
+	 * @throws ParseException
+	 */
+	public long parseMillis(String date, String time) throws ParseException {
+		int dot = time.indexOf('.');
+		int space = time.indexOf(' ', dot);
+		if (dot < 0 || space < 0) {
+			throw new ParseException(time, 0);
+		}
+		String second = date + " " + time.substring(0, dot) + time.substring(space);
+		if (!second.equals(parsedSecond)) {
+			if (secondFormat == null) {
+				secondFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z");
+				secondFormat.setTimeZone(TimeZone.getTimeZone(timeZone));
+			}
+			parsedMillis = secondFormat.parse(second).getTime();
+			parsedSecond = second;
+		}
+		try {
+			return parsedMillis + Integer.parseInt(time.substring(dot + 1, space));
+		} catch (NumberFormatException e) {
+			throw new ParseException(time, dot + 1);
+		}
+	}
+
+	public void setTimeZone(String timezone) {
+		this.timeZone = timezone;
+		secondFormat = null;
+		parsedSecond = null;
+	}
+}
@@ -0,0 +1,346 @@
+package blogs;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <tt>CircuitBreakerBHandler</tt> wraps a <tt>BHandler</tt> (e.g. {@code CSVFileHandler}) and stops
+ * calling it while it's failing, so a broken disk doesn't make every drain of the logger slow.
+ * <p>
+ * A call of the wrapped handler fails if it throws an exception or reports an error to its
+ * <tt>ErrorManager</tt>. The failures of the publishes and the flushes are counted together, and
+ * only a successful flush resets them: a publish which succeeds may have only buffered the record.
+ * After {@code failureThreshold} failures without a successful flush the circuit opens: the records
+ * are rerouted to the fallback handler, or to the spill file if there is no fallback, or dropped
+ * if there are none of them. Once per {@code retryPeriod} the next record probes the wrapped
+ * handler by forcing it ({@code sync()}). If the probe succeeds the circuit closes and
+ * the spilled records are replayed into the wrapped handler before the new ones.
+ * <p>
+ * The <tt>CircuitBreakerBHandler</tt> is configured from <tt>BLogManager</tt> properties
+ * (or their default values):
+ * <ul>
+ * <li>   breaker.failures      failures in a row which open the circuit</li>
+ * <li>   breaker.retry_period  time between the probes of the open circuit (milliseconds)</li>
+ * </ul>
+ * The loggers wrap their own handlers if blogger.breaker is true.
+ */
+public class CircuitBreakerBHandler extends BHandler {
+	public static final int DEFAULT_FAILURES = 5;
+	public static final int DEFAULT_RETRY_PERIOD = 30000; // 30 seconds
+	// amount of the spilled records replayed at once
+	private static final int REPLAY_BATCH = 1000;
+
+	// the states of the circuit
+	public static final int CLOSED = 0;
+	public static final int OPEN = 1;
+
+	private final BHandler handler;
+	private final BHandler fallback;
+	private final BLogSpill spill;
+	private int failureThreshold;
+	private int retryPeriod;
+
+	private volatile int state = CLOSED;
+	private int failures;
+	private long openTime;
+	// statistics
+	private final AtomicLong trips = new AtomicLong();
+	private final AtomicLong rerouted = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Configure a CircuitBreakerBHandler from BLogManager
+	 * properties and/or default values
+	 */
+	private void configure() {
+		BLogManager manager = BLogManager.getLogManager();
+		failureThreshold = Math.max(1, manager.getProperty(BLogManager.BREAKER_FAILURES_PROP, DEFAULT_FAILURES));
+		retryPeriod = manager.getProperty(BLogManager.BREAKER_RETRY_PERIOD_PROP, DEFAULT_RETRY_PERIOD);
+		getErrorManager().setReportPeriod(manager.getProperty(BLogManager.ERROR_REPORT_PERIOD_PROP, ErrorManager.DEFAULT_REPORT_PERIOD));
+	}
+
+	/**
+	 * Wrap the given handler. The breaker is configured from <tt>BLogManager</tt> properties.
+	 * @param handler the handler to protect
+	 * @param fallback the handler the records are rerouted to while the circuit is open (may be null)
+	 * @param spill the file the records are kept in while the circuit is open if there is no
+	 *        fallback (may be null)
+	 */
+	public CircuitBreakerBHandler(BHandler handler, BHandler fallback, BLogSpill spill) {
+		// Check for a null pointer:
+		handler.getClass();
+		this.handler = handler;
+		this.fallback = fallback;
+		this.spill = spill;
+		configure();
+	}
+
+	/**
+	 * Wrap the given handler.
+	 * @param handler the handler to protect
+	 * @param fallback the handler the records are rerouted to while the circuit is open (may be null)
+	 * @param spill the file the records are kept in while the circuit is open if there is no
+	 *        fallback (may be null)
+	 * @param failureThreshold failures in a row which open the circuit
+	 * @param retryPeriod time between the probes of the open circuit (milliseconds)
+	 */
+	public CircuitBreakerBHandler(BHandler handler, BHandler fallback, BLogSpill spill,
+			int failureThreshold, int retryPeriod) {
+		this(handler, fallback, spill);
+		if (failureThreshold < 1 || retryPeriod < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.failureThreshold = failureThreshold;
+		this.retryPeriod = retryPeriod;
+	}
+
+	/**
+	 * Publish the record into the wrapped handler if the circuit is closed, otherwise
+	 * reroute it.
+	 *
+	 * @param record
+	 *            description of the log event. A null record is silently
+	 *            ignored and is not published
+	 */
+	@Override
+	public synchronized void publish(BLogRecord record) {
+		if (record == null) {
+			return;
+		}
+		if (state == OPEN && !probe()) {
+			reroute(record);
+			return;
+		}
+		// the records spilled by the previous run are older
+		if (spill != null && spill.isActive() && !replaySpill()) {
+			reroute(record);
+			return;
+		}
+		if (!call(record)) {
+			reroute(record);
+		}
+	}
+
+	/**
+	 * Publish the record into the wrapped handler. A success doesn't reset the failures:
+	 * the handler may have only buffered the record.
+	 * @param record
+	 * @return false if the call has failed
+	 */
+	private boolean call(BLogRecord record) {
+		long errors = handler.getErrorManager().getErrorCount();
+		boolean ok;
+		try {
+			handler.publish(record);
+			ok = handler.getErrorManager().getErrorCount() == errors;
+		} catch (RuntimeException ex) {
+			handler.getErrorManager().error(ex.getMessage(), ex, ErrorManager.WRITE_FAILURE);
+			ok = false;
+		}
+		if (!ok) {
+			failed();
+		}
+		return ok;
+	}
+
+	/**
+	 * Flush or force the wrapped handler. A success resets the failures.
+	 * @param force force the handler to the storage device ({@code sync()})
+	 * @return false if the call has failed
+	 */
+	private boolean callFlush(boolean force) {
+		long errors = handler.getErrorManager().getErrorCount();
+		boolean ok;
+		try {
+			if (force) {
+				handler.sync();
+			} else {
+				handler.flush();
+			}
+			ok = handler.getErrorManager().getErrorCount() == errors;
+		} catch (IOException ex) {
+			handler.getErrorManager().error(ex.getMessage(), ex, ErrorManager.FLUSH_FAILURE);
+			ok = false;
+		} catch (RuntimeException ex) {
+			handler.getErrorManager().error(ex.getMessage(), ex, ErrorManager.FLUSH_FAILURE);
+			ok = false;
+		}
+		if (ok) {
+			failures = 0;
+		} else {
+			failed();
+		}
+		return ok;
+	}
+
+	private void failed() {
+		if (++failures >= failureThreshold && state == CLOSED) {
+			open();
+		}
+	}
+
+	private void open() {
+		state = OPEN;
+		openTime = System.currentTimeMillis();
+		trips.incrementAndGet();
+		getErrorManager().error("the circuit of " + handler.getClass().getName() + " is open after "
+				+ failures + " failures", null, ErrorManager.WRITE_FAILURE);
+	}
+
+	/**
+	 * Check the wrapped handler if the retry period has passed. It's forced and
+	 * the spilled records are replayed into it.
+	 * @return true if the circuit has been closed
+	 */
+	private boolean probe() {
+		long now = System.currentTimeMillis();
+		long openedAt = openTime;
+		if (now - openedAt < retryPeriod) {
+			return false;
+		}
+		// the next probe is after the period whatever happens
+		openTime = now;
+		if (!callFlush(true)) {
+			return false;
+		}
+		if (spill != null && spill.isActive() && !replaySpill()) {
+			return false;
+		}
+		state = CLOSED;
+		failures = 0;
+		System.err.println("The circuit of " + handler.getClass().getName() + " is closed after "
+				+ (now - openedAt) + " ms");
+		return true;
+	}
+
+	/**
+	 * Write the spilled records down into the wrapped handler
+	 * @return false if the handler has failed again
+	 */
+	private boolean replaySpill() {
+		try {
+			while (spill.isActive()) {
+				List<BLogRecord> records = spill.read(REPLAY_BATCH);
+				if (records.isEmpty()) {
+					spill.commit();
+					break;
+				}
+				for (BLogRecord record : records) {
+					if (!call(record)) {
+						// the batch is replayed again by the next probe
+						return false;
+					}
+				}
+				if (!callFlush(false)) {
+					return false;
+				}
+				spill.commit();
+			}
+			return true;
+		} catch (IOException e) {
+			getErrorManager().error("the spill can't be replayed: " + e.getMessage(), e, ErrorManager.GENERIC_FAILURE);
+			return false;
+		}
+	}
+
+	/**
+	 * Put the record to the fallback or the spill
+	 * @param record
+	 */
+	private void reroute(BLogRecord record) {
+		if (fallback != null) {
+			fallback.publish(record);
+		} else if (spill == null || !spill.append(record, true)) {
+			dropped.incrementAndGet();
+			return;
+		}
+		rerouted.incrementAndGet();
+	}
+
+	@Override
+	public synchronized void flush() {
+		if (state == CLOSED) {
+			callFlush(false);
+		}
+		if (fallback != null) {
+			fallback.flush();
+		}
+	}
+
+	/**
+	 * Force the wrapped handler if the circuit is closed
+	 * @throws IOException if the circuit is open or the output can't be forced
+	 */
+	@Override
+	public synchronized void sync() throws IOException {
+		if (state == OPEN) {
+			throw new IOException("the circuit of " + handler.getClass().getName() + " is open");
+		}
+		handler.sync();
+	}
+
+	@Override
+	public synchronized void hibernate() {
+		if (state == CLOSED) {
+			handler.hibernate();
+		}
+		if (fallback != null) {
+			fallback.hibernate();
+		}
+	}
+
+	/**
+	 * Close the wrapped handler, the fallback and the spill. The spilled records
+	 * are replayed on the next start if the spill file is the same.
+	 */
+	@Override
+	public synchronized void close() {
+		handler.close();
+		if (fallback != null) {
+			fallback.close();
+		}
+		if (spill != null) {
+			spill.close();
+		}
+	}
+
+	/**
+	 * @return {@code CLOSED} or {@code OPEN}
+	 */
+	public int getState() {
+		return state;
+	}
+
+	public boolean isOpen() {
+		return state == OPEN;
+	}
+
+	/**
+	 * @return the wrapped handler
+	 */
+	public BHandler getHandler() {
+		return handler;
+	}
+
+	/**
+	 * @return how many times the circuit has been opened
+	 */
+	public long getTripCount() {
+		return trips.get();
+	}
+
+	/**
+	 * @return amount of the records put to the fallback or the spill
+	 */
+	public long getReroutedCount() {
+		return rerouted.get();
+	}
+
+	/**
+	 * @return amount of the records lost while the circuit was open
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+}
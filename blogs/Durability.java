@@ -0,0 +1,21 @@
+package blogs;
+
+/**
+ * Durability level of a <tt>BHandler</tt>. It defines when the written records 
+ * are forced to the storage device (fsync).
+ */
+public enum Durability {
+	/**
+	 * The records are never forced, {@code flush()} only flushes the stream buffers.
+	 */
+	NONE,
+	/**
+	 * The records are forced on every {@code flush()}, i.e. once per drain of the records pool.
+	 */
+	DRAIN,
+	/**
+	 * The records are forced on {@code flush()} if the sync period has passed since the
+	 * last force, so several drains share one fsync.
+	 */
+	PERIODIC;
+}
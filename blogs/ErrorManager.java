@@ -1,76 +1,155 @@
-package blogs;
-
-/**
- * ErrorManager objects can be attached to BHandler to process any error
- * that occur on a Handler during Logging.
- * <p>
- * When processing logging output, if a BHandler encounters problems then
- * rather than throwing an Exception back to the issuer of the logging call (who
- * is unlikely to be interested ) the BHandler should call its associated
- * ErrorManager.
- */
-
-public class ErrorManager {
-	private boolean reported = false;
-
-	/*
-	 * We declare standard error codes for important categories of errors.
-	 */
-
-	/**
-	 * GENERIC_FAILURE is used for failure that don't fit into one of the other
-	 * categories.
-	 */
-	public final static int GENERIC_FAILURE = 0;
-	/**
-	 * WRITE_FAILURE is used when a write to an output stream fails.
-	 */
-	public final static int WRITE_FAILURE = 1;
-	/**
-	 * FLUSH_FAILURE is used when a flush to an output stream fails.
-	 */
-	public final static int FLUSH_FAILURE = 2;
-	/**
-	 * CLOSE_FAILURE is used when a close of an output stream fails.
-	 */
-	public final static int CLOSE_FAILURE = 3;
-	/**
-	 * OPEN_FAILURE is used when an open of an output stream fails.
-	 */
-	public final static int OPEN_FAILURE = 4;
-	/**
-	 * FORMAT_FAILURE is used when formatting fails for any reason.
-	 */
-	public final static int FORMAT_FAILURE = 5;
-
-	/**
-	 * The error method is called when a BHandler failure occurs.
-	 * <p>
-	 * This method may be overriden in subclasses. The default behavior in this
-	 * base class is that the first call is reported to System.err, and
-	 * subsequent calls are ignored.
-	 * 
-	 * @param msg
-	 *            a descriptive string (may be null)
-	 * @param ex
-	 *            an exception (may be null)
-	 * @param code
-	 *            an error code defined in ErrorManager
-	 */
-	public void error(String msg, Exception ex, int code) {
-		if (reported) {
-			// We only report the first error, to avoid clogging
-			// the screen.
-			return;
-		}
-		reported = true;
-		String text = "ru.gazprom_neft.logging.ErrorManager: " + code;
-		if (msg != null) {
-			text = text + ": " + msg;
-		}
-		System.err.println(text);
-		if (ex != null) {
-			ex.printStackTrace();
-		}
-	}
-}
+package blogs;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ErrorManager objects can be attached to BHandler to process any error
+ * that occur on a Handler during Logging.
+ * <p>
+ * When processing logging output, if a BHandler encounters problems then
+ * rather than throwing an Exception back to the issuer of the logging call (who
+ * is unlikely to be interested ) the BHandler should call its associated
+ * ErrorManager.
+ */
+
+public class ErrorManager {
+	public static final int DEFAULT_REPORT_PERIOD = 60000; // 1 minute
+	// the errors with an unknown code are counted as GENERIC_FAILURE
+	private static final int CODES = 6;
+
+	// amount of the errors by the code
+	private final AtomicLongArray counts = new AtomicLongArray(CODES);
+	// a time when an error of the code has been reported last time
+	private final long reportTimes[] = new long[CODES];
+	// amount of the errors of the code which haven't been reported since then
+	private final long suppressed[] = new long[CODES];
+	private volatile long lastErrorTime;
+	private int reportPeriod;
+
+	/*
+	 * We declare standard error codes for important categories of errors.
+	 */
+
+	/**
+	 * GENERIC_FAILURE is used for failure that don't fit into one of the other
+	 * categories.
+	 */
+	public final static int GENERIC_FAILURE = 0;
+	/**
+	 * WRITE_FAILURE is used when a write to an output stream fails.
+	 */
+	public final static int WRITE_FAILURE = 1;
+	/**
+	 * FLUSH_FAILURE is used when a flush to an output stream fails.
+	 */
+	public final static int FLUSH_FAILURE = 2;
+	/**
+	 * CLOSE_FAILURE is used when a close of an output stream fails.
+	 */
+	public final static int CLOSE_FAILURE = 3;
+	/**
+	 * OPEN_FAILURE is used when an open of an output stream fails.
+	 */
+	public final static int OPEN_FAILURE = 4;
+	/**
+	 * FORMAT_FAILURE is used when formatting fails for any reason.
+	 */
+	public final static int FORMAT_FAILURE = 5;
+
+	/**
+	 * Create an ErrorManager with the default report period. The handlers set the period
+	 * from <tt>BLogManager</tt> property errormanager.report_period (milliseconds)
+	 * when they're configured.
+	 */
+	public ErrorManager() {
+		this(DEFAULT_REPORT_PERIOD);
+	}
+
+	/**
+	 * @param reportPeriod min time between two reports of the errors with the same code (milliseconds)
+	 */
+	public ErrorManager(int reportPeriod) {
+		this.reportPeriod = reportPeriod;
+	}
+
+	/**
+	 * The error method is called when a BHandler failure occurs.
+	 * <p>
+	 * This method may be overriden in subclasses. The default behavior in this
+	 * base class is that every error is counted by its code and reported to System.err,
+	 * but the errors of the same code are reported once per {@code reportPeriod}
+	 * together with the amount of the errors suppressed since the last report.
+	 * So a broken device doesn't clog the screen and the errors can still be watched.
+	 * 
+	 * @param msg
+	 *            a descriptive string (may be null)
+	 * @param ex
+	 *            an exception (may be null)
+	 * @param code
+	 *            an error code defined in ErrorManager
+	 */
+	public void error(String msg, Exception ex, int code) {
+		int index = code >= 0 && code < CODES ? code : GENERIC_FAILURE;
+		counts.incrementAndGet(index);
+		long now = System.currentTimeMillis();
+		lastErrorTime = now;
+		long skipped;
+		synchronized (this) {
+			if (reportTimes[index] != 0 && now - reportTimes[index] < reportPeriod) {
+				suppressed[index]++;
+				return;
+			}
+			reportTimes[index] = now;
+			skipped = suppressed[index];
+			suppressed[index] = 0;
+		}
+		String text = "ru.gazprom_neft.logging.ErrorManager: " + code;
+		if (msg != null) {
+			text = text + ": " + msg;
+		}
+		if (skipped > 0) {
+			text = text + " (" + skipped + " more errors since the last report)";
+		}
+		System.err.println(text);
+		if (ex != null) {
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * @param code an error code defined in ErrorManager
+	 * @return amount of the errors with the code
+	 */
+	public long getErrorCount(int code) {
+		return code >= 0 && code < CODES ? counts.get(code) : 0;
+	}
+
+	/**
+	 * @return amount of all the errors
+	 */
+	public long getErrorCount() {
+		long result = 0;
+		for (int i = 0; i < CODES; i++) {
+			result += counts.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return a time of the last error or 0 if there were no errors
+	 */
+	public long getLastErrorTime() {
+		return lastErrorTime;
+	}
+
+	/**
+	 * @return min time between two reports of the errors with the same code (milliseconds)
+	 */
+	public int getReportPeriod() {
+		return reportPeriod;
+	}
+
+	public void setReportPeriod(int reportPeriod) {
+		this.reportPeriod = reportPeriod;
+	}
+}
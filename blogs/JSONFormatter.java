@@ -0,0 +1,269 @@
+package blogs;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * JSON Lines formatter: every record is formatted as one JSON object on its own line:
+ * <pre>
+ * {"time":"2014-05-20T10:15:30.123+04:00","solution":"PKO","logger":"...","user":"...",
+ *  "operation":"CR","type":"INFO","message":"...","repeat":3,"lastTime":"...",
+ *  "thrown":"...","parameters":["..."],"fields":{"requestId":"..."}}
+ * </pre>
+ * The "repeat" and "lastTime" fields are written for the coalesced records only (see
+ * {@link BLogRecordCoalescer}), "thrown" and "parameters" are optional, "fields" holds the
+ * context fields of the record if it has any (see {@link BLogContext}).
+ * <p>
+ * The formatter doesn't use <tt>MessageFormat</tt> or <tt>SimpleDateFormat</tt>: the strings
+ * are escaped with a precomputed escape table, the timestamp is built from the cached date
+ * and time of the current minute, and the line buffer is reused. The only allocation
+ * per record is the resulting <tt>String</tt>.
+ * <p>
+ * The <tt>JSONFormatter</tt> is configured from <tt>BLogManager</tt> properties
+ * (or their default values):
+ * <ul>
+ * <li>   jsonformatter.thrown      write the stack trace of the thrown (true/false)</li>
+ * <li>   jsonformatter.parameters  write the parameters (true/false)</li>
+ * <li>   blogger.timezone          time zone of the timestamps</li>
+ * </ul>
+ */
+public class JSONFormatter extends BFormatter {
+	private static final String LINE_SEP = "\n";
+	// escape sequences of the ASCII characters, null if the character is written as is
+	private static final String ESCAPES[] = new String[128];
+	private static final char HEX[] = "0123456789abcdef".toCharArray();
+
+	static {
+		for (int c = 0; c < 0x20; c++) {
+			ESCAPES[c] = "\\u00" + HEX[c >> 4] + HEX[c & 0xF];
+		}
+		ESCAPES['\b'] = "\\b";
+		ESCAPES['\t'] = "\\t";
+		ESCAPES['\n'] = "\\n";
+		ESCAPES['\f'] = "\\f";
+		ESCAPES['\r'] = "\\r";
+		ESCAPES['"'] = "\\\"";
+		ESCAPES['\\'] = "\\\\";
+	}
+
+	private boolean writeThrown;
+	private boolean writeParameters;
+	private TimeZone timeZone;
+
+	private final StringBuilder line = new StringBuilder(256);
+	private final Calendar calendar;
+	// the minute of the cached timestamp parts
+	private long cachedMinute = Long.MIN_VALUE;
+	// "yyyy-MM-ddTHH:mm:" of the cached minute
+	private String cachedPrefix;
+	// "+hh:mm" or "Z" of the cached minute
+	private String cachedOffset;
+
+	/**
+	 * Configure a JSONFormatter from BLogManager
+	 * properties and/or default values
+	 */
+	private void configure() {
+		BLogManager manager = BLogManager.getLogManager();
+		writeThrown = manager.getProperty(BLogManager.JSON_THROWN_PROP, true);
+		writeParameters = manager.getProperty(BLogManager.JSON_PARAMETERS_PROP, false);
+		timeZone = TimeZone.getTimeZone(manager.getProperty(BLogManager.TIMEZONE_PROP, "GMT"));
+	}
+
+	/**
+	 * Construct a <tt>JSONFormatter</tt>. It's configured from <tt>BLogManager</tt>
+	 * properties (or their default values).
+	 */
+	public JSONFormatter() {
+		configure();
+		calendar = Calendar.getInstance(timeZone);
+	}
+
+	/**
+	 * Format a record as one JSON line
+	 */
+	@Override
+	public synchronized String format(BLogRecord record) {
+		StringBuilder sb = line;
+		sb.setLength(0);
+		sb.append("{\"time\":\"");
+		appendTime(sb, record.getMillis());
+		sb.append('"');
+		String solution = record.getSolutionName();
+		if (solution != null) {
+			appendField(sb, "solution", solution);
+		}
+		appendField(sb, "logger", record.getLoggerName());
+		appendField(sb, "user", record.getUser());
+		String operation = record.getOperationCode();
+		if (operation != null) {
+			appendField(sb, "operation", operation);
+		}
+		MessageType type = record.getMessageType();
+		if (type != null) {
+			appendField(sb, "type", type.name());
+		}
+		appendField(sb, "message", record.getMessage());
+		if (record.getRepeatCount() > 1) {
+			sb.append(",\"repeat\":").append(record.getRepeatCount());
+			sb.append(",\"lastTime\":\"");
+			appendTime(sb, record.getLastMillis());
+			sb.append('"');
+		}
+		if (writeThrown && record.getThrown() != null) {
+			StringWriter trace = new StringWriter();
+			record.getThrown().printStackTrace(new PrintWriter(trace));
+			appendField(sb, "thrown", trace.toString());
+		}
+		Object parameters[] = record.getParameters();
+		if (writeParameters && parameters != null) {
+			sb.append(",\"parameters\":[");
+			for (int i = 0; i < parameters.length; i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				if (parameters[i] == null) {
+					sb.append("null");
+				} else {
+					sb.append('"');
+					appendEscaped(sb, String.valueOf(parameters[i]));
+					sb.append('"');
+				}
+			}
+			sb.append(']');
+		}
+		int fieldCount = record.getFieldCount();
+		if (fieldCount > 0) {
+			sb.append(",\"fields\":{");
+			for (int i = 0; i < fieldCount; i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				sb.append('"');
+				appendEscaped(sb, record.getFieldKey(i));
+				sb.append("\":\"");
+				appendEscaped(sb, record.getFieldValue(i));
+				sb.append('"');
+			}
+			sb.append('}');
+		}
+		sb.append('}').append(LINE_SEP);
+		String res = sb.toString();
+		if (sb.capacity() > 64 * 1024) {
+			// don't keep the buffer of a huge record
+			sb.setLength(0);
+			sb.trimToSize();
+		}
+		return res;
+	}
+
+	private static void appendField(StringBuilder sb, String name, String value) {
+		if (value == null) {
+			return;
+		}
+		sb.append(",\"").append(name).append("\":\"");
+		appendEscaped(sb, value);
+		sb.append('"');
+	}
+
+	/**
+	 * Append the string escaping the characters according to the escape table.
+	 * The runs of the characters which don't need escaping are appended at once.
+	 */
+	private static void appendEscaped(StringBuilder sb, String s) {
+		int start = 0;
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			String escape;
+			if (c < 128) {
+				escape = ESCAPES[c];
+			} else if (c == '\u2028') {
+				escape = "\\u2028";
+			} else if (c == '\u2029') {
+				escape = "\\u2029";
+			} else {
+				continue;
+			}
+			if (escape != null) {
+				sb.append(s, start, i).append(escape);
+				start = i + 1;
+			}
+		}
+		sb.append(s, start, len);
+	}
+
+	/**
+	 * Append the ISO 8601 timestamp "yyyy-MM-ddTHH:mm:ss.SSS+hh:mm"
+	 */
+	private void appendTime(StringBuilder sb, long millis) {
+		long minute = Math.floorDiv(millis, 60000L);
+		if (minute != cachedMinute) {
+			cacheMinute(minute);
+		}
+		int rest = (int) Math.floorMod(millis, 60000L);
+		sb.append(cachedPrefix);
+		appendPadded(sb, rest / 1000, 2);
+		sb.append('.');
+		appendPadded(sb, rest % 1000, 3);
+		sb.append(cachedOffset);
+	}
+
+	private void cacheMinute(long minute) {
+		long millis = minute * 60000L;
+		calendar.setTimeInMillis(millis);
+		StringBuilder sb = new StringBuilder(17);
+		appendPadded(sb, calendar.get(Calendar.YEAR), 4);
+		sb.append('-');
+		appendPadded(sb, calendar.get(Calendar.MONTH) + 1, 2);
+		sb.append('-');
+		appendPadded(sb, calendar.get(Calendar.DAY_OF_MONTH), 2);
+		sb.append('T');
+		appendPadded(sb, calendar.get(Calendar.HOUR_OF_DAY), 2);
+		sb.append(':');
+		appendPadded(sb, calendar.get(Calendar.MINUTE), 2);
+		sb.append(':');
+		cachedPrefix = sb.toString();
+
+		int offset = timeZone.getOffset(millis) / 60000;
+		if (offset == 0) {
+			cachedOffset = "Z";
+		} else {
+			sb.setLength(0);
+			sb.append(offset < 0 ? '-' : '+');
+			offset = Math.abs(offset);
+			appendPadded(sb, offset / 60, 2);
+			sb.append(':');
+			appendPadded(sb, offset % 60, 2);
+			cachedOffset = sb.toString();
+		}
+		cachedMinute = minute;
+	}
+
+	private static void appendPadded(StringBuilder sb, int value, int width) {
+		int limit = 1;
+		for (int i = 1; i < width; i++) {
+			limit *= 10;
+			if (value < limit) {
+				sb.append('0');
+			}
+		}
+		sb.append(value);
+	}
+
+	public synchronized void setTimeZone(String timezone) {
+		this.timeZone = TimeZone.getTimeZone(timezone);
+		calendar.setTimeZone(this.timeZone);
+		cachedMinute = Long.MIN_VALUE;
+	}
+
+	public void setWriteThrown(boolean writeThrown) {
+		this.writeThrown = writeThrown;
+	}
+
+	public void setWriteParameters(boolean writeParameters) {
+		this.writeParameters = writeParameters;
+	}
+}
@@ -0,0 +1,252 @@
+package blogs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <tt>MappedRingBHandler</tt> writes the records into a memory-mapped file used as a
+ * single-producer/single-consumer ring. A log-shipping process on the same host reads the
+ * ring with {@link MappedRingReader}, so neither sockets nor fsyncs are involved.
+ * <p>
+ * The file header holds the magic number, the ring capacity, the head (the position of the next
+ * record to read, it's written by the reader only) and the tail (the position of the next record
+ * to write, it's written by this handler only). Head and tail grow monotonically and are placed
+ * on different cache lines. A record is written as its length and the record bytes (see
+ * {@link BLogRecordCodec}), it's never split at the end of the ring: the rest of the ring is
+ * skipped instead. The tail is moved only after the record bytes have been written.
+ * <p>
+ * If the reader doesn't free the room for a record during {@code fullTimeout}, the record is
+ * dropped and reported to the <tt>ErrorManager</tt>. The next records which don't fit are dropped
+ * at once without waiting until the reader moves the head, so a dead reader doesn't hold
+ * the logger for {@code fullTimeout} per record.
+ * <p>
+ * The <tt>MappedRingBHandler</tt> is configured from <tt>BLogManager</tt> properties
+ * (or their default values):
+ * <ul>
+ * <li>   mappedringhandler.file          the ring file</li>
+ * <li>   mappedringhandler.size          ring capacity in bytes</li>
+ * <li>   mappedringhandler.full_timeout  max time to wait for the reader (milliseconds)</li>
+ * </ul>
+ */
+public class MappedRingBHandler extends BHandler {
+	public static final int MAGIC = 0x424C5247; // "BLRG"
+	public static final int CAPACITY_OFFSET = 4;
+	public static final int HEAD_OFFSET = 64;
+	public static final int TAIL_OFFSET = 128;
+	public static final int HEADER_SIZE = 192;
+	// the rest of the ring is skipped
+	public static final int PADDING = -1;
+
+	public static final String DEFAULT_FILE = "blogs.ring";
+	public static final int DEFAULT_SIZE = 16 * 1024 * 1024; // 16 Mb
+	public static final int DEFAULT_FULL_TIMEOUT = 1000; // 1 second
+
+	private File file;
+	private int capacity;
+	private int fullTimeout;
+	private RandomAccessFile raf;
+	private MappedByteBuffer buffer;
+	// our copy of the tail
+	private long tail;
+	private long dropped;
+	// the head of the ring when the reader has been found stalled, -1 if it's moving
+	private long stalledHead = -1;
+	private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+	private final DataOutputStream recordData = new DataOutputStream(recordBuffer);
+	// a volatile write and read of it fence the record bytes from the head and the tail
+	private volatile int barrier;
+
+	/**
+	 * Configure a MappedRingBHandler from BLogManager
+	 * properties and/or default values
+	 */
+	private void configure() {
+		BLogManager manager = BLogManager.getLogManager();
+		String dir = manager.getProperty(BLogManager.BLOGS_DIR_PROP, manager.getDefaultBaseDir());
+		file = new File(manager.getProperty(BLogManager.RING_FILE_PROP, new File(dir, DEFAULT_FILE).getPath()));
+		capacity = manager.getProperty(BLogManager.RING_SIZE_PROP, DEFAULT_SIZE);
+		fullTimeout = manager.getProperty(BLogManager.RING_FULL_TIMEOUT_PROP, DEFAULT_FULL_TIMEOUT);
+		getErrorManager().setReportPeriod(manager.getProperty(BLogManager.ERROR_REPORT_PERIOD_PROP, ErrorManager.DEFAULT_REPORT_PERIOD));
+	}
+
+	/**
+	 * Construct a default <tt>MappedRingBHandler</tt>. This will be configured
+	 * entirely from <tt>BLogManager</tt> properties (or their default values).
+	 *
+	 * @exception IOException
+	 *                if there are IO problems mapping the file.
+	 */
+	public MappedRingBHandler() throws IOException {
+		configure();
+		open();
+	}
+
+	/**
+	 * Construct a <tt>MappedRingBHandler</tt> for the given file. If the file has been
+	 * created before, its capacity is kept and the unread records stay in the ring.
+	 *
+	 * @param file
+	 *            the ring file
+	 * @param capacity
+	 *            ring capacity in bytes
+	 * @exception IOException
+	 *                if there are IO problems mapping the file.
+	 * @exception IllegalArgumentException
+	 *                if capacity < 1024
+	 */
+	public MappedRingBHandler(File file, int capacity) throws IOException {
+		if (capacity < 1024) {
+			throw new IllegalArgumentException();
+		}
+		configure();
+		this.file = file;
+		this.capacity = capacity;
+		open();
+	}
+
+	private void open() throws IOException {
+		File dir = file.getParentFile();
+		if (dir != null) {
+			dir.mkdirs();
+		}
+		raf = new RandomAccessFile(file, "rw");
+		if (raf.length() >= HEADER_SIZE) {
+			raf.seek(0);
+			if (raf.readInt() == MAGIC) {
+				capacity = raf.readInt();
+			}
+		}
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity);
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(CAPACITY_OFFSET) != capacity) {
+			buffer.putLong(HEAD_OFFSET, 0);
+			buffer.putLong(TAIL_OFFSET, 0);
+			buffer.putInt(CAPACITY_OFFSET, capacity);
+			buffer.putInt(0, MAGIC);
+		}
+		tail = buffer.getLong(TAIL_OFFSET);
+	}
+
+	/**
+	 * Write the record into the ring.
+	 *
+	 * @param record
+	 *            description of the log event. A null record is silently
+	 *            ignored and is not published
+	 */
+	@Override
+	public synchronized void publish(BLogRecord record) {
+		if (record == null || buffer == null) {
+			return;
+		}
+		recordBuffer.reset();
+		try {
+			BLogRecordCodec.write(record, recordData);
+		} catch (IOException ex) {
+			getErrorManager().error(ex.getMessage(), ex, ErrorManager.FORMAT_FAILURE);
+			return;
+		}
+		int len = recordBuffer.size();
+		int phys = (int) (tail % capacity);
+		int skip = phys + 4 + len > capacity ? capacity - phys : 0;
+		long needed = skip + 4 + len;
+		if (needed > capacity) {
+			getErrorManager().error("the record is larger than the ring", null, ErrorManager.WRITE_FAILURE);
+			return;
+		}
+		if (!awaitRoom(needed)) {
+			dropped++;
+			getErrorManager().error("the reader of " + file + " is behind, " + dropped + " records dropped",
+					null, ErrorManager.WRITE_FAILURE);
+			return;
+		}
+		if (skip >= 4) {
+			buffer.putInt(HEADER_SIZE + phys, PADDING);
+		}
+		phys = (int) ((tail + skip) % capacity);
+		ByteBuffer target = buffer.duplicate();
+		target.position(HEADER_SIZE + phys);
+		target.putInt(len);
+		target.put(recordBuffer.toByteArray(), 0, len);
+		tail += needed;
+		fence();
+		buffer.putLong(TAIL_OFFSET, tail);
+	}
+
+	/**
+	 * Wait until the reader frees the room for the given amount of bytes. If the reader
+	 * has been found stalled and hasn't moved the head since then, don't wait at all.
+	 * @param needed
+	 * @return false if there is no room after {@code fullTimeout}
+	 */
+	private boolean awaitRoom(long needed) {
+		long head = buffer.getLong(HEAD_OFFSET);
+		if (tail + needed - head > capacity) {
+			if (head == stalledHead) {
+				return false;
+			}
+			long deadline = System.currentTimeMillis() + fullTimeout;
+			while (tail + needed - (head = buffer.getLong(HEAD_OFFSET)) > capacity) {
+				if (System.currentTimeMillis() >= deadline) {
+					stalledHead = head;
+					return false;
+				}
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		stalledHead = -1;
+		// the record bytes mustn't be written before the head has been read
+		fence();
+		return true;
+	}
+
+	/**
+	 * A full fence: a volatile write followed by a volatile read keeps the buffer accesses
+	 * before it from being reordered with the ones after it.
+	 */
+	private int fence() {
+		barrier++;
+		return barrier;
+	}
+
+	/**
+	 * There is nothing to flush: the reader sees a record as soon as it's published.
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * Close the ring file. The unread records stay in the ring.
+	 */
+	@Override
+	public synchronized void close() {
+		if (raf == null) {
+			return;
+		}
+		try {
+			raf.close();
+		} catch (IOException ex) {
+			getErrorManager().error(ex.getMessage(), ex, ErrorManager.CLOSE_FAILURE);
+		}
+		raf = null;
+		buffer = null;
+	}
+
+	/**
+	 * @return amount of the records dropped because the reader was behind
+	 */
+	public synchronized long getDroppedCount() {
+		return dropped;
+	}
+}
@@ -0,0 +1,146 @@
+package blogs;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <tt>MappedRingReader</tt> consumes the records written by a {@link MappedRingBHandler}.
+ * It's used by a separate log-shipping process on the same host. There must be only one
+ * reader of a ring.
+ * <p>
+ * The reader takes the records between the head and the tail of the ring and moves
+ * the head forward when the records have been processed ({@code commit()}), so the records
+ * which haven't been committed are read again by the next reader after a crash.
+ * <p>
+ * Usage:
+ * <pre>
+ * MappedRingReader reader = new MappedRingReader(new File("blogs.ring"));
+ * while (running) {
+ *     List&lt;BLogRecord&gt; records = reader.read(500, 100);
+ *     ship(records);
+ *     reader.commit();
+ * }
+ * reader.close();
+ * </pre>
+ */
+public class MappedRingReader {
+	private final File file;
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+	// position of the next record to read
+	private long readPos;
+	// a volatile write and read of it fence the record bytes from the head and the tail
+	private volatile int barrier;
+
+	/**
+	 * Open the ring file written by a <tt>MappedRingBHandler</tt>
+	 * @param file ring file
+	 * @throws IOException if the file doesn't exist or isn't a ring file
+	 */
+	public MappedRingReader(File file) throws IOException {
+		this.file = file;
+		if (!file.exists()) {
+			throw new FileNotFoundException(file.getPath());
+		}
+		this.raf = new RandomAccessFile(file, "rw");
+		if (raf.length() < MappedRingBHandler.HEADER_SIZE || raf.readInt() != MappedRingBHandler.MAGIC) {
+			raf.close();
+			throw new IOException("MappedRingReader: " + file + " isn't a ring file");
+		}
+		this.capacity = raf.readInt();
+		this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+				MappedRingBHandler.HEADER_SIZE + (long) capacity);
+		this.readPos = buffer.getLong(MappedRingBHandler.HEAD_OFFSET);
+	}
+
+	/**
+	 * Read the records which have been published after the previous read
+	 * @param max max amount of the records to read
+	 * @param timeout max time to wait for a record (milliseconds), 0 means no waiting
+	 * @return records in the order of the ring, an empty list if there are none
+	 * @throws IOException if a record can't be decoded
+	 * @throws InterruptedException
+	 */
+	public List<BLogRecord> read(int max, long timeout) throws IOException, InterruptedException {
+		List<BLogRecord> records = new ArrayList<BLogRecord>();
+		long deadline = System.currentTimeMillis() + timeout;
+		long tail;
+		while ((tail = buffer.getLong(MappedRingBHandler.TAIL_OFFSET)) == readPos) {
+			if (System.currentTimeMillis() >= deadline) {
+				return records;
+			}
+			Thread.sleep(1);
+		}
+		// the record bytes mustn't be read before the tail
+		fence();
+		while (readPos < tail && records.size() < max) {
+			int phys = (int) (readPos % capacity);
+			if (capacity - phys < 4) {
+				readPos += capacity - phys;
+				continue;
+			}
+			int len = buffer.getInt(MappedRingBHandler.HEADER_SIZE + phys);
+			if (len == MappedRingBHandler.PADDING) {
+				readPos += capacity - phys;
+				continue;
+			}
+			if (len <= 0 || phys + 4 + len > capacity) {
+				throw new IOException("MappedRingReader: bad record length " + len + " at " + readPos + " in " + file);
+			}
+			byte bytes[] = new byte[len];
+			ByteBuffer source = buffer.duplicate();
+			source.position(MappedRingBHandler.HEADER_SIZE + phys + 4);
+			source.get(bytes);
+			records.add(BLogRecordCodec.read(new DataInputStream(new ByteArrayInputStream(bytes))));
+			readPos += 4 + len;
+		}
+		return records;
+	}
+
+	/**
+	 * Release the room of the records which have been read, so the handler can reuse it
+	 */
+	public void commit() {
+		// the record bytes mustn't be overwritten before they have been read
+		fence();
+		buffer.putLong(MappedRingBHandler.HEAD_OFFSET, readPos);
+	}
+
+	/**
+	 * A full fence: a volatile write followed by a volatile read keeps the buffer accesses
+	 * before it from being reordered with the ones after it.
+	 */
+	private int fence() {
+		barrier++;
+		return barrier;
+	}
+
+	/**
+	 * @return amount of bytes published but not read yet
+	 */
+	public long getBacklog() {
+		return buffer.getLong(MappedRingBHandler.TAIL_OFFSET) - readPos;
+	}
+
+	/**
+	 * Close the ring file. The records which haven't been committed are read again
+	 * by the next reader.
+	 */
+	public void close() {
+		try {
+			raf.close();
+		} catch (IOException e) {
+			System.err.println("Error on closing the ring " + file + ": " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,318 @@
+package blogs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <tt>SocketBHandler</tt> ships the records over TCP to a {@link BLogCollector}, which writes
+ * the records of all the application instances into the common CSV files.
+ * <p>
+ * The records are collected into batches. A batch is sent as one framed block (see
+ * {@link BLogBlockCodec}) when it's full or the handler is flushed, and the collector
+ * acknowledges every block after writing it down. The payload can be compressed.
+ * <p>
+ * If the collector is down, the handler reconnects with an exponential backoff and meanwhile
+ * buffers the records in a local spill file (see {@link BLogSpill}). The spilled records are
+ * sent in order before any new ones as soon as the connection is back. Every handler has its own
+ * spill file: the handlers of the same collector take {@code sockethandler_<host>_<port>.spill},
+ * {@code sockethandler_<host>_<port>_2.spill} and so on in the order they're created, or the
+ * name given to the constructor.
+ * <p>
+ * The <tt>SocketBHandler</tt> is configured from <tt>BLogManager</tt> properties
+ * (or their default values):
+ * <ul>
+ * <li>   sockethandler.host        collector host</li>
+ * <li>   sockethandler.port        collector port</li>
+ * <li>   sockethandler.batch_size  max amount of the records in a block</li>
+ * <li>   sockethandler.compress    deflate the blocks (true/false)</li>
+ * <li>   sockethandler.spill.dir   directory of the local spill file</li>
+ * </ul>
+ */
+public class SocketBHandler extends BHandler {
+	public static final String DEFAULT_HOST = "localhost";
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	public static final int CONNECT_TIMEOUT = 5000; // 5 seconds
+	public static final int ACK_TIMEOUT = 30000; // 30 seconds
+	public static final int MIN_BACKOFF = 1000; // 1 second
+	public static final int MAX_BACKOFF = 60000; // 1 minute
+	// the spill files opened by the handlers of this JVM
+	private static final Set<File> openSpills = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+	private String host;
+	private int port;
+	private int batchSize;
+	private boolean compress;
+	private List<BLogRecord> batch = new ArrayList<BLogRecord>();
+	private BLogSpill spill;
+	private File spillFile;
+
+	private Socket socket;
+	private DataOutputStream out;
+	private DataInputStream in;
+	// a time when we can try to connect again
+	private long nextAttempt;
+	private int backoff = MIN_BACKOFF;
+
+	/**
+	 * Configure a SocketBHandler from BLogManager
+	 * properties and/or default values
+	 */
+	private void configure() {
+		BLogManager manager = BLogManager.getLogManager();
+		host = manager.getProperty(BLogManager.SOCKET_HOST_PROP, DEFAULT_HOST);
+		port = manager.getProperty(BLogManager.SOCKET_PORT_PROP, BLogCollector.DEFAULT_PORT);
+		batchSize = manager.getProperty(BLogManager.SOCKET_BATCH_SIZE_PROP, DEFAULT_BATCH_SIZE);
+		compress = manager.getProperty(BLogManager.SOCKET_COMPRESS_PROP, false);
+		getErrorManager().setReportPeriod(manager.getProperty(BLogManager.ERROR_REPORT_PERIOD_PROP, ErrorManager.DEFAULT_REPORT_PERIOD));
+	}
+
+	/**
+	 * Open the local spill file which isn't used by another handler
+	 * @param name the name of the spill file or null to take the first free one of the collector
+	 * @throws IOException
+	 * @exception IllegalStateException if the named spill file is used by another handler
+	 */
+	private void openSpill(String name) throws IOException {
+		BLogManager manager = BLogManager.getLogManager();
+		String dir = manager.getProperty(BLogManager.SOCKET_SPILL_DIR_PROP,
+				manager.getProperty(BLogManager.BLOGS_DIR_PROP, manager.getDefaultBaseDir()));
+		File file;
+		if (name != null) {
+			file = new File(dir, name).getAbsoluteFile();
+			if (!openSpills.add(file)) {
+				throw new IllegalStateException("the spill " + file + " is used by another handler");
+			}
+		} else {
+			String prefix = "sockethandler_" + host + "_" + port;
+			file = new File(dir, prefix + ".spill").getAbsoluteFile();
+			for (int i = 2; !openSpills.add(file); i++) {
+				file = new File(dir, prefix + "_" + i + ".spill").getAbsoluteFile();
+			}
+		}
+		try {
+			spill = new BLogSpill(file);
+		} catch (IOException e) {
+			openSpills.remove(file);
+			throw e;
+		}
+		spillFile = file;
+	}
+
+	/**
+	 * Construct a default <tt>SocketBHandler</tt>. This will be configured
+	 * entirely from <tt>BLogManager</tt> properties (or their default values).
+	 *
+	 * @exception IOException
+	 *                if the local spill file can't be opened.
+	 */
+	public SocketBHandler() throws IOException {
+		configure();
+		openSpill(null);
+	}
+
+	/**
+	 * Construct a <tt>SocketBHandler</tt> for the given collector. The rest is
+	 * configured from <tt>BLogManager</tt> properties (or their default values).
+	 *
+	 * @param host
+	 *            collector host
+	 * @param port
+	 *            collector port
+	 * @exception IOException
+	 *                if the local spill file can't be opened.
+	 * @exception IllegalArgumentException
+	 *                if host is an empty string
+	 */
+	public SocketBHandler(String host, int port) throws IOException {
+		this(host, port, null);
+	}
+
+	/**
+	 * Construct a <tt>SocketBHandler</tt> for the given collector with its own spill file
+	 * (e.g. named after the logger). The rest is configured from <tt>BLogManager</tt>
+	 * properties (or their default values).
+	 *
+	 * @param host
+	 *            collector host
+	 * @param port
+	 *            collector port
+	 * @param spillName
+	 *            the name of the local spill file or null to take the first free one
+	 *            of the collector
+	 * @exception IOException
+	 *                if the local spill file can't be opened.
+	 * @exception IllegalArgumentException
+	 *                if host is an empty string
+	 * @exception IllegalStateException
+	 *                if the spill file is used by another handler
+	 */
+	public SocketBHandler(String host, int port, String spillName) throws IOException {
+		if (host == null || host.length() < 1) {
+			throw new IllegalArgumentException();
+		}
+		configure();
+		this.host = host;
+		this.port = port;
+		openSpill(spillName);
+	}
+
+	/**
+	 * Add the record to the current batch. The batch is sent when it's full.
+	 *
+	 * @param record
+	 *            description of the log event. A null record is silently
+	 *            ignored and is not published
+	 */
+	@Override
+	public synchronized void publish(BLogRecord record) {
+		if (record == null) {
+			return;
+		}
+		batch.add(record);
+		if (batch.size() >= batchSize) {
+			sendBatch();
+		}
+	}
+
+	/**
+	 * Send the current batch and the spilled records if the collector is available.
+	 */
+	@Override
+	public synchronized void flush() {
+		sendBatch();
+		if (spill.isActive()) {
+			replaySpill();
+		}
+	}
+
+	/**
+	 * Send the rest of the records and close the connection. The records which
+	 * haven't been sent stay in the spill file and are sent by the next instance.
+	 */
+	@Override
+	public synchronized void close() {
+		flush();
+		disconnect();
+		spill.close();
+		openSpills.remove(spillFile);
+	}
+
+	/**
+	 * @return true if there are records waiting in the local spill file
+	 */
+	public boolean isBuffering() {
+		return spill.isActive();
+	}
+
+	private void sendBatch() {
+		if (batch.isEmpty()) {
+			return;
+		}
+		List<BLogRecord> records = batch;
+		batch = new ArrayList<BLogRecord>();
+		// the spilled records go first
+		if (spill.isActive() || !send(records)) {
+			for (BLogRecord record : records) {
+				if (!spill.append(record, true)) {
+					getErrorManager().error("the record can't be spilled", null, ErrorManager.WRITE_FAILURE);
+				}
+			}
+		}
+	}
+
+	private void replaySpill() {
+		try {
+			List<BLogRecord> records;
+			while (!(records = spill.read(batchSize)).isEmpty()) {
+				if (!send(records)) {
+					return;
+				}
+				spill.commit();
+			}
+			spill.commit();
+		} catch (IOException e) {
+			getErrorManager().error(e.getMessage(), e, ErrorManager.GENERIC_FAILURE);
+		}
+	}
+
+	/**
+	 * Send the records as one block and wait for the acknowledgement
+	 * @param records
+	 * @return false if the collector isn't available
+	 */
+	private boolean send(List<BLogRecord> records) {
+		if (!connect()) {
+			return false;
+		}
+		try {
+			BLogBlockCodec.write(records, compress, out);
+			int ack = in.readInt();
+			if (ack != records.size()) {
+				throw new IOException("bad acknowledgement " + ack + " for " + records.size() + " records");
+			}
+			return true;
+		} catch (IOException e) {
+			getErrorManager().error("collector " + host + ":" + port + " " + e.getMessage(), e, ErrorManager.WRITE_FAILURE);
+			disconnect();
+			return false;
+		}
+	}
+
+	private boolean connect() {
+		if (socket != null) {
+			return true;
+		}
+		long now = System.currentTimeMillis();
+		if (now < nextAttempt) {
+			return false;
+		}
+		Socket s = new Socket();
+		try {
+			s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+			s.setSoTimeout(ACK_TIMEOUT);
+			s.setTcpNoDelay(true);
+			out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 64 * 1024));
+			in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			socket = s;
+			backoff = MIN_BACKOFF;
+			return true;
+		} catch (IOException e) {
+			try {
+				s.close();
+			} catch (IOException e1) {
+				// nothing to do
+			}
+			getErrorManager().error("collector " + host + ":" + port + " " + e.getMessage(), e, ErrorManager.OPEN_FAILURE);
+			nextAttempt = now + backoff;
+			backoff = Math.min(backoff * 2, MAX_BACKOFF);
+			return false;
+		}
+	}
+
+	private void disconnect() {
+		if (socket == null) {
+			return;
+		}
+		try {
+			socket.close();
+		} catch (IOException e) {
+			getErrorManager().error(e.getMessage(), e, ErrorManager.CLOSE_FAILURE);
+		}
+		socket = null;
+		out = null;
+		in = null;
+		nextAttempt = System.currentTimeMillis() + backoff;
+		backoff = Math.min(backoff * 2, MAX_BACKOFF);
+	}
+}
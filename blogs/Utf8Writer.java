@@ -0,0 +1,185 @@
+package blogs;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * <tt>Utf8Writer</tt> encodes the characters to UTF-8 without a <tt>CharsetEncoder</tt>.
+ * The runs of ASCII characters (dates, enum codes, user ids) are copied into the byte buffer
+ * directly, only the other characters take the slow path.
+ * <p>
+ * The writer knows the exact amount of the encoded bytes, including the bytes which are still
+ * in its buffer, so the owner doesn't need to flush it to count the output.
+ * <p>
+ * A surrogate pair is expected within one {@code write()} call. An unpaired surrogate is
+ * written as '?', the same way {@code String.getBytes()} does it. The writer isn't thread safe.
+ */
+public class Utf8Writer extends Writer {
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private OutputStream out;
+	private final byte buff[];
+	private final char chars[];
+	private int count;
+
+	/**
+	 * Create a <tt>Utf8Writer</tt> with the default buffer size
+	 * @param out the target output stream
+	 */
+	public Utf8Writer(OutputStream out) {
+		this(out, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Create a <tt>Utf8Writer</tt>
+	 * @param out the target output stream
+	 * @param size size of the byte buffer, at least 4 bytes
+	 */
+	public Utf8Writer(OutputStream out, int size) {
+		if (out == null) {
+			throw new NullPointerException();
+		}
+		if (size < 4) {
+			throw new IllegalArgumentException();
+		}
+		this.out = out;
+		this.buff = new byte[size];
+		this.chars = new char[Math.min(size, 1024)];
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		if (c < 0x80 && count < buff.length) {
+			buff[count++] = (byte) c;
+		} else {
+			write(new char[] {(char) c}, 0, 1);
+		}
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		ensureOpen();
+		// a bulk copy into the char buffer is cheaper than charAt() per character
+		while (len > 0) {
+			int n = Math.min(len, chars.length);
+			if (n < len && n > 1 && Character.isHighSurrogate(str.charAt(off + n - 1))) {
+				// keep the surrogate pair in one chunk
+				n--;
+			}
+			str.getChars(off, off + n, chars, 0);
+			write(chars, 0, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void write(char cbuf[], int off, int len) throws IOException {
+		ensureOpen();
+		int end = off + len;
+		int i = off;
+		while (i < end) {
+			// the ASCII fast path
+			byte b[] = buff;
+			int pos = count;
+			int stop = Math.min(end, i + b.length - pos);
+			while (i < stop) {
+				char c = cbuf[i];
+				if (c >= 0x80) {
+					break;
+				}
+				b[pos++] = (byte) c;
+				i++;
+			}
+			count = pos;
+			if (i == end) {
+				break;
+			}
+			if (count == buff.length) {
+				flushBuffer();
+				continue;
+			}
+			char c = cbuf[i++];
+			char next = i < end ? cbuf[i] : 0;
+			if (encode(c, next)) {
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * Encode a non-ASCII character
+	 * @param c
+	 * @param next the following character (0 if there is none)
+	 * @return true if the following character has been consumed as a low surrogate
+	 * @throws IOException
+	 */
+	private boolean encode(char c, char next) throws IOException {
+		if (buff.length - count < 4) {
+			flushBuffer();
+		}
+		if (c < 0x800) {
+			buff[count++] = (byte) (0xC0 | (c >> 6));
+			buff[count++] = (byte) (0x80 | (c & 0x3F));
+			return false;
+		}
+		if (Character.isHighSurrogate(c) && Character.isLowSurrogate(next)) {
+			int cp = Character.toCodePoint(c, next);
+			buff[count++] = (byte) (0xF0 | (cp >> 18));
+			buff[count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+			buff[count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+			buff[count++] = (byte) (0x80 | (cp & 0x3F));
+			return true;
+		}
+		if (Character.isSurrogate(c)) {
+			buff[count++] = '?';
+			return false;
+		}
+		buff[count++] = (byte) (0xE0 | (c >> 12));
+		buff[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+		buff[count++] = (byte) (0x80 | (c & 0x3F));
+		return false;
+	}
+
+	/**
+	 * @return amount of the encoded bytes which haven't been written to the output stream yet
+	 */
+	public int getBufferedBytes() {
+		return count;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buff, 0, count);
+			count = 0;
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (out == null) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		flushBuffer();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (out == null) {
+			return;
+		}
+		try {
+			flushBuffer();
+			out.flush();
+		} finally {
+			out.close();
+			out = null;
+		}
+	}
+}